@@ -0,0 +1,183 @@
+package com.lythe.media.benchmark;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.lythe.media.im.messager.MessageBuildHelper;
+import com.lythe.media.protobuf.BatchMessages;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessage;
+import com.lythe.nativelib.NativeCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩基准
+ * 对比 java.util.zip Deflate 与 NativeCodec 的 LZ4、Zstd 在同步批量包(BatchMessages)上的
+ * 压缩率和压缩/解压耗时。批量包模拟群聊：发送者重复、中英文混合短句、递增seq。
+ * native 路径的输入输出预先放在直接缓冲区中，只计编解码本身；需在真机上运行。
+ */
+public class CompressionBenchmark {
+    private static final String TAG = "CompressionBenchmark";
+    private static final int SENDER_COUNT = 30;
+    private static final int ROUNDS = 20;
+    private static final String[] PHRASES = {
+            "好的，收到", "明天上午十点开会，记得带上周的数据", "哈哈哈哈", "我现在在路上，马上就到",
+            "Can you send me the latest build?", "晚上一起吃饭吗？", "这个问题我看一下，稍后回复你",
+            "OK, sounds good", "https://example.com/share/", "辛苦了！", "发一下文档链接",
+            "Let me check and get back to you", "[图片]", "今天的需求评审改到下午三点"
+    };
+
+    public Result run(int batchSize) throws IOException, DataFormatException {
+        byte[] batch = buildBatch(batchSize, new Random(42));
+        Measurement deflate = measureDeflate(batch);
+        Measurement lz4 = null;
+        Measurement zstd = null;
+        if (NativeCodec.isAvailable()) {
+            lz4 = measureNative(batch, false);
+            zstd = measureNative(batch, true);
+        } else {
+            Log.w(TAG, "nativelib not loaded, skipping LZ4/Zstd");
+        }
+        Result result = new Result(batchSize, batch.length, deflate, lz4, zstd);
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private Measurement measureDeflate(byte[] batch) throws DataFormatException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        Inflater inflater = new Inflater(true);
+        byte[] compressed = new byte[batch.length + 1024];
+        byte[] restored = new byte[batch.length];
+        int size = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        try {
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                deflater.reset();
+                deflater.setInput(batch);
+                deflater.finish();
+                size = deflater.deflate(compressed);
+                long mid = SystemClock.elapsedRealtimeNanos();
+                inflater.reset();
+                inflater.setInput(compressed, 0, size);
+                inflater.inflate(restored);
+                long end = SystemClock.elapsedRealtimeNanos();
+                // 第0轮为预热
+                if (round > 0) {
+                    compressNanos += mid - start;
+                    decompressNanos += end - mid;
+                }
+            }
+        } finally {
+            deflater.end();
+            inflater.end();
+        }
+        return new Measurement(size, compressNanos / ROUNDS, decompressNanos / ROUNDS);
+    }
+
+    private Measurement measureNative(byte[] batch, boolean zstd) throws IOException {
+        int bound = zstd ? NativeCodec.zstdMaxCompressedLength(batch.length)
+                : NativeCodec.lz4MaxCompressedLength(batch.length);
+        ByteBuffer input = ByteBuffer.allocateDirect(batch.length);
+        input.put(batch);
+        ByteBuffer compressed = ByteBuffer.allocateDirect(bound);
+        ByteBuffer restored = ByteBuffer.allocateDirect(batch.length);
+        int size = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            input.flip();
+            compressed.clear();
+            restored.clear();
+            long start = SystemClock.elapsedRealtimeNanos();
+            size = zstd ? NativeCodec.zstdCompress(input, compressed, NativeCodec.ZSTD_DEFAULT_LEVEL)
+                    : NativeCodec.lz4Compress(input, compressed);
+            long mid = SystemClock.elapsedRealtimeNanos();
+            compressed.flip();
+            if (zstd) {
+                NativeCodec.zstdDecompress(compressed, restored);
+            } else {
+                NativeCodec.lz4Decompress(compressed, restored);
+            }
+            long end = SystemClock.elapsedRealtimeNanos();
+            if (round > 0) {
+                compressNanos += mid - start;
+                decompressNanos += end - mid;
+            }
+        }
+        return new Measurement(size, compressNanos / ROUNDS, decompressNanos / ROUNDS);
+    }
+
+    private byte[] buildBatch(int count, Random random) {
+        BatchMessages.Builder batch = BatchMessages.newBuilder();
+        for (int i = 0; i < count; i++) {
+            String text = PHRASES[random.nextInt(PHRASES.length)];
+            if (random.nextInt(4) == 0) {
+                text = text + " " + PHRASES[random.nextInt(PHRASES.length)];
+            }
+            ImMessage message = MessageBuildHelper.buildTextMessageAuto(
+                    "sender_" + random.nextInt(SENDER_COUNT), "group_receiver", "group_benchmark",
+                    text, false, 0)
+                    .toBuilder()
+                    .setConversationType(ImConversationType.GROUP_CHAT)
+                    .setServerMsgSeq(i + 1)
+                    .setServerTimestamp(1_700_000_000_000L + i * 1500L)
+                    .build();
+            batch.addMessages(message);
+        }
+        return batch.setTotalCount(count).build().toByteArray();
+    }
+
+    public static class Measurement {
+        public final int compressedSize;
+        public final long compressNanos;
+        public final long decompressNanos;
+
+        Measurement(int compressedSize, long compressNanos, long decompressNanos) {
+            this.compressedSize = compressedSize;
+            this.compressNanos = compressNanos;
+            this.decompressNanos = decompressNanos;
+        }
+
+        String describe(int originalSize) {
+            return String.format(Locale.US, "%d bytes (%.1f%%), compress %.2f ms, decompress %.2f ms",
+                    compressedSize, 100.0 * compressedSize / originalSize,
+                    compressNanos / 1e6, decompressNanos / 1e6);
+        }
+    }
+
+    /**
+     * 基准结果，native 不可用时 lz4/zstd 为 null
+     */
+    public static class Result {
+        public final int messageCount;
+        public final int originalSize;
+        public final Measurement deflate;
+        public final Measurement lz4;
+        public final Measurement zstd;
+
+        public Result(int messageCount, int originalSize, Measurement deflate, Measurement lz4, Measurement zstd) {
+            this.messageCount = messageCount;
+            this.originalSize = originalSize;
+            this.deflate = deflate;
+            this.lz4 = lz4;
+            this.zstd = zstd;
+        }
+
+        @Override
+        public String toString() {
+            return "messages=" + messageCount + ", batch=" + originalSize + " bytes"
+                    + ", deflate: " + deflate.describe(originalSize)
+                    + (lz4 == null ? "" : ", lz4: " + lz4.describe(originalSize))
+                    + (zstd == null ? "" : ", zstd: " + zstd.describe(originalSize));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.lythe.media.benchmark;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.lythe.media.chats.data.entity.MessageConverter;
+import com.lythe.media.im.InboundMessageDecoder;
+import com.lythe.media.im.messager.MessageBuildHelper;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessage;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 入站解析分配基准
+ * 对比 ImMessage.parseFrom + MessageConverter.fromProto（原路径）、InboundMessageDecoder 完整解码
+ * 与只解码消息头的 每条消息分配次数/字节数和耗时。模拟同一群聊的连续消息（发送者、会话ID重复）。
+ * 需在 debuggable 构建的真机上运行，分配计数依赖 Debug.startAllocCounting。
+ */
+@SuppressWarnings("deprecation")
+public class InboundParseBenchmark {
+    private static final String TAG = "InboundParseBenchmark";
+    private static final int SENDER_COUNT = 20;
+    private static final int MODE_PROTO = 0;
+    private static final int MODE_DECODER = 1;
+    private static final int MODE_HEADER = 2;
+
+    public Result run(int messageCount) throws IOException {
+        byte[][] payloads = buildPayloads(messageCount);
+
+        // 预热，避免把类加载和JIT计入
+        for (int i = 0; i < Math.min(200, messageCount); i++) {
+            MessageConverter.INSTANCE.fromProto(ImMessage.parseFrom(payloads[i]), false);
+        }
+        InboundMessageDecoder decoder = new InboundMessageDecoder();
+        Measurement baseline = measure(payloads, decoder, MODE_PROTO);
+
+        for (int i = 0; i < Math.min(200, messageCount); i++) {
+            decoder.decode(payloads[i], 0, payloads[i].length);
+            decoder.decodeHeader(payloads[i], 0, payloads[i].length);
+        }
+        Measurement decoded = measure(payloads, decoder, MODE_DECODER);
+        Measurement header = measure(payloads, decoder, MODE_HEADER);
+
+        Result result = new Result(messageCount, baseline, decoded, header);
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private Measurement measure(byte[][] payloads, InboundMessageDecoder decoder, int mode) throws IOException {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long start = SystemClock.elapsedRealtimeNanos();
+        Object last = null;
+        for (byte[] payload : payloads) {
+            if (mode == MODE_PROTO) {
+                last = MessageConverter.INSTANCE.fromProto(ImMessage.parseFrom(payload), false);
+            } else if (mode == MODE_DECODER) {
+                last = decoder.decode(payload, 0, payload.length);
+            } else {
+                last = decoder.decodeHeader(payload, 0, payload.length);
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        int allocCount = Debug.getThreadAllocCount();
+        int allocSize = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        if (last == null) {
+            Log.w(TAG, "no messages decoded");
+        }
+        int n = payloads.length;
+        return new Measurement((double) allocCount / n, (double) allocSize / n, (double) elapsed / n);
+    }
+
+    private byte[][] buildPayloads(int count) {
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            payloads[i] = MessageBuildHelper.buildTextMessageAuto(
+                    "sender_" + (i % SENDER_COUNT), "group_receiver", "group_benchmark",
+                    "message body " + i, false, 0)
+                    .toBuilder()
+                    .setConversationType(ImConversationType.GROUP_CHAT)
+                    .setServerMsgSeq(i + 1)
+                    .setTopic("group/chat")
+                    .build()
+                    .toByteArray();
+        }
+        return payloads;
+    }
+
+    public static class Measurement {
+        public final double allocationsPerMessage;
+        public final double bytesPerMessage;
+        public final double nanosPerMessage;
+
+        Measurement(double allocationsPerMessage, double bytesPerMessage, double nanosPerMessage) {
+            this.allocationsPerMessage = allocationsPerMessage;
+            this.bytesPerMessage = bytesPerMessage;
+            this.nanosPerMessage = nanosPerMessage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f allocs, %.0f bytes, %.0f ns per message",
+                    allocationsPerMessage, bytesPerMessage, nanosPerMessage);
+        }
+    }
+
+    /**
+     * 基准结果
+     */
+    public static class Result {
+        public final int messageCount;
+        public final Measurement protoPath;     //parseFrom + fromProto
+        public final Measurement decoderPath;   //InboundMessageDecoder
+        public final Measurement headerPath;    //只解码消息头
+
+        public Result(int messageCount, Measurement protoPath, Measurement decoderPath, Measurement headerPath) {
+            this.messageCount = messageCount;
+            this.protoPath = protoPath;
+            this.decoderPath = decoderPath;
+            this.headerPath = headerPath;
+        }
+
+        @Override
+        public String toString() {
+            return "messages=" + messageCount
+                    + ", parseFrom+fromProto: " + protoPath
+                    + ", decoder: " + decoderPath
+                    + ", header only: " + headerPath;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.lythe.media.benchmark;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.lythe.media.chats.data.entity.MessageConverter;
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.chats.data.repository.MessageRepository;
+import com.lythe.media.im.messager.MessageBuildHelper;
+import com.lythe.media.protobuf.ImMessage;
+import com.lythe.media.protobuf.ImMessageStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 入站消息写库吞吐量基准
+ * 对比 逐条事务（原 insertMessage 路径）与 组提交（MessageProcessor 当前路径）的 消息/秒
+ * 需在真机后台线程运行，写入专用会话，结束后清理
+ */
+public class IngestBenchmark {
+    private static final String TAG = "IngestBenchmark";
+    private static final String BENCHMARK_CONVERSATION_ID = "ingest_benchmark";
+
+    private final MessageRepository repository;
+
+    public IngestBenchmark(Context context) {
+        this.repository = MessageRepository.Companion.getInstance(context.getApplicationContext());
+    }
+
+    /**
+     * @param messageCount 每轮写入的消息数
+     * @param batchSize    组提交每批条数，对应 MessageProcessor 的 INGEST_BATCH_SIZE
+     */
+    public Result run(int messageCount, int batchSize) {
+        repository.deleteConversationWithMessages(BENCHMARK_CONVERSATION_ID);
+
+        List<MessageEntity> perMessage = buildMessages(messageCount);
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (MessageEntity message : perMessage) {
+            repository.insertMessagesInTransaction(Collections.singletonList(message));
+        }
+        double perMessageRate = rate(messageCount, SystemClock.elapsedRealtimeNanos() - start);
+        repository.deleteConversationWithMessages(BENCHMARK_CONVERSATION_ID);
+
+        List<MessageEntity> grouped = buildMessages(messageCount);
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < grouped.size(); i += batchSize) {
+            repository.insertMessagesInTransaction(grouped.subList(i, Math.min(i + batchSize, grouped.size())));
+        }
+        double groupCommitRate = rate(messageCount, SystemClock.elapsedRealtimeNanos() - start);
+        repository.deleteConversationWithMessages(BENCHMARK_CONVERSATION_ID);
+
+        Result result = new Result(messageCount, batchSize, perMessageRate, groupCommitRate);
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private List<MessageEntity> buildMessages(int count) {
+        List<MessageEntity> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ImMessage message = MessageBuildHelper.buildTextMessageAuto(
+                    "benchmark_sender", "benchmark_receiver", BENCHMARK_CONVERSATION_ID,
+                    "benchmark message " + i, false, 0)
+                    .toBuilder()
+                    .setStatus(ImMessageStatus.DELIVERED)
+                    .setServerMsgSeq(i + 1)
+                    .build();
+            messages.add(MessageConverter.INSTANCE.fromProto(message, false));
+        }
+        return messages;
+    }
+
+    private static double rate(int count, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : count * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * 基准结果
+     */
+    public static class Result {
+        public final int messageCount;
+        public final int batchSize;
+        public final double perMessageRate;     //逐条事务，消息/秒
+        public final double groupCommitRate;    //组提交，消息/秒
+
+        public Result(int messageCount, int batchSize, double perMessageRate, double groupCommitRate) {
+            this.messageCount = messageCount;
+            this.batchSize = batchSize;
+            this.perMessageRate = perMessageRate;
+            this.groupCommitRate = groupCommitRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "messages=%d, batch=%d, per-message=%.0f msg/s, group-commit=%.0f msg/s (x%.1f)",
+                    messageCount, batchSize, perMessageRate, groupCommitRate,
+                    perMessageRate > 0 ? groupCommitRate / perMessageRate : 0);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.lythe.media.benchmark;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 在真机上运行各项基准并记录结果：
+ * 1. 通过 Instrumentation.sendStatus 上报，am instrument -r 的输出中可见
+ * 2. 追加写入 应用外部文件目录/benchmarks/<基准名>.txt，可用 adb pull 取回
+ * 基准需 debuggable 构建（分配计数依赖 Debug），测试线程本身就是后台线程
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageBenchmarksTest {
+    private static final String TAG = "MessageBenchmarks";
+
+    @Test
+    public void compression() throws Exception {
+        record("CompressionBenchmark", new CompressionBenchmark().run(200));
+    }
+
+    @Test
+    public void inboundParse() throws Exception {
+        record("InboundParseBenchmark", new InboundParseBenchmark().run(10_000));
+    }
+
+    @Test
+    public void ingest() {
+        record("IngestBenchmark", new IngestBenchmark(context()).run(2_000, 100));
+    }
+
+    @Test
+    public void messagePaging() {
+        record("MessagePagingBenchmark", new MessagePagingBenchmark(context()).run(50_000, 10));
+    }
+
+    @Test
+    public void messageSearch() {
+        record("MessageSearchBenchmark", new MessageSearchBenchmark(context()).run(50_000));
+    }
+
+    @Test
+    public void timeFormat() {
+        record("TimeFormatBenchmark", new TimeFormatBenchmark().run(500, 200));
+    }
+
+    private static Context context() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    private static void record(String name, Object result) {
+        assertNotNull(result);
+        String line = System.currentTimeMillis() + " " + result;
+        Bundle status = new Bundle();
+        status.putString(name, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+
+        File dir = new File(context().getExternalFilesDir(null), "benchmarks");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return;
+        }
+        try (FileWriter writer = new FileWriter(new File(dir, name + ".txt"), true)) {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record " + name, e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.lythe.media.benchmark;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.chats.data.local.dao.MessageDao;
+import com.lythe.media.chats.data.local.database.AppDatabase;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessageStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 历史消息分页基准
+ * 在内存数据库中写入 totalRows 条消息（分布在多个会话，时间戳成批重复以制造同毫秒并列），
+ * 在目标会话的不同深度各取一页，对比 聊天界面实际使用的键集分页(getMessagesBeforeTime / getMessagesAfterTime)
+ * 与 OFFSET 分页 的单页耗时。
+ * 键集分页沿索引直接定位，耗时应与深度和总行数无关。需在后台线程运行。
+ */
+public class MessagePagingBenchmark {
+    private static final String TAG = "MessagePagingBenchmark";
+    private static final String TARGET_CONVERSATION_ID = "paging_benchmark_0";
+    private static final int INSERT_BATCH = 10_000;
+    private static final int PAGE_SIZE = 20;
+    private static final int REPEAT = 20;
+    private static final double[] DEPTHS = {0.0, 0.1, 0.5, 0.9, 0.99};
+
+    private final Context context;
+
+    public MessagePagingBenchmark(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * @param totalRows         表中总消息数，如 1_000_000
+     * @param conversationCount 会话数，目标会话占 1/conversationCount
+     */
+    public Result run(int totalRows, int conversationCount) {
+        AppDatabase db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+        try {
+            MessageDao dao = db.messageDao();
+            int targetRows = populate(db, dao, totalRows, conversationCount);
+
+            List<PageLatency> latencies = new ArrayList<>();
+            for (double depth : DEPTHS) {
+                // 目标会话按时间倒序的第 offset 条作为游标，向更早和更新各翻一页
+                int offset = Math.min(targetRows - 1, (int) (targetRows * depth));
+                int row = (targetRows - 1 - offset) * conversationCount;
+                long cursorTime = timestampOf(row);
+                String cursorMsgId = msgIdOf(row);
+                long olderNanos = measure(() -> dao.getMessagesBeforeTime(
+                        TARGET_CONVERSATION_ID, cursorTime, cursorMsgId, PAGE_SIZE));
+                long newerNanos = measure(() -> dao.getMessagesAfterTime(
+                        TARGET_CONVERSATION_ID, cursorTime, cursorMsgId, PAGE_SIZE));
+                long offsetNanos = measure(() -> queryByOffset(db, offset));
+                latencies.add(new PageLatency(depth, olderNanos, newerNanos, offsetNanos));
+            }
+            Result result = new Result(totalRows, targetRows, latencies);
+            Log.i(TAG, result.toString());
+            return result;
+        } finally {
+            db.close();
+        }
+    }
+
+    private long baseTime;
+
+    // 每8条同一毫秒，制造同毫秒并列
+    private long timestampOf(int row) {
+        return baseTime + row / 8;
+    }
+
+    private static String msgIdOf(int row) {
+        return "paging_" + row;
+    }
+
+    private int populate(AppDatabase db, MessageDao dao, int totalRows, int conversationCount) {
+        int targetRows = 0;
+        baseTime = System.currentTimeMillis() - totalRows;
+        long[] nextSeq = new long[conversationCount];
+        List<MessageEntity> batch = new ArrayList<>(INSERT_BATCH);
+        for (int i = 0; i < totalRows; i++) {
+            int conversation = i % conversationCount;
+            if (conversation == 0) {
+                targetRows++;
+            }
+            long seq = ++nextSeq[conversation];
+            batch.add(new MessageEntity(
+                    msgIdOf(i),
+                    "paging_benchmark_" + conversation,
+                    ImConversationType.GROUP_CHAT,
+                    "sender_" + (i % 50),
+                    "paging_receiver",
+                    0,
+                    "benchmark message " + i,
+                    "",
+                    0,
+                    timestampOf(i),
+                    seq,
+                    false,
+                    ImMessageStatus.DELIVERED_VALUE,
+                    null,
+                    0,
+                    0,
+                    true,
+                    false,
+                    null,
+                    null));
+            if (batch.size() == INSERT_BATCH) {
+                flush(db, dao, batch);
+            }
+        }
+        flush(db, dao, batch);
+        return targetRows;
+    }
+
+    private void flush(AppDatabase db, MessageDao dao, List<MessageEntity> batch) {
+        if (!batch.isEmpty()) {
+            db.runInTransaction(() -> dao.insertAll(batch));
+            batch.clear();
+        }
+    }
+
+    private int queryByOffset(AppDatabase db, int offset) {
+        SimpleSQLiteQuery query = new SimpleSQLiteQuery(
+                "SELECT * FROM messages WHERE conversationId = ? "
+                        + "ORDER BY timestamp DESC, msgId DESC LIMIT ? OFFSET ?",
+                new Object[]{TARGET_CONVERSATION_ID, PAGE_SIZE, offset});
+        try (Cursor cursor = db.query(query)) {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static long measure(Runnable page) {
+        page.run(); // 预热语句缓存
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < REPEAT; i++) {
+            page.run();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / REPEAT;
+    }
+
+    public static class PageLatency {
+        public final double depth;
+        public final long olderNanos;
+        public final long newerNanos;
+        public final long offsetNanos;
+
+        PageLatency(double depth, long olderNanos, long newerNanos, long offsetNanos) {
+            this.depth = depth;
+            this.olderNanos = olderNanos;
+            this.newerNanos = newerNanos;
+            this.offsetNanos = offsetNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "depth %.0f%%: keyset older %.2f ms, newer %.2f ms, offset %.2f ms",
+                    depth * 100, olderNanos / 1e6, newerNanos / 1e6, offsetNanos / 1e6);
+        }
+    }
+
+    /**
+     * 基准结果
+     */
+    public static class Result {
+        public final int totalRows;
+        public final int conversationRows;
+        public final List<PageLatency> latencies;
+
+        public Result(int totalRows, int conversationRows, List<PageLatency> latencies) {
+            this.totalRows = totalRows;
+            this.conversationRows = conversationRows;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public String toString() {
+            return "rows=" + totalRows + ", conversation rows=" + conversationRows + ", " + latencies;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.lythe.media.benchmark;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.chats.data.local.dao.MessageDao;
+import com.lythe.media.chats.data.local.database.AppDatabase;
+import com.lythe.media.chats.data.search.MessageSearchTokenizer;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessageStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 消息全文检索基准
+ * 在内存数据库中写入 totalRows 条中英文混合消息，对若干搜索词分别用
+ * FTS(searchMessages) 和 LIKE '%词%' 全表扫描取第一页，对比单次耗时和命中条数。
+ * 需在后台线程运行。
+ */
+public class MessageSearchBenchmark {
+    private static final String TAG = "MessageSearchBenchmark";
+    private static final int INSERT_BATCH = 10_000;
+    private static final int PAGE_SIZE = 20;
+    private static final int REPEAT = 10;
+    private static final String[] PHRASES = {
+            "好的，收到", "明天上午十点开会，记得带上周的数据", "哈哈哈哈", "我现在在路上，马上就到",
+            "Can you send me the latest build?", "晚上一起吃饭吗？", "这个问题我看一下，稍后回复你",
+            "OK, sounds good", "辛苦了！", "发一下文档链接", "Let me check and get back to you",
+            "今天的需求评审改到下午三点", "周报已经发到群里了", "服务器又挂了，谁在看？"
+    };
+    private static final String[] QUERIES = {"需求评审", "服务器", "吃饭", "build", "周"};
+
+    private final Context context;
+
+    public MessageSearchBenchmark(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public Result run(int totalRows) {
+        AppDatabase db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+        try {
+            MessageDao dao = db.messageDao();
+            populate(db, dao, totalRows, new Random(42));
+
+            List<QueryLatency> latencies = new ArrayList<>();
+            for (String query : QUERIES) {
+                String match = MessageSearchTokenizer.toMatchQuery(query);
+                int[] ftsHits = new int[1];
+                int[] likeHits = new int[1];
+                long ftsNanos = measure(() -> ftsHits[0] = dao.searchMessages(
+                        match, Long.MAX_VALUE, "", PAGE_SIZE).size());
+                long likeNanos = measure(() -> likeHits[0] = queryByLike(db, query));
+                latencies.add(new QueryLatency(query, ftsHits[0], ftsNanos, likeHits[0], likeNanos));
+            }
+            Result result = new Result(totalRows, latencies);
+            Log.i(TAG, result.toString());
+            return result;
+        } finally {
+            db.close();
+        }
+    }
+
+    private void populate(AppDatabase db, MessageDao dao, int totalRows, Random random) {
+        long baseTime = System.currentTimeMillis() - totalRows;
+        List<MessageEntity> batch = new ArrayList<>(INSERT_BATCH);
+        for (int i = 0; i < totalRows; i++) {
+            String content = PHRASES[random.nextInt(PHRASES.length)];
+            if (random.nextInt(4) == 0) {
+                content = content + " " + PHRASES[random.nextInt(PHRASES.length)];
+            }
+            batch.add(new MessageEntity(
+                    "search_" + i,
+                    "search_benchmark_" + (i % 100),
+                    ImConversationType.GROUP_CHAT,
+                    "sender_" + (i % 50),
+                    "search_receiver",
+                    0,
+                    content,
+                    "",
+                    0,
+                    baseTime + i,
+                    i + 1,
+                    false,
+                    ImMessageStatus.DELIVERED_VALUE,
+                    null,
+                    0,
+                    0,
+                    true,
+                    false,
+                    MessageSearchTokenizer.tokenize(content),
+                    null));
+            if (batch.size() == INSERT_BATCH) {
+                flush(db, dao, batch);
+            }
+        }
+        flush(db, dao, batch);
+    }
+
+    private void flush(AppDatabase db, MessageDao dao, List<MessageEntity> batch) {
+        if (!batch.isEmpty()) {
+            db.runInTransaction(() -> dao.insertAll(batch));
+            batch.clear();
+        }
+    }
+
+    private int queryByLike(AppDatabase db, String query) {
+        SimpleSQLiteQuery like = new SimpleSQLiteQuery(
+                "SELECT * FROM messages WHERE content LIKE ? "
+                        + "ORDER BY timestamp DESC, msgId DESC LIMIT ?",
+                new Object[]{"%" + query + "%", PAGE_SIZE});
+        try (Cursor cursor = db.query(like)) {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static long measure(Runnable search) {
+        search.run(); // 预热语句缓存
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < REPEAT; i++) {
+            search.run();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / REPEAT;
+    }
+
+    public static class QueryLatency {
+        public final String query;
+        public final int ftsHits;
+        public final long ftsNanos;
+        public final int likeHits;
+        public final long likeNanos;
+
+        QueryLatency(String query, int ftsHits, long ftsNanos, int likeHits, long likeNanos) {
+            this.query = query;
+            this.ftsHits = ftsHits;
+            this.ftsNanos = ftsNanos;
+            this.likeHits = likeHits;
+            this.likeNanos = likeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "'%s': fts %.2f ms (%d), like %.2f ms (%d)",
+                    query, ftsNanos / 1e6, ftsHits, likeNanos / 1e6, likeHits);
+        }
+    }
+
+    /**
+     * 基准结果，括号内为首页命中条数，两者应一致
+     */
+    public static class Result {
+        public final int totalRows;
+        public final List<QueryLatency> latencies;
+
+        public Result(int totalRows, List<QueryLatency> latencies) {
+            this.totalRows = totalRows;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public String toString() {
+            return "rows=" + totalRows + ", " + latencies;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.lythe.media.benchmark;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.lythe.media.chats.utils.ChatTimeFormatter;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.function.LongFunction;
+
+/**
+ * 会话时间格式化基准
+ * 取一组分布在近一年内的时间戳（模拟会话列表），先各格式化一轮预热，
+ * 再分别用 旧实现（每次新建 Calendar/SimpleDateFormat）和 ChatTimeFormatter
+ * 循环格式化，对比单次耗时和当前线程的单次分配次数。稳定状态下后者分配应为 0。
+ */
+public class TimeFormatBenchmark {
+    private static final String TAG = "TimeFormatBenchmark";
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    @SuppressWarnings("deprecation")
+    public Result run(int timestampCount, int rounds) {
+        long now = System.currentTimeMillis();
+        long[] timestamps = new long[timestampCount];
+        for (int i = 0; i < timestampCount; i++) {
+            // 越靠前越新，间隔逐渐拉大，覆盖今天、昨天、一周内、今年和更早
+            timestamps[i] = now - (long) i * i * HOUR_MS / 4;
+        }
+        ChatTimeFormatter formatter = ChatTimeFormatter.getInstance();
+
+        Debug.startAllocCounting();
+        try {
+            Measurement legacy = measure(timestamps, rounds, TimeFormatBenchmark::legacyFormatChatTime);
+            Measurement cached = measure(timestamps, rounds, formatter::formatChatTime);
+            Measurement separator = measure(timestamps, rounds, formatter::formatDateSeparator);
+            Result result = new Result(timestampCount, legacy, cached, separator);
+            Log.i(TAG, result.toString());
+            return result;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Measurement measure(long[] timestamps, int rounds, LongFunction<String> format) {
+        for (long timestamp : timestamps) {
+            format.apply(timestamp); // 预热缓存
+        }
+        long calls = (long) timestamps.length * rounds;
+        Debug.resetThreadAllocCount();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < rounds; round++) {
+            for (long timestamp : timestamps) {
+                format.apply(timestamp);
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        int allocations = Debug.getThreadAllocCount();
+        return new Measurement(elapsed / calls, (double) allocations / calls);
+    }
+
+    /**
+     * 改造前 TimeUtils.formatChatTime 的写法，作为对照
+     */
+    private static String legacyFormatChatTime(long timestamp) {
+        Calendar today = Calendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DATE, -1);
+        yesterday.set(Calendar.HOUR_OF_DAY, 0);
+        yesterday.set(Calendar.MINUTE, 0);
+        yesterday.set(Calendar.SECOND, 0);
+        yesterday.set(Calendar.MILLISECOND, 0);
+        Calendar weekStart = Calendar.getInstance();
+        weekStart.add(Calendar.DATE, -7);
+        if (timestamp >= today.getTimeInMillis()) {
+            return new SimpleDateFormat("HH:mm", Locale.getDefault()).format(new Date(timestamp));
+        } else if (timestamp >= yesterday.getTimeInMillis()) {
+            return "昨天";
+        } else if (timestamp >= weekStart.getTimeInMillis()) {
+            String[] weekDays = {"周日", "周一", "周二", "周三", "周四", "周五", "周六"};
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(timestamp);
+            return weekDays[cal.get(Calendar.DAY_OF_WEEK) - 1];
+        }
+        Calendar currentYear = Calendar.getInstance();
+        currentYear.set(Calendar.DAY_OF_YEAR, 1);
+        currentYear.set(Calendar.HOUR_OF_DAY, 0);
+        currentYear.set(Calendar.MINUTE, 0);
+        currentYear.set(Calendar.SECOND, 0);
+        currentYear.set(Calendar.MILLISECOND, 0);
+        if (timestamp >= currentYear.getTimeInMillis()) {
+            return new SimpleDateFormat("MM/dd", Locale.getDefault()).format(new Date(timestamp));
+        }
+        return new SimpleDateFormat("yyyy/MM/dd", Locale.getDefault()).format(new Date(timestamp));
+    }
+
+    public static class Measurement {
+        public final long nanosPerCall;
+        public final double allocationsPerCall;
+
+        Measurement(long nanosPerCall, double allocationsPerCall) {
+            this.nanosPerCall = nanosPerCall;
+            this.allocationsPerCall = allocationsPerCall;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d ns, %.2f allocs", nanosPerCall, allocationsPerCall);
+        }
+    }
+
+    /**
+     * 基准结果，均为单次调用的平均值
+     */
+    public static class Result {
+        public final int timestampCount;
+        public final Measurement legacy;
+        public final Measurement cached;
+        public final Measurement separator;
+
+        public Result(int timestampCount, Measurement legacy, Measurement cached, Measurement separator) {
+            this.timestampCount = timestampCount;
+            this.legacy = legacy;
+            this.cached = cached;
+            this.separator = separator;
+        }
+
+        @Override
+        public String toString() {
+            return "timestamps=" + timestampCount + ", legacy: " + legacy
+                    + ", cached: " + cached + ", separator: " + separator;
+        }
+    }
+}
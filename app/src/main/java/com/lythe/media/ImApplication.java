@@ -2,8 +2,13 @@ package com.lythe.media;
 
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 
 
+import com.lythe.media.chats.utils.ChatTimeFormatter;
 import com.lythe.media.chats.utils.MqttMessageSender;
 import com.lythe.media.chats.utils.OkHttpFileUploader;
 import com.lythe.media.chats.utils.SendMessagesHelper;
@@ -12,6 +17,7 @@ import com.lythe.media.im.messager.queue.MessageQueue;
 import com.lythe.media.im.net.AuthManager;
 import com.lythe.media.im.net.RetrofitClient;
 import com.lythe.media.im.service.MqttForegroundService;
+import com.lythe.media.ui.adapter.MessageViewPool;
 import com.lythe.media.im.utils.MqttServiceManager;
 import com.lythe.media.im.messager.logging.Logger;
 import com.lythe.media.im.messager.monitor.PerformanceMonitor;
@@ -64,6 +70,9 @@ public class ImApplication extends Application {
                 getApplicationContext());
         MqttServiceManager.getInstance(getApplicationContext()).initialize();
         initAuthInfo();
+        registerTimeChangeReceiver();
+        // 后台预加载聊天气泡布局，首次打开会话不在主线程解析布局
+        MessageViewPool.getInstance(this).prewarm();
         
         logger.info(TAG, "Application startup completed");
     }
@@ -120,6 +129,20 @@ public class ImApplication extends Application {
         }
     }
 
+    /**
+     * 时区或系统时间被修改后，丢弃按旧时区算好的今天/昨天边界
+     */
+    private void registerTimeChangeReceiver() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                ChatTimeFormatter.getInstance().invalidate();
+            }
+        }, filter);
+    }
+
     private void initAuthInfo() {
         new Thread(() -> {
             try {
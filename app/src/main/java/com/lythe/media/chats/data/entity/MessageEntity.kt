@@ -2,7 +2,11 @@ package com.lythe.media.chats.data.entity
 
 import android.util.Log
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.google.protobuf.InvalidProtocolBufferException
+import com.lythe.media.chats.data.search.MessageSearchTokenizer
+import com.lythe.media.im.messager.compression.ContentCodec
 import com.lythe.media.protobuf.ImConversationType
 import com.lythe.media.protobuf.ImFileContent
 import com.lythe.media.protobuf.ImImageContent
@@ -15,7 +19,18 @@ import com.lythe.media.protobuf.ImTextContent
 import com.lythe.media.protobuf.ImVideoContent
 import com.lythe.media.protobuf.ImVoiceContent
 
-@Entity(tableName = "messages")
+/**
+ * 索引：
+ * (conversationId, serverMsgSeq, msgId) 支撑按 seq 的键集分页和 MAX(serverMsgSeq)
+ * (conversationId, timestamp, msgId) 支撑聊天界面按时间的双向键集分页和按时间范围的查询
+ */
+@Entity(
+    tableName = "messages",
+    indices = [
+        Index(value = ["conversationId", "serverMsgSeq", "msgId"]),
+        Index(value = ["conversationId", "timestamp", "msgId"])
+    ]
+)
 data class MessageEntity(
     @PrimaryKey
     val msgId: String,
@@ -37,7 +52,64 @@ data class MessageEntity(
     val duration: Int = 0,
     val isRead: Boolean = false,
     var isSelf: Boolean = false,
-)
+    // 全文检索用的分词结果，只有文本消息才有，见 MessageSearchTokenizer
+    val searchText: String? = null,
+    // 原始 ImMessage 序列化字节，上面的列只是它的索引/摘要；status 等会变的状态以列为准
+    val rawMessage: ByteArray? = null,
+) {
+    /**
+     * 数据类默认按引用比较数组，这里按内容比较 rawMessage，
+     * DiffUtil 等按 equals 判断内容是否变化的地方才不会把同一条消息当成已修改
+     */
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is MessageEntity) return false
+        return msgId == other.msgId &&
+                conversationId == other.conversationId &&
+                conversationType == other.conversationType &&
+                fromUid == other.fromUid &&
+                toUid == other.toUid &&
+                msgType == other.msgType &&
+                content == other.content &&
+                topic == other.topic &&
+                retryCount == other.retryCount &&
+                timestamp == other.timestamp &&
+                serverMsgSeq == other.serverMsgSeq &&
+                isEdited == other.isEdited &&
+                status == other.status &&
+                filePath == other.filePath &&
+                fileSize == other.fileSize &&
+                duration == other.duration &&
+                isRead == other.isRead &&
+                isSelf == other.isSelf &&
+                searchText == other.searchText &&
+                rawMessage.contentEquals(other.rawMessage)
+    }
+
+    override fun hashCode(): Int {
+        var result = msgId.hashCode()
+        result = 31 * result + conversationId.hashCode()
+        result = 31 * result + conversationType.hashCode()
+        result = 31 * result + fromUid.hashCode()
+        result = 31 * result + toUid.hashCode()
+        result = 31 * result + msgType
+        result = 31 * result + (content?.hashCode() ?: 0)
+        result = 31 * result + topic.hashCode()
+        result = 31 * result + retryCount
+        result = 31 * result + timestamp.hashCode()
+        result = 31 * result + serverMsgSeq.hashCode()
+        result = 31 * result + isEdited.hashCode()
+        result = 31 * result + status
+        result = 31 * result + (filePath?.hashCode() ?: 0)
+        result = 31 * result + fileSize.hashCode()
+        result = 31 * result + duration
+        result = 31 * result + isRead.hashCode()
+        result = 31 * result + isSelf.hashCode()
+        result = 31 * result + (searchText?.hashCode() ?: 0)
+        result = 31 * result + rawMessage.contentHashCode()
+        return result
+    }
+}
 //    val replyToMsgId: String,
 
 object MessageConverter {
@@ -48,10 +120,12 @@ object MessageConverter {
         var filePath: String? = null
         var fileSize: Long = 0
         var duration: Int = 0
+        var searchable = false
 
         when(protoMsg.contentCase) {
             ImMessage.ContentCase.TEXT_CONTENT -> {
                 content = protoMsg.textContent.text
+                searchable = true
             }
             ImMessage.ContentCase.IMAGE_CONTENT -> {
                 val image = protoMsg.imageContent
@@ -90,7 +164,14 @@ object MessageConverter {
                 filePath = sticker.url
             }
             ImMessage.ContentCase.CONTENT_NOT_SET -> {
-                content = "[UNKNOWN MESSAGE]"
+                content = if (!protoMsg.contentBytes.isEmpty
+                    && protoMsg.contentType == ImMessageContentType.CONTENT_TEXT) {
+                    // 长文本走 content_bytes，按 codec 帧头解压
+                    searchable = true
+                    String(ContentCodec.getInstance().decodeLenient(protoMsg.contentBytes.toByteArray()), Charsets.UTF_8)
+                } else {
+                    "[UNKNOWN MESSAGE]"
+                }
             }
 
         }
@@ -116,11 +197,25 @@ object MessageConverter {
             isEdited = protoMsg.isEdited,
             topic = protoMsg.topic,
             retryCount = protoMsg.retryCount,
+            searchText = if (searchable) MessageSearchTokenizer.tokenize(content) else null,
+            rawMessage = protoMsg.toByteArray(),
 //            mentionUserIds = protoMsg.mentionUserIdsList,
         )
     }
 
     fun toProto(entity: MessageEntity): ImMessage {
+        // 有原始字节时直接还原，提及、回复、宽高、缩略图等没有落列的字段都不丢；只覆盖会变的列
+        entity.rawMessage?.let { raw ->
+            try {
+                return ImMessage.parseFrom(raw).toBuilder()
+                    .setStatusValue(entity.status)
+                    .setIsEdited(entity.isEdited)
+                    .setServerMsgSeq(entity.serverMsgSeq)
+                    .build()
+            } catch (e: InvalidProtocolBufferException) {
+                Log.e(TAG, "Corrupt raw message ${entity.msgId}, rebuilding from columns", e)
+            }
+        }
 
         // 1. 基础字段构建
         val builder = ImMessage.newBuilder()
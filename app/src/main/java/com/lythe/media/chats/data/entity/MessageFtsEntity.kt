@@ -0,0 +1,17 @@
+package com.lythe.media.chats.data.entity
+
+import androidx.room.Entity
+import androidx.room.Fts4
+
+/**
+ * messages 的全文索引，外部内容表：只存倒排索引，不重复保存文本
+ * Room 按 contentEntity 生成触发器，messages 增删改时自动同步，docid 即 messages.rowid
+ * searchText 由 MessageSearchTokenizer 预先切好词，默认 simple 分词器按空格取词即可
+ * 系统 SQLite 未编译 FTS5，Room 也只支持 FTS3/FTS4，这里用 FTS4
+ * messages 没有 INTEGER 主键，VACUUM 可能重排 rowid，执行后需 MessageRepository.rebuildSearchIndex
+ */
+@Fts4(contentEntity = MessageEntity::class)
+@Entity(tableName = "messages_fts")
+data class MessageFtsEntity(
+    val searchText: String?
+)
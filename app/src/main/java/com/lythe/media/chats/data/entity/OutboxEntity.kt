@@ -0,0 +1,33 @@
+package com.lythe.media.chats.data.entity
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 发件箱：待发送消息及其重试状态
+ * 与 messages 表分离，messages 只负责展示，重启恢复时按 nextAttemptAt 范围扫描本表
+ */
+@Entity(
+    tableName = "outbox",
+    indices = [Index(value = ["nextAttemptAt"])]
+)
+data class OutboxEntity(
+    @PrimaryKey
+    val msgId: String,
+    val topic: String,
+    val qos: Int,
+    val isHighPriority: Boolean,
+    val attemptCount: Int = 0,
+    val nextAttemptAt: Long,        // System.currentTimeMillis() 时间基准，重启后仍有效
+    val createdAt: Long,
+    val payload: ByteArray,         // 序列化后的 ImMessage
+) {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is OutboxEntity) return false
+        return msgId == other.msgId
+    }
+
+    override fun hashCode(): Int = msgId.hashCode()
+}
@@ -8,4 +8,10 @@ public interface LocalMessageCache {
     //对话ID，最大消息ID，加载数量
     List<MessageEntity> getMessagesFromCache(Long dialogId, Long maxId, Integer count);
     void saveMessageToCache(MessageEntity messages);
+    //批量保存，默认逐条保存；支持事务的实现应整批提交
+    default void saveMessagesToCache(List<MessageEntity> messages) {
+        for(MessageEntity message : messages) {
+            saveMessageToCache(message);
+        }
+    }
 }
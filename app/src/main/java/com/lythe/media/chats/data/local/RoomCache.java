@@ -26,4 +26,13 @@ public class RoomCache implements LocalMessageCache{
         }
         messageRepository.insertMessage(message);
     }
+
+    @Override
+    public void saveMessagesToCache(List<MessageEntity> messages) {
+        if(messages == null || messages.isEmpty()) {
+            return;
+        }
+        // 同步写入，返回时整批已提交
+        messageRepository.insertMessagesInTransaction(messages);
+    }
 }
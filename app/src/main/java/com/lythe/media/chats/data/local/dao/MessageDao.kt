@@ -13,25 +13,56 @@ interface MessageDao {
 
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     fun insert(message: MessageEntity): Long
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertAll(messages: List<MessageEntity>): List<Long>
     @Update
     fun update(message: MessageEntity)
+    /**
+     * 只改状态列，发送成功/失败等状态流转用这个，不必整行回写
+     */
+    @Query("UPDATE messages SET status = :status WHERE msgId = :msgId")
+    fun updateStatus(msgId: String, status: Int): Int
     @Query("SELECT * FROM messages WHERE conversationId = :conversationId")
     fun getMessages(conversationId: String): List<MessageEntity>
+    /**
+     * 聊天界面的双向键集分页按 (timestamp, msgId)：自己发出的消息没有服务端 seq（始终为0），
+     * 按 seq 排会全部沉到最老的位置。两个方向都不含游标本身
+     * 写成 OR 形式而非行值比较，API 24 自带的 SQLite 不支持 (a, b) < (x, y)
+     */
+    @Query("SELECT * FROM messages " +
+            "WHERE conversationId = :conversationId " +
+            "AND timestamp <= :beforeTimestamp " +
+            "AND (timestamp < :beforeTimestamp OR msgId < :beforeMsgId) " +
+            "ORDER BY timestamp DESC, msgId DESC LIMIT :limit")
+    fun getMessagesBeforeTime(conversationId: String, beforeTimestamp: Long, beforeMsgId: String, limit: Int): List<MessageEntity>
     @Query("SELECT * FROM messages " +
             "WHERE conversationId = :conversationId " +
-            "AND timestamp < :earliestTimestamp " +
-            "ORDER BY timestamp DESC LIMIT :limit")
-    fun getMessagesPaged(conversationId: String, limit: Int, earliestTimestamp: Long): List<MessageEntity>
+            "AND timestamp >= :afterTimestamp " +
+            "AND (timestamp > :afterTimestamp OR msgId > :afterMsgId) " +
+            "ORDER BY timestamp ASC, msgId ASC LIMIT :limit")
+    fun getMessagesAfterTime(conversationId: String, afterTimestamp: Long, afterMsgId: String, limit: Int): List<MessageEntity>
+    /**
+     * 全文检索，跨全部会话按时间倒序，同样按 (timestamp, msgId) 键集翻页，首页传 Long.MAX_VALUE 和 ""
+     * match 由 MessageSearchTokenizer.toMatchQuery 生成；先由 FTS 取命中的 docid，再按 rowid 回表
+     */
+    @Query("SELECT messages.* FROM messages_fts " +
+            "JOIN messages ON messages.rowid = messages_fts.docid " +
+            "WHERE messages_fts MATCH :match " +
+            "AND messages.timestamp <= :beforeTimestamp " +
+            "AND (messages.timestamp < :beforeTimestamp OR messages.msgId < :beforeMsgId) " +
+            "ORDER BY messages.timestamp DESC, messages.msgId DESC LIMIT :limit")
+    fun searchMessages(match: String, beforeTimestamp: Long, beforeMsgId: String, limit: Int): List<MessageEntity>
+    @Query("SELECT * FROM messages WHERE msgId = :msgId")
+    fun getMessageById(msgId: String): MessageEntity?
+    @Query("SELECT MAX(serverMsgSeq) FROM messages WHERE conversationId = :conversationId")
+    fun getMaxServerMsgSeq(conversationId: String): Long?
+    @Query("DELETE FROM messages WHERE conversationId = :conversationId")
+    fun deleteByConversation(conversationId: String): Int
 
-    @Query("SELECT * FROM messages WHERE  status = 0")
-    fun getPendingMessages(): List<MessageEntity>;
 //
 //    @Query("SELECT * FROM messages WHERE session_id = :sessionId ORDER BY server_time ASC")
 //    fun getMessagesBySession(sessionId: String): Flow<List<MessageEntity>>
 //
-//    @Query("UPDATE messages SET status = :status WHERE msg_id = :msgId")
-//    suspend fun updateStatus(msgId: String, status: Int)
-//
 //    @Query("UPDATE messages SET is_read = 1 WHERE session_id = :sessionId AND is_self = 0")
 //    suspend fun markAsRead(sessionId: String)
 //
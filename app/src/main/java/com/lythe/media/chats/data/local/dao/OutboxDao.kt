@@ -0,0 +1,25 @@
+package com.lythe.media.chats.data.local.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.lythe.media.chats.data.entity.OutboxEntity
+
+@Dao
+interface OutboxDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(entry: OutboxEntity): Long
+
+    @Query("SELECT * FROM outbox WHERE nextAttemptAt <= :until ORDER BY nextAttemptAt ASC")
+    fun getDueBefore(until: Long): List<OutboxEntity>
+
+    @Query("UPDATE outbox SET attemptCount = :attemptCount, nextAttemptAt = :nextAttemptAt WHERE msgId = :msgId")
+    fun updateAttempt(msgId: String, attemptCount: Int, nextAttemptAt: Long): Int
+
+    @Query("DELETE FROM outbox WHERE msgId = :msgId")
+    fun delete(msgId: String): Int
+
+    @Query("DELETE FROM outbox")
+    fun deleteAll()
+}
@@ -5,19 +5,25 @@ import android.util.Log
 import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
+import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import com.lythe.media.chats.data.entity.ConversationEntity
 import com.lythe.media.chats.data.entity.FriendEntity
 import com.lythe.media.chats.data.entity.GroupEntity
 import com.lythe.media.chats.data.entity.GroupMemberEntity
+import com.lythe.media.chats.data.entity.MessageConverter
 import com.lythe.media.chats.data.entity.MessageEntity
+import com.lythe.media.chats.data.entity.MessageFtsEntity
+import com.lythe.media.chats.data.entity.OutboxEntity
 import com.lythe.media.chats.data.entity.UserEntity
 import com.lythe.media.chats.data.local.dao.ConversationDao
 import com.lythe.media.chats.data.local.dao.FriendDao
 import com.lythe.media.chats.data.local.dao.GroupDao
 import com.lythe.media.chats.data.local.dao.GroupMemberDao
 import com.lythe.media.chats.data.local.dao.MessageDao
-import java.util.concurrent.Executors
+import com.lythe.media.chats.data.local.dao.OutboxDao
+import com.lythe.media.chats.data.search.MessageSearchTokenizer
+import com.lythe.media.protobuf.ImConversationType
 
 @Database(entities = [
     FriendEntity::class,
@@ -25,12 +31,193 @@ import java.util.concurrent.Executors
     GroupMemberEntity::class,
     MessageEntity::class,
     UserEntity::class,
-    ConversationEntity::class], version = 1)
+    ConversationEntity::class,
+    OutboxEntity::class,
+    MessageFtsEntity::class], version = 7)
 abstract class AppDatabase : RoomDatabase() {
     companion object {
         private const val TAG = "AppDatabase"
         private const val DATABASE_NAME = "chat_database"
 
+        // 1 -> 2：新建 outbox 表，并把 messages 中仍待发送（status = 0）的消息搬进去，升级后照常重发
+        private val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`msgId` TEXT NOT NULL, `topic` TEXT NOT NULL, " +
+                        "`qos` INTEGER NOT NULL, `isHighPriority` INTEGER NOT NULL, `attemptCount` INTEGER NOT NULL, " +
+                        "`nextAttemptAt` INTEGER NOT NULL, `createdAt` INTEGER NOT NULL, `payload` BLOB NOT NULL, " +
+                        "PRIMARY KEY(`msgId`))")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_outbox_nextAttemptAt` ON `outbox` (`nextAttemptAt`)")
+                seedOutboxFromPendingMessages(db)
+            }
+        }
+
+        // 2 -> 3：messages 表增加分页索引，只建索引不动数据
+        private val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversationId_serverMsgSeq_msgId` " +
+                        "ON `messages` (`conversationId`, `serverMsgSeq`, `msgId`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversationId_timestamp` " +
+                        "ON `messages` (`conversationId`, `timestamp`)")
+            }
+        }
+
+        // 3 -> 4：时间索引补上 msgId，(timestamp, msgId) 键集分页可以直接沿索引取页，不再排序
+        private val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("DROP INDEX IF EXISTS `index_messages_conversationId_timestamp`")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversationId_timestamp_msgId` " +
+                        "ON `messages` (`conversationId`, `timestamp`, `msgId`)")
+            }
+        }
+
+        // 4 -> 5：增加 searchText 列和外部内容 FTS 表，建表与触发器语句与 Room 生成的一致
+        private val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `messages` ADD COLUMN `searchText` TEXT")
+                db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` " +
+                        "USING FTS4(`searchText` TEXT, content=`messages`)")
+                for (timing in arrayOf("BEFORE UPDATE", "BEFORE DELETE")) {
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " +
+                            "room_fts_content_sync_messages_fts_${timing.replace(' ', '_')} $timing ON `messages` " +
+                            "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END")
+                }
+                for (timing in arrayOf("AFTER UPDATE", "AFTER INSERT")) {
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " +
+                            "room_fts_content_sync_messages_fts_${timing.replace(' ', '_')} $timing ON `messages` " +
+                            "BEGIN INSERT INTO `messages_fts`(`docid`, `searchText`) " +
+                            "VALUES (NEW.`rowid`, NEW.`searchText`); END")
+                }
+                backfillSearchText(db)
+            }
+        }
+
+        // 5 -> 6：messages 增加原始 ImMessage 字节列，旧数据为 NULL
+        private val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `messages` ADD COLUMN `rawMessage` BLOB")
+            }
+        }
+
+        // 6 -> 7：只索引文本消息。清掉旧版本回填进来的非文本占位文本（"[image]"、"[UNKNOWN MESSAGE]" 等），
+        // 换上带类型条件的触发器后按 searchText 重建 FTS 索引
+        private val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                for (name in FTS_TRIGGER_NAMES) {
+                    db.execSQL("DROP TRIGGER IF EXISTS $name")
+                }
+                db.execSQL("UPDATE `messages` SET `searchText` = NULL " +
+                        "WHERE `searchText` IS NOT NULL AND NOT ($SEARCHABLE_ROW)")
+                db.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES ('rebuild')")
+                installFtsTriggers(db)
+            }
+        }
+
+        private const val TEXT_MSG_TYPE = 0   // ImMessageType.TEXT
+        private const val UNKNOWN_CONTENT = "[UNKNOWN MESSAGE]"
+        // 可检索的行：文本消息、没有附件、不是解析失败的占位
+        private const val SEARCHABLE_ROW = "`msgType` = $TEXT_MSG_TYPE AND `filePath` IS NULL " +
+                "AND `content` IS NOT NULL AND `content` != '$UNKNOWN_CONTENT'"
+        private val FTS_TRIGGER_NAMES = arrayOf(
+            "room_fts_content_sync_messages_fts_BEFORE_UPDATE",
+            "room_fts_content_sync_messages_fts_AFTER_UPDATE",
+            "room_fts_content_sync_messages_fts_BEFORE_DELETE",
+            "room_fts_content_sync_messages_fts_AFTER_INSERT")
+
+        /**
+         * 替换 Room 为外部内容 FTS 表生成的四个触发器，触发器名不变：
+         * 1. Room 的 UPDATE 触发器对任何列的更新都会删掉再重建索引行，状态流转这种只改 status 的写入
+         *    也要重新分词；换成只在 searchText、msgType 变化时触发
+         * 2. 只有文本消息写入索引，插入与删除用同一条件，外部内容表的索引与内容保持一致
+         * Room 只在建表时创建触发器，每次打开时替换即可覆盖新建和迁移两种情况
+         */
+        private fun installFtsTriggers(db: SupportSQLiteDatabase) {
+            for (name in FTS_TRIGGER_NAMES) {
+                db.execSQL("DROP TRIGGER IF EXISTS $name")
+            }
+            val indexedOld = "OLD.`msgType` = $TEXT_MSG_TYPE AND OLD.`searchText` IS NOT NULL"
+            val indexedNew = "NEW.`msgType` = $TEXT_MSG_TYPE AND NEW.`searchText` IS NOT NULL"
+            val delete = "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END"
+            val insert = "BEGIN INSERT INTO `messages_fts`(`docid`, `searchText`) " +
+                    "VALUES (NEW.`rowid`, NEW.`searchText`); END"
+            db.execSQL("CREATE TRIGGER room_fts_content_sync_messages_fts_BEFORE_UPDATE " +
+                    "BEFORE UPDATE OF `searchText`, `msgType` ON `messages` WHEN $indexedOld $delete")
+            db.execSQL("CREATE TRIGGER room_fts_content_sync_messages_fts_AFTER_UPDATE " +
+                    "AFTER UPDATE OF `searchText`, `msgType` ON `messages` WHEN $indexedNew $insert")
+            db.execSQL("CREATE TRIGGER room_fts_content_sync_messages_fts_BEFORE_DELETE " +
+                    "BEFORE DELETE ON `messages` WHEN $indexedOld $delete")
+            db.execSQL("CREATE TRIGGER room_fts_content_sync_messages_fts_AFTER_INSERT " +
+                    "AFTER INSERT ON `messages` WHEN $indexedNew $insert")
+        }
+
+        /**
+         * 给已有的文本消息补上分词，UPDATE 经触发器同步进 FTS 表
+         * 只处理文本消息，图片、文件等的占位文本不进索引
+         */
+        private fun backfillSearchText(db: SupportSQLiteDatabase) {
+            val update = db.compileStatement("UPDATE `messages` SET `searchText` = ? WHERE `rowid` = ?")
+            db.query("SELECT `rowid`, `content` FROM `messages` WHERE $SEARCHABLE_ROW").use { cursor ->
+                while (cursor.moveToNext()) {
+                    val searchText = MessageSearchTokenizer.tokenize(cursor.getString(1)) ?: continue
+                    update.bindString(1, searchText)
+                    update.bindLong(2, cursor.getLong(0))
+                    update.executeUpdateDelete()
+                    update.clearBindings()
+                }
+            }
+            update.close()
+        }
+
+        /**
+         * 版本 1 靠 messages.status = 0 在重启时恢复待发送消息，迁移时按原来的恢复方式转成 outbox 条目：
+         * qos 1、普通优先级、保留已重试次数，立即到期；messages 此时还是版本 1 的列
+         */
+        private fun seedOutboxFromPendingMessages(db: SupportSQLiteDatabase) {
+            val insert = db.compileStatement("INSERT OR REPLACE INTO `outbox` (`msgId`, `topic`, `qos`, " +
+                    "`isHighPriority`, `attemptCount`, `nextAttemptAt`, `createdAt`, `payload`) " +
+                    "VALUES (?, ?, 1, 0, ?, ?, ?, ?)")
+            val now = System.currentTimeMillis()
+            var seeded = 0
+            db.query("SELECT * FROM `messages` WHERE `status` = 0").use { cursor ->
+                fun column(name: String) = cursor.getColumnIndexOrThrow(name)
+                fun string(name: String) = column(name).let { if (cursor.isNull(it)) null else cursor.getString(it) }
+                while (cursor.moveToNext()) {
+                    val entity = MessageEntity(
+                        msgId = cursor.getString(column("msgId")),
+                        conversationId = cursor.getString(column("conversationId")),
+                        conversationType = ImConversationType.values()
+                            .firstOrNull { it.name == cursor.getString(column("conversationType")) }
+                            ?: ImConversationType.UNRECOGNIZED,
+                        fromUid = cursor.getString(column("fromUid")),
+                        toUid = cursor.getString(column("toUid")),
+                        msgType = cursor.getInt(column("msgType")),
+                        content = string("content"),
+                        topic = cursor.getString(column("topic")),
+                        retryCount = cursor.getInt(column("retryCount")),
+                        timestamp = cursor.getLong(column("timestamp")),
+                        serverMsgSeq = cursor.getLong(column("serverMsgSeq")),
+                        isEdited = cursor.getInt(column("isEdited")) != 0,
+                        status = cursor.getInt(column("status")),
+                        filePath = string("filePath"),
+                        fileSize = cursor.getLong(column("fileSize")),
+                        duration = cursor.getInt(column("duration")),
+                        isRead = cursor.getInt(column("isRead")) != 0,
+                        isSelf = cursor.getInt(column("isSelf")) != 0,
+                    )
+                    insert.bindString(1, entity.msgId)
+                    insert.bindString(2, entity.topic)
+                    insert.bindLong(3, entity.retryCount.toLong())
+                    insert.bindLong(4, now)
+                    insert.bindLong(5, entity.timestamp)
+                    insert.bindBlob(6, MessageConverter.toProto(entity).toByteArray())
+                    insert.executeInsert()
+                    insert.clearBindings()
+                    seeded++
+                }
+            }
+            insert.close()
+            Log.d(TAG, "迁移到 outbox 的待发送消息: $seeded")
+        }
+
         @Volatile
         private var instance: AppDatabase? = null
 
@@ -53,10 +240,14 @@ abstract class AppDatabase : RoomDatabase() {
 
                 override fun onOpen(db: SupportSQLiteDatabase) {
                     super.onOpen(db)
+                    installFtsTriggers(db)
                     Log.d(TAG, "数据库打开成功")
                 }
             })
-                .setQueryExecutor(Executors.newSingleThreadExecutor())
+                // 读写调度见 StorageEngine：WAL 下多连接并发读，写入由其单个写线程串行
+                .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                .setQueryExecutor(StorageEngine.readerExecutor)
+                .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
                 .fallbackToDestructiveMigration(true)   //删除旧表重新建，数据全清
                 .build()
         }
@@ -71,4 +262,5 @@ abstract class AppDatabase : RoomDatabase() {
     abstract fun groupMemberDao(): GroupMemberDao
     abstract fun conversationDao(): ConversationDao
     abstract fun friendDao(): FriendDao
+    abstract fun outboxDao(): OutboxDao
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package com.lythe.media.chats.data.local.database
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import java.util.Locale
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 数据库存储引擎：仓库、消息队列、分页等对 AppDatabase 的读写统一经这里调度
+ * 1. 库以 WAL 模式打开，读不阻塞写，系统为读请求维护多个连接
+ * 2. 读：固定大小的线程池，大小与系统 WAL 连接池一致，再多线程也只是排队等连接；
+ *    同时作为 Room 的 queryExecutor（LiveData、失效通知）
+ * 3. 写：单个写线程串行执行，每次取出当时积压的全部写任务（最多 MAX_WRITE_BATCH 个）
+ *    合并进一个事务，整批只提交一次。整批失败时回滚并逐个重跑，只让出错的任务失败，
+ *    因此写任务的代码块内只做数据库操作，其他副作用放到返回的 future 回调里
+ * 4. 按操作名统计排队等待和执行耗时，见 getStats
+ */
+class StorageEngine private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "StorageEngine"
+        // 与系统 SQLite 在 WAL 模式下的默认连接池大小一致
+        private const val READER_THREADS = 4
+        private const val MAX_WRITE_BATCH = 64
+
+        @Volatile
+        private var instance: StorageEngine? = null
+
+        fun getInstance(context: Context): StorageEngine {
+            return instance ?: synchronized(this) {
+                instance ?: StorageEngine(context.applicationContext).also { instance = it }
+            }
+        }
+
+        // 读线程上为 true，readBlocking 据此直接执行
+        private val onReaderThread = ThreadLocal<Boolean>()
+
+        /**
+         * 读线程池；AppDatabase 构建时就要用，所以不依赖引擎实例
+         */
+        val readerExecutor: ExecutorService by lazy {
+            val threadIndex = AtomicInteger()
+            ThreadPoolExecutor(READER_THREADS, READER_THREADS, 30, TimeUnit.SECONDS,
+                LinkedBlockingQueue()) { r ->
+                Thread({
+                    onReaderThread.set(true)
+                    r.run()
+                }, "StorageEngine-Reader-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+            }.apply { allowCoreThreadTimeOut(true) }
+        }
+    }
+
+    val database: AppDatabase = AppDatabase.getInstance(context)
+    private val writeQueue = LinkedBlockingQueue<WriteTask<*>>()
+    private val stats = ConcurrentHashMap<String, StatsCounter>()
+    private val writerThread = Thread(::writerLoop, "StorageEngine-Writer").apply {
+        isDaemon = true
+        start()
+    }
+
+    /**
+     * 在读线程池上执行查询
+     */
+    fun <T> read(operation: String, block: Callable<T>): CompletableFuture<T> {
+        val future = CompletableFuture<T>()
+        val enqueuedAt = SystemClock.elapsedRealtimeNanos()
+        readerExecutor.execute {
+            val startedAt = SystemClock.elapsedRealtimeNanos()
+            try {
+                future.complete(block.call())
+            } catch (e: Throwable) {
+                Log.e(TAG, "Read failed: $operation", e)
+                future.completeExceptionally(e)
+            } finally {
+                record(operation, startedAt - enqueuedAt, SystemClock.elapsedRealtimeNanos() - startedAt)
+            }
+        }
+        return future
+    }
+
+    /**
+     * 在读线程池上执行查询并等待结果，供保留同步签名的接口使用，需在后台线程调用；
+     * 已在读线程上时直接执行，避免读任务占满线程池后互相等待
+     */
+    fun <T> readBlocking(operation: String, block: Callable<T>): T {
+        if (onReaderThread.get() == true) {
+            val startedAt = SystemClock.elapsedRealtimeNanos()
+            try {
+                return block.call()
+            } finally {
+                record(operation, 0, SystemClock.elapsedRealtimeNanos() - startedAt)
+            }
+        }
+        try {
+            return read(operation, block).get()
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw if (cause is RuntimeException) cause else RuntimeException(cause)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw RuntimeException(e)
+        }
+    }
+
+    /**
+     * 提交写任务，事务提交后 future 完成；block 可能因同批其他任务失败而重跑
+     */
+    fun <T> write(operation: String, block: Callable<T>): CompletableFuture<T> {
+        val task = WriteTask(operation, block, SystemClock.elapsedRealtimeNanos())
+        writeQueue.offer(task)
+        return task.future
+    }
+
+    /**
+     * 提交写任务并等待提交完成；在写线程上调用时直接执行，避免自己等自己
+     */
+    fun <T> writeBlocking(operation: String, block: Callable<T>): T {
+        if (Thread.currentThread() === writerThread) {
+            return block.call()
+        }
+        try {
+            return write(operation, block).get()
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw if (cause is RuntimeException) cause else RuntimeException(cause)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw RuntimeException(e)
+        }
+    }
+
+    fun getPendingWriteCount(): Int = writeQueue.size
+
+    fun getStats(): List<OperationStats> = stats.map { (operation, counter) -> counter.snapshot(operation) }
+
+    fun resetStats() {
+        stats.clear()
+    }
+
+    private fun writerLoop() {
+        val batch = ArrayList<WriteTask<*>>(MAX_WRITE_BATCH)
+        try {
+            while (!Thread.currentThread().isInterrupted) {
+                batch.add(writeQueue.take())
+                writeQueue.drainTo(batch, MAX_WRITE_BATCH - 1)
+                runBatch(batch)
+                batch.clear()
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    private fun runBatch(batch: List<WriteTask<*>>) {
+        if (batch.size > 1) {
+            try {
+                database.runInTransaction {
+                    for (task in batch) {
+                        task.execute()
+                    }
+                }
+                for (task in batch) {
+                    task.complete()
+                    record(task.operation, task.waitNanos, task.execNanos)
+                }
+                return
+            } catch (e: Exception) {
+                Log.w(TAG, "Write batch of ${batch.size} failed, retrying one by one", e)
+            }
+        }
+        for (task in batch) {
+            try {
+                database.runInTransaction { task.execute() }
+                task.complete()
+            } catch (e: Exception) {
+                Log.e(TAG, "Write failed: ${task.operation}", e)
+                task.future.completeExceptionally(e)
+            }
+            record(task.operation, task.waitNanos, task.execNanos)
+        }
+    }
+
+    private fun record(operation: String, waitNanos: Long, execNanos: Long) {
+        stats.computeIfAbsent(operation) { StatsCounter() }.add(waitNanos, execNanos)
+    }
+
+    private class WriteTask<T>(
+        val operation: String,
+        private val block: Callable<T>,
+        private val enqueuedAt: Long
+    ) {
+        val future = CompletableFuture<T>()
+        var waitNanos = 0L
+        var execNanos = 0L
+        private var result: T? = null
+
+        fun execute() {
+            val startedAt = SystemClock.elapsedRealtimeNanos()
+            if (waitNanos == 0L) {
+                waitNanos = startedAt - enqueuedAt
+            }
+            try {
+                result = block.call()
+            } finally {
+                execNanos = SystemClock.elapsedRealtimeNanos() - startedAt
+            }
+        }
+
+        fun complete() {
+            @Suppress("UNCHECKED_CAST")
+            future.complete(result as T)
+        }
+    }
+
+    private class StatsCounter {
+        private var count = 0L
+        private var totalWaitNanos = 0L
+        private var maxWaitNanos = 0L
+        private var totalExecNanos = 0L
+
+        @Synchronized
+        fun add(waitNanos: Long, execNanos: Long) {
+            count++
+            totalWaitNanos += waitNanos
+            maxWaitNanos = maxOf(maxWaitNanos, waitNanos)
+            totalExecNanos += execNanos
+        }
+
+        @Synchronized
+        fun snapshot(operation: String) =
+            OperationStats(operation, count, totalWaitNanos, maxWaitNanos, totalExecNanos)
+    }
+
+    /**
+     * 单类操作的统计：等待为入队到开始执行，执行为代码块本身耗时
+     */
+    class OperationStats(
+        @JvmField val operation: String,
+        @JvmField val count: Long,
+        @JvmField val totalWaitNanos: Long,
+        @JvmField val maxWaitNanos: Long,
+        @JvmField val totalExecNanos: Long
+    ) {
+        val averageWaitMs: Double
+            get() = if (count == 0L) 0.0 else totalWaitNanos / 1e6 / count
+
+        val averageExecMs: Double
+            get() = if (count == 0L) 0.0 else totalExecNanos / 1e6 / count
+
+        override fun toString(): String {
+            return String.format(Locale.US, "%s: n=%d, wait avg %.2f ms max %.2f ms, exec avg %.2f ms",
+                operation, count, averageWaitMs, maxWaitNanos / 1e6, averageExecMs)
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.lythe.media.chats.data.model;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.lythe.media.chats.data.entity.ConversationEntity;
+import com.lythe.media.chats.data.entity.MessageEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 会话列表模型，按 lastMessageTime 倒序（同一时间按 conversationId）排列
+ * 1. 以 conversationId 索引当前条目，条目本身即排序键，二分查找即可定位其下标，
+ *    不必为每次移动改写中间所有会话的下标
+ * 2. 新消息只把对应会话从旧位置二分挪到新位置，通过 ListUpdateCallback 发出
+ *    插入/移动/变更事件，不再整表排序、整表投递
+ * 3. 整表加载经 submitAll 在后台 DiffUtil 比对，只发出真正变化的事件；
+ *    比对期间到达的新消息先暂存，比对结果落地后再按到达顺序重放，既不覆盖也不重复比对
+ * 4. 正在打开的会话由会话页直接记为已读，新消息不累加未读，与数据库保持一致
+ * 只能在主线程访问
+ */
+public class ConversationListModel {
+    /**
+     * 只有最后一条消息、时间、未读数变化，名称头像不变
+     */
+    public static final Object PAYLOAD_PREVIEW = new Object();
+
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ConversationList-Diff");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Comparator<ConversationEntity> ORDER = (c1, c2) -> {
+        int byTime = Long.compare(c2.getLastMessageTime(), c1.getLastMessageTime());
+        return byTime != 0 ? byTime : c1.getConversationId().compareTo(c2.getConversationId());
+    };
+
+    private final ArrayList<ConversationEntity> conversations = new ArrayList<>();
+    private final Map<String, ConversationEntity> byId = new HashMap<>();
+    private final List<ListUpdateCallback> listeners = new ArrayList<>();
+    private final Executor diffExecutor;
+    private final Executor mainExecutor;
+    // 每次 submitAll 加一，只有最新一次的比对结果会落地
+    private int latestSubmit;
+    // 比对进行中时为正在比对的快照里的会话ID，否则为 null
+    private Set<String> submittingIds;
+    // 比对期间暂存的增量，按到达顺序
+    private List<PendingDelta> deferredDeltas = new ArrayList<>();
+    private Set<String> openConversationIds = Collections.emptySet();
+
+    public ConversationListModel() {
+        this(DIFF_EXECUTOR, new Handler(Looper.getMainLooper())::post);
+    }
+
+    /**
+     * @param diffExecutor 执行 DiffUtil 比对
+     * @param mainExecutor 比对结果回到主线程落地；单元测试中可以直接在当前线程执行
+     */
+    ConversationListModel(Executor diffExecutor, Executor mainExecutor) {
+        this.diffExecutor = diffExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    public int size() {
+        return conversations.size();
+    }
+
+    public ConversationEntity get(int position) {
+        return conversations.get(position);
+    }
+
+    public boolean contains(String conversationId) {
+        return byId.containsKey(conversationId);
+    }
+
+    public int indexOf(String conversationId) {
+        ConversationEntity entity = byId.get(conversationId);
+        return entity == null ? -1 : Collections.binarySearch(conversations, entity, ORDER);
+    }
+
+    public List<ConversationEntity> snapshot() {
+        return new ArrayList<>(conversations);
+    }
+
+    public void addListener(ListUpdateCallback listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ListUpdateCallback listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 用数据库加载的完整列表替换当前内容：在后台线程排序并与当前快照做 DiffUtil 比对，
+     * 回到主线程按比对结果发出局部事件。比对期间当前列表保持不变，新消息暂存，
+     * 落地后在新内容上重放；比对期间又有新的 submitAll 时只让最后一次落地
+     */
+    public void submitAll(List<ConversationEntity> entities) {
+        int submitVersion = ++latestSubmit;
+        List<ConversationEntity> oldList = new ArrayList<>(conversations);
+        Set<String> ids = new HashSet<>();
+        for (ConversationEntity entity : entities) {
+            ids.add(entity.getConversationId());
+        }
+        submittingIds = ids;
+        diffExecutor.execute(() -> {
+            List<ConversationEntity> newList = dedupAndSort(entities);
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffCallback(oldList, newList), true);
+            mainExecutor.execute(() -> {
+                if (submitVersion != latestSubmit) {
+                    return;
+                }
+                conversations.clear();
+                conversations.addAll(newList);
+                byId.clear();
+                for (ConversationEntity entity : newList) {
+                    byId.put(entity.getConversationId(), entity);
+                }
+                for (ListUpdateCallback listener : listeners) {
+                    result.dispatchUpdatesTo(listener);
+                }
+                submittingIds = null;
+                List<PendingDelta> deltas = deferredDeltas;
+                deferredDeltas = new ArrayList<>();
+                for (PendingDelta delta : deltas) {
+                    replay(delta);
+                }
+                // 快照可能在清空未读之前读出
+                for (String conversationId : openConversationIds) {
+                    clearUnread(conversationId);
+                }
+            });
+        });
+    }
+
+    /**
+     * 重放比对期间暂存的消息；快照读库时已包含该消息（预览和时间一致）则跳过，避免未读数重复累加
+     */
+    private void replay(PendingDelta delta) {
+        MessageEntity message = delta.message;
+        ConversationEntity current = byId.get(message.getConversationId());
+        if (current != null && current.getLastMessageTime() == message.getTimestamp()
+                && Objects.equals(current.getLastMessage(), message.getContent())) {
+            return;
+        }
+        if (delta.conversationName != null) {
+            insert(message, delta.conversationName);
+        } else {
+            applyMessage(message);
+        }
+    }
+
+    private static List<ConversationEntity> dedupAndSort(List<ConversationEntity> entities) {
+        // 同一会话出现多次时保留最新的一条
+        Map<String, ConversationEntity> latest = new HashMap<>();
+        for (ConversationEntity entity : entities) {
+            ConversationEntity previous = latest.get(entity.getConversationId());
+            if (previous == null || previous.getLastMessageTime() < entity.getLastMessageTime()) {
+                latest.put(entity.getConversationId(), entity);
+            }
+        }
+        List<ConversationEntity> sorted = new ArrayList<>(latest.values());
+        sorted.sort(ORDER);
+        return sorted;
+    }
+
+    /**
+     * 当前打开的会话，打开时清空其未读
+     */
+    public void setOpenConversations(Set<String> conversationIds) {
+        openConversationIds = new HashSet<>(conversationIds);
+        if (submittingIds != null) {
+            // 比对落地后统一清空
+            return;
+        }
+        for (String conversationId : openConversationIds) {
+            clearUnread(conversationId);
+        }
+    }
+
+    private void clearUnread(String conversationId) {
+        ConversationEntity current = byId.get(conversationId);
+        if (current == null || current.getUnreadCount() == 0) {
+            return;
+        }
+        replace(current, new ConversationEntity(
+                current.getConversationId(),
+                current.getConversationType(),
+                current.getConversationName(),
+                current.getLastMessage(),
+                current.getLastMessageTime(),
+                0,
+                current.isOnline()));
+    }
+
+    /**
+     * 收到已有会话的新消息：更新预览、未读数加一（会话正在打开时不加），必要时挪到新位置
+     * @return 会话不在列表中时返回 false，由调用方查询名称后调用 insert
+     */
+    public boolean applyMessage(MessageEntity message) {
+        if (submittingIds != null) {
+            if (!byId.containsKey(message.getConversationId())
+                    && !submittingIds.contains(message.getConversationId())) {
+                return false;
+            }
+            deferredDeltas.add(new PendingDelta(message, null));
+            return true;
+        }
+        ConversationEntity current = byId.get(message.getConversationId());
+        if (current == null) {
+            return false;
+        }
+        // 乱序到达的旧消息只累加未读，不改预览和位置
+        boolean newer = message.getTimestamp() >= current.getLastMessageTime();
+        ConversationEntity updated = new ConversationEntity(
+                current.getConversationId(),
+                current.getConversationType(),
+                current.getConversationName(),
+                newer ? message.getContent() : current.getLastMessage(),
+                newer ? message.getTimestamp() : current.getLastMessageTime(),
+                current.getUnreadCount() + unreadIncrement(message),
+                current.isOnline());
+        replace(current, updated);
+        return true;
+    }
+
+    /**
+     * 插入一个新会话；已存在时按 applyMessage 处理
+     */
+    public void insert(MessageEntity message, String conversationName) {
+        if (submittingIds != null) {
+            deferredDeltas.add(new PendingDelta(message, conversationName));
+            return;
+        }
+        if (applyMessage(message)) {
+            return;
+        }
+        ConversationEntity entity = new ConversationEntity(
+                message.getConversationId(),
+                message.getConversationType(),
+                conversationName,
+                message.getContent(),
+                message.getTimestamp(),
+                unreadIncrement(message),
+                true);
+        int position = insertionPoint(entity);
+        conversations.add(position, entity);
+        byId.put(entity.getConversationId(), entity);
+        for (ListUpdateCallback listener : listeners) {
+            listener.onInserted(position, 1);
+        }
+    }
+
+    private int unreadIncrement(MessageEntity message) {
+        return openConversationIds.contains(message.getConversationId()) ? 0 : 1;
+    }
+
+    private void replace(ConversationEntity current, ConversationEntity updated) {
+        int from = Collections.binarySearch(conversations, current, ORDER);
+        byId.put(updated.getConversationId(), updated);
+        if (ORDER.compare(current, updated) == 0) {
+            conversations.set(from, updated);
+            notifyChanged(from);
+            return;
+        }
+        conversations.remove(from);
+        int to = insertionPoint(updated);
+        conversations.add(to, updated);
+        if (from != to) {
+            for (ListUpdateCallback listener : listeners) {
+                listener.onMoved(from, to);
+            }
+        }
+        notifyChanged(to);
+    }
+
+    private int insertionPoint(ConversationEntity entity) {
+        int index = Collections.binarySearch(conversations, entity, ORDER);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void notifyChanged(int position) {
+        for (ListUpdateCallback listener : listeners) {
+            listener.onChanged(position, 1, PAYLOAD_PREVIEW);
+        }
+    }
+
+    private static final class PendingDelta {
+        final MessageEntity message;
+        // 来自 insert 时为查到的会话名，来自 applyMessage 时为 null
+        final String conversationName;
+
+        PendingDelta(MessageEntity message, String conversationName) {
+            this.message = message;
+            this.conversationName = conversationName;
+        }
+    }
+
+    private static final class DiffCallback extends DiffUtil.Callback {
+        private final List<ConversationEntity> oldList;
+        private final List<ConversationEntity> newList;
+
+        DiffCallback(List<ConversationEntity> oldList, List<ConversationEntity> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldList.get(oldItemPosition).getConversationId()
+                    .equals(newList.get(newItemPosition).getConversationId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldList.get(oldItemPosition).equals(newList.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            ConversationEntity oldItem = oldList.get(oldItemPosition);
+            ConversationEntity newItem = newList.get(newItemPosition);
+            boolean samePresentation = Objects.equals(oldItem.getConversationName(), newItem.getConversationName())
+                    && oldItem.getConversationType() == newItem.getConversationType()
+                    && oldItem.isOnline() == newItem.isOnline();
+            return samePresentation ? PAYLOAD_PREVIEW : null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lythe.media.chats.data.paging
+
+import android.util.Log
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import com.lythe.media.chats.data.entity.MessageEntity
+import com.lythe.media.chats.data.local.database.StorageEngine
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.future.await
+
+/**
+ * 分页游标：(timestamp, msgId)，与 MessageDao 中按时间的键集查询一致
+ * 作为 REFRESH 的锚点时只用 msgId，时间在加载时从库里取，外部只知道 msgId 也可以定位
+ */
+data class MessageKey(val timestamp: Long, val msgId: String) {
+    companion object {
+        fun of(message: MessageEntity) = MessageKey(message.timestamp, message.msgId)
+
+        fun anchor(msgId: String) = MessageKey(0, msgId)
+    }
+}
+
+/**
+ * 聊天记录分页源，列表按时间正序（最新在底部）
+ * 1. REFRESH 不带 key 时取最新一页；带 key 时以该消息为锚点，前后各取一半
+ *    （未读分界、搜索结果、回复原消息都走这条路径）
+ * 2. PREPEND 向更早、APPEND 向更新，都是键集查询，取页耗时与翻到多深无关
+ * 3. 不用 Room 自带的 LIMIT/OFFSET PagingSource：OFFSET 越深越慢，且插入新消息后偏移整体错位
+ * 4. messages 表有写入时失效，由 Pager 用 getRefreshKey 在当前可见位置附近重新加载
+ * 查询经 StorageEngine 的读线程池执行，不会排在批量同步写入之后。
+ * 内存窗口由 PagingConfig.maxSize 限定，离视口远的页会被丢弃，滚回时再按 key 重新加载。
+ */
+class MessagePagingSource(
+    private val storage: StorageEngine,
+    private val conversationId: String
+) : PagingSource<MessageKey, MessageEntity>() {
+
+    companion object {
+        private const val TAG = "MessagePagingSource"
+        private const val TABLE_MESSAGES = "messages"
+    }
+
+    private val db = storage.database
+    private val messageDao = db.messageDao()
+
+    private val observer = object : InvalidationTracker.Observer(TABLE_MESSAGES) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+
+    init {
+        db.invalidationTracker.addObserver(observer)
+        registerInvalidatedCallback {
+            db.invalidationTracker.removeObserver(observer)
+        }
+    }
+
+    override suspend fun load(params: LoadParams<MessageKey>): LoadResult<MessageKey, MessageEntity> {
+        return try {
+            storage.read("message.page") {
+                when (params) {
+                    is LoadParams.Refresh -> loadAround(params.key, params.loadSize)
+                    is LoadParams.Prepend -> loadBefore(params.key, params.loadSize)
+                    is LoadParams.Append -> loadAfter(params.key, params.loadSize)
+                }
+            }.await()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to load messages of $conversationId", e)
+            LoadResult.Error(e)
+        }
+    }
+
+    private fun loadAround(key: MessageKey?, loadSize: Int): LoadResult<MessageKey, MessageEntity> {
+        val anchor = key?.let { messageDao.getMessageById(it.msgId) }
+            ?.takeIf { it.conversationId == conversationId }
+        if (anchor == null) {
+            // 没有锚点（或锚点已被删除）时从最新一页开始
+            val newest = messageDao.getMessagesBeforeTime(conversationId, Long.MAX_VALUE, "", loadSize)
+                .asReversed()
+            return LoadResult.Page(
+                data = newest,
+                prevKey = if (newest.size < loadSize) null else MessageKey.of(newest.first()),
+                nextKey = null
+            )
+        }
+        val half = loadSize / 2
+        val before = messageDao.getMessagesBeforeTime(conversationId, anchor.timestamp, anchor.msgId, half)
+            .asReversed()
+        val after = messageDao.getMessagesAfterTime(conversationId, anchor.timestamp, anchor.msgId, loadSize - half - 1)
+        val data = ArrayList<MessageEntity>(before.size + 1 + after.size)
+        data.addAll(before)
+        data.add(anchor)
+        data.addAll(after)
+        return LoadResult.Page(
+            data = data,
+            prevKey = if (before.size < half) null else MessageKey.of(data.first()),
+            nextKey = if (after.size < loadSize - half - 1) null else MessageKey.of(data.last())
+        )
+    }
+
+    private fun loadBefore(key: MessageKey, loadSize: Int): LoadResult<MessageKey, MessageEntity> {
+        val page = messageDao.getMessagesBeforeTime(conversationId, key.timestamp, key.msgId, loadSize)
+            .asReversed()
+        return LoadResult.Page(
+            data = page,
+            prevKey = if (page.size < loadSize) null else MessageKey.of(page.first()),
+            nextKey = page.lastOrNull()?.let { MessageKey.of(it) }
+        )
+    }
+
+    private fun loadAfter(key: MessageKey, loadSize: Int): LoadResult<MessageKey, MessageEntity> {
+        val page = messageDao.getMessagesAfterTime(conversationId, key.timestamp, key.msgId, loadSize)
+        return LoadResult.Page(
+            data = page,
+            prevKey = page.firstOrNull()?.let { MessageKey.of(it) },
+            nextKey = if (page.size < loadSize) null else MessageKey.of(page.last())
+        )
+    }
+
+    /**
+     * 失效后以视口中最接近锚点位置的消息为新锚点，刷新后停留在原处
+     */
+    override fun getRefreshKey(state: PagingState<MessageKey, MessageEntity>): MessageKey? {
+        val position = state.anchorPosition ?: return null
+        return state.closestItemToPosition(position)?.let { MessageKey.of(it) }
+    }
+}
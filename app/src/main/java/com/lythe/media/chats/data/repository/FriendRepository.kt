@@ -10,12 +10,13 @@ import androidx.lifecycle.MediatorLiveData
 import com.lythe.media.chats.data.entity.FriendConverter
 import com.lythe.media.chats.data.entity.FriendListResponse
 import com.lythe.media.chats.data.local.dao.FriendDao
-import com.lythe.media.chats.data.local.database.AppDatabase
+import com.lythe.media.chats.data.local.database.StorageEngine
 import com.lythe.media.chats.data.model.FriendModel
 import com.lythe.media.chats.data.remote.ApiService
 import com.lythe.media.chats.data.repository.base.BaseRemoteRepository
 import com.lythe.media.im.net.RetrofitClient
 import okhttp3.internal.http2.Http2Reader
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 
@@ -35,15 +36,17 @@ class FriendRepository private constructor(context: Context) : BaseRemoteReposit
         LOCAL,    // 本地数据
         REMOTE    // 远程更新后的数据
     }
-    private val db = AppDatabase.getInstance(context)
-    private val friendDao: FriendDao = db.friendDao()
+    private val storage = StorageEngine.getInstance(context)
+    private val friendDao: FriendDao = storage.database.friendDao()
+    // 只跑网络请求，数据库读写经 StorageEngine
     private val executor: ExecutorService = Executors.newSingleThreadExecutor()
     private val mainHandler: Handler = Handler(Looper.getMainLooper())
-    // 同步获取本地好友列表
+    // 同步获取本地好友列表，需在后台线程调用
     fun getLocalFriendsSync(): List<FriendModel> {
         return try {
-            val allFriends = friendDao.getAllFriends()
-            FriendConverter.fromEntityList(allFriends)
+            storage.readBlocking("friend.loadAll") {
+                FriendConverter.fromEntityList(friendDao.getAllFriends())
+            }
         } catch (e: Exception) {
             emptyList()
         }
@@ -54,14 +57,18 @@ class FriendRepository private constructor(context: Context) : BaseRemoteReposit
         execute(call, callback)
     }
 
+    fun loadLocalFriends(): CompletableFuture<List<FriendModel>> {
+        return storage.read("friend.loadAll") {
+            FriendConverter.fromEntityList(friendDao.getAllFriends())
+        }
+    }
+
     // 从本地数据库异步获取好友列表
     fun getLocalFriendList(callback: Callback<List<FriendModel>>) {
-        executor.execute {
-            try {
-                val allFriends = friendDao.getAllFriends()
-                val fromEntityList = FriendConverter.fromEntityList(allFriends)
-                callback.onSuccess(fromEntityList)
-            } catch (e: Exception) {
+        loadLocalFriends().whenComplete { friends, e ->
+            if (e == null) {
+                callback.onSuccess(friends)
+            } else {
                 callback.onError(e)
             }
         }
@@ -82,8 +89,10 @@ class FriendRepository private constructor(context: Context) : BaseRemoteReposit
                 if(response.isSuccessful && response.body() != null) {
                     Log.d(TAG, "refresh list")
                     val entityList = response.body()!!.data
-                    friendDao.clear()
-                    friendDao.insertFriends(entityList)
+                    storage.writeBlocking("friend.replaceAll") {
+                        friendDao.clear()
+                        friendDao.insertFriends(entityList)
+                    }
 
                     val fromEntityList = FriendConverter.fromEntityList(entityList)
                     mainHandler.post {
@@ -95,8 +104,7 @@ class FriendRepository private constructor(context: Context) : BaseRemoteReposit
                     }
                 }
             } catch (e: Exception) {
-                val allFriends = friendDao.getAllFriends()
-                val localFriends = FriendConverter.fromEntityList(allFriends)
+                val localFriends = loadLocalFriends().exceptionally { emptyList() }.join()
 
                 mainHandler.post {
                     if(localFriends.isNotEmpty()) {
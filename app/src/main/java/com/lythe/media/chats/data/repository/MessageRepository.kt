@@ -3,18 +3,23 @@ package com.lythe.media.chats.data.repository
 import android.content.Context
 import android.util.Log
 import androidx.lifecycle.LiveData
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
 import com.lythe.media.chats.data.entity.ConversationEntity
 import com.lythe.media.chats.data.local.dao.MessageDao
-import com.lythe.media.chats.data.local.database.AppDatabase
+import com.lythe.media.chats.data.local.database.StorageEngine
 import com.lythe.media.chats.data.entity.MessageEntity
 import com.lythe.media.chats.data.local.dao.ConversationDao
 import com.lythe.media.chats.data.local.dao.FriendDao
 import com.lythe.media.chats.data.local.dao.GroupDao
+import com.lythe.media.chats.data.paging.MessageKey
+import com.lythe.media.chats.data.paging.MessagePagingSource
+import com.lythe.media.chats.data.search.MessageSearchTokenizer
 import com.lythe.media.protobuf.ImConversationType
 import com.lythe.media.protobuf.ImMessageStatus
 import java.util.UUID
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
 
 class MessageRepository private constructor(context: Context) {
 
@@ -29,47 +34,102 @@ class MessageRepository private constructor(context: Context) {
             }
         }
     }
-    private val db = AppDatabase.getInstance(context)
+    private val storage = StorageEngine.getInstance(context)
+    private val db = storage.database
     private val messageDao: MessageDao = db.messageDao()
     private val friendDao: FriendDao = db.friendDao()
     private val groupDao: GroupDao = db.groupDao()
     private val conversationDao: ConversationDao = db.conversationDao()
-    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
 
     fun insertMessage(message: MessageEntity) {
-        executor.execute {
-            try {
-                db.runInTransaction {
-                    messageDao.insert(message)
-                    // 使用异步查询避免阻塞
-                    val conversation = conversationDao.getConversationSync(message.conversationId)
-                    if(conversation == null) {
-                        val conversationName = getConversationName(message.conversationId, message.conversationType)
-                        val newConversation = ConversationEntity(
-                            message.conversationId,
-                            message.conversationType,
-                            conversationName,
-                            message.content,
-                            message.timestamp,
-                            1)
-                        conversationDao.insertConversation(newConversation)
-                    } else {
-                        val conversationName = getConversationName(message.conversationId, message.conversationType)
-
-                        conversationDao.updateConversationOnNewMessage(
-                            message.conversationId, 
-                            1,
-                            message.content,
-                            message.timestamp
-                        )
-                    }
-                }
+        // 写线程会把积压的写入合并进一个事务，这里不必再开事务
+        storage.write("message.insert") {
+            messageDao.insert(message)
+            val conversation = conversationDao.getConversationSync(message.conversationId)
+            if(conversation == null) {
+                val conversationName = getConversationName(message.conversationId, message.conversationType)
+                val newConversation = ConversationEntity(
+                    message.conversationId,
+                    message.conversationType,
+                    conversationName,
+                    message.content,
+                    message.timestamp,
+                    1)
+                conversationDao.insertConversation(newConversation)
+            } else {
+                conversationDao.updateConversationOnNewMessage(
+                    message.conversationId,
+                    1,
+                    message.content,
+                    message.timestamp
+                )
+            }
+        }.whenComplete { _, e ->
+            if (e == null) {
                 Log.d(TAG, "消息插入成功: ${message.msgId}")
-            } catch (e: Exception) {
+            } else {
                 Log.e(TAG, "消息插入失败: ${message.msgId}", e)
             }
         }
     }
+    /**
+     * 批量写入：消息及其会话更新在同一个事务中提交，整批只落盘一次
+     * 经写线程执行并等待提交，需在后台线程调用，返回实际新插入（非重复）的消息数
+     */
+    fun insertMessagesInTransaction(messages: List<MessageEntity>): Int {
+        if (messages.isEmpty()) {
+            return 0
+        }
+        val inserted = storage.writeBlocking("message.insertBatch") {
+            var inserted = 0
+            val rowIds = messageDao.insertAll(messages)
+            // 同一会话的多条消息合并为一次会话更新
+            val updates = LinkedHashMap<String, ConversationUpdate>()
+            for (i in messages.indices) {
+                if (rowIds[i] == -1L) {
+                    continue
+                }
+                inserted++
+                val message = messages[i]
+                updates.getOrPut(message.conversationId) { ConversationUpdate(message) }.add(message)
+            }
+            for (update in updates.values) {
+                val latest = update.latest
+                val conversation = conversationDao.getConversationSync(latest.conversationId)
+                if (conversation == null) {
+                    conversationDao.insertConversation(ConversationEntity(
+                        latest.conversationId,
+                        latest.conversationType,
+                        getConversationName(latest.conversationId, latest.conversationType),
+                        latest.content,
+                        latest.timestamp,
+                        update.count))
+                } else {
+                    conversationDao.updateConversationOnNewMessage(
+                        latest.conversationId,
+                        update.count,
+                        latest.content,
+                        latest.timestamp
+                    )
+                }
+            }
+            inserted
+        }
+        Log.d(TAG, "批量插入消息: ${inserted}/${messages.size}")
+        return inserted
+    }
+
+    private class ConversationUpdate(var latest: MessageEntity) {
+        var count = 0
+
+        fun add(message: MessageEntity) {
+            count++
+            if (message.timestamp >= latest.timestamp) {
+                latest = message
+            }
+        }
+    }
+
     fun getConversationName(conversationId: String, conversationType: ImConversationType): String {
         return when(conversationType) {
             ImConversationType.PRIVATE_CHAT -> {
@@ -84,6 +144,9 @@ class MessageRepository private constructor(context: Context) {
             else -> "UNKNOWN CONVERSATION"
         }
     }
+    fun loadConversationName(conversationId: String, conversationType: ImConversationType): CompletableFuture<String> {
+        return storage.read("conversation.name") { getConversationName(conversationId, conversationType) }
+    }
 //    fun buildAndSaveMessage(
 //        conversationId: String,
 //        conversationType: ImConversationType,
@@ -127,19 +190,101 @@ class MessageRepository private constructor(context: Context) {
 //    }
 
     fun getAllConversations(): List<ConversationEntity> {
-        return conversationDao.getAllConversations();
+        return storage.readBlocking("conversation.loadAll") { conversationDao.getAllConversations() }
+    }
+    fun loadAllConversations(): CompletableFuture<List<ConversationEntity>> {
+        return storage.read("conversation.loadAll") { conversationDao.getAllConversations() }
     }
 
-    fun getMessagesPages(conversationId: String, limit: Int, earliestTimestamp: Long): List<MessageEntity> {
-        return messageDao.getMessagesPaged(conversationId, limit, earliestTimestamp)
+    /**
+     * 聊天记录的 Pager；anchorMsgId 为空时从最新消息开始，否则以该消息为中心向两侧加载
+     */
+    fun getMessagePager(conversationId: String, anchorMsgId: String?, config: PagingConfig): Pager<MessageKey, MessageEntity> {
+        return Pager(config, anchorMsgId?.let { MessageKey.anchor(it) }) {
+            MessagePagingSource(storage, conversationId)
+        }
+    }
+    /**
+     * 全文搜索全部会话的消息，按时间倒序，需在后台线程调用；没有可搜索的字符时返回空列表
+     * 翻页时传上一页最后一条的 timestamp 和 msgId，首页传 Long.MAX_VALUE 和 ""
+     */
+    fun searchMessages(query: String, beforeTimestamp: Long, beforeMsgId: String, limit: Int): List<MessageEntity> {
+        val match = MessageSearchTokenizer.toMatchQuery(query) ?: return emptyList()
+        return storage.readBlocking("message.search") {
+            messageDao.searchMessages(match, beforeTimestamp, beforeMsgId, limit)
+        }
+    }
+    /**
+     * 按 messages 表重建全文索引，VACUUM 或索引疑似损坏后调用
+     */
+    fun rebuildSearchIndex() {
+        storage.writeBlocking("message.rebuildSearchIndex") {
+            db.openHelper.writableDatabase.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES('rebuild')")
+        }
     }
     fun getAllMessages(conversationId: String): List<MessageEntity> {
-        return messageDao.getMessages(conversationId)
+        return storage.readBlocking("message.loadAll") { messageDao.getMessages(conversationId) }
+    }
+    fun loadAllMessages(conversationId: String): CompletableFuture<List<MessageEntity>> {
+        return storage.read("message.loadAll") { messageDao.getMessages(conversationId) }
+    }
+    /**
+     * 同步删除会话及其全部消息，需在后台线程调用
+     */
+    fun deleteConversationWithMessages(conversationId: String) {
+        storage.writeBlocking("conversation.delete") {
+            messageDao.deleteByConversation(conversationId)
+            conversationDao.deleteConversation(conversationId)
+        }
     }
     fun markConversationRead(conversationId: String) {
-        executor.execute {
+        storage.write("conversation.markRead") {
             conversationDao.resetUnread(conversationId)
         }
     }
 
+    /**
+     * 会话页打开期间，新消息由会话页直接记为已读；会话列表据此不在内存中累加未读
+     */
+    fun interface OpenConversationsListener {
+        fun onOpenConversationsChanged(openConversationIds: Set<String>)
+    }
+
+    // 会话ID -> 打开该会话的页面数
+    private val openConversations = HashMap<String, Int>()
+    private val openConversationsListeners = CopyOnWriteArrayList<OpenConversationsListener>()
+
+    fun openConversation(conversationId: String) {
+        synchronized(openConversations) {
+            openConversations[conversationId] = (openConversations[conversationId] ?: 0) + 1
+        }
+        markConversationRead(conversationId)
+        notifyOpenConversationsChanged()
+    }
+
+    fun closeConversation(conversationId: String) {
+        synchronized(openConversations) {
+            val count = openConversations[conversationId] ?: return
+            if (count > 1) openConversations[conversationId] = count - 1 else openConversations.remove(conversationId)
+        }
+        notifyOpenConversationsChanged()
+    }
+
+    fun getOpenConversations(): Set<String> {
+        return synchronized(openConversations) { HashSet(openConversations.keys) }
+    }
+
+    fun addOpenConversationsListener(listener: OpenConversationsListener) {
+        openConversationsListeners.add(listener)
+    }
+
+    fun removeOpenConversationsListener(listener: OpenConversationsListener) {
+        openConversationsListeners.remove(listener)
+    }
+
+    private fun notifyOpenConversationsChanged() {
+        val open = getOpenConversations()
+        openConversationsListeners.forEach { it.onOpenConversationsChanged(open) }
+    }
+
 }
\ No newline at end of file
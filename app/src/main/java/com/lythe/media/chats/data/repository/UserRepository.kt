@@ -1,9 +1,7 @@
 package com.lythe.media.chats.data.repository
 
 import android.content.Context
-import com.lythe.media.chats.data.local.database.AppDatabase
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import com.lythe.media.chats.data.local.database.StorageEngine
 
 class UserRepository private constructor(context: Context){
     companion object {
@@ -17,7 +15,6 @@ class UserRepository private constructor(context: Context){
             }
         }
     }
-    private val db = AppDatabase.getInstance(context)
-    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+    private val storage = StorageEngine.getInstance(context)
 
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.lythe.media.chats.data.search
+
+import java.util.Locale
+
+/**
+ * 消息全文检索的分词
+ * 系统 SQLite 的 FTS4 只有 simple/porter/unicode61/icu 分词器，前三者不切分中文，
+ * icu 按词典切词，搜索词不落在词边界上就查不到。这里在写库前自己切好，
+ * 以空格分隔写入 MessageEntity.searchText，FTS 表用默认的 simple 分词器按空格取词：
+ * 1. 中日韩字符按重叠二元组切分（"中国人" -> "中国 国人 人"），每段末尾补一个单字，
+ *    任意子串都能由连续的二元组短语命中，单字用前缀查询命中
+ * 2. 其他字母数字按单词切分并转小写，标点和空白作为分隔
+ */
+object MessageSearchTokenizer {
+
+    /**
+     * 生成索引文本，没有可索引字符时返回 null
+     */
+    @JvmStatic
+    fun tokenize(text: String?): String? {
+        if (text.isNullOrEmpty()) {
+            return null
+        }
+        val out = StringBuilder(text.length * 3)
+        forEachRun(text) { run, cjk ->
+            if (cjk) {
+                appendBigrams(out, run)
+            } else {
+                appendToken(out, run)
+            }
+        }
+        return if (out.isEmpty()) null else out.toString()
+    }
+
+    /**
+     * 把用户输入转成 FTS MATCH 表达式，各段之间为 AND；没有可搜索字符时返回 null
+     * 中日韩段落转成二元组短语，单字及英文单词用前缀匹配（边输入边搜索）
+     */
+    @JvmStatic
+    fun toMatchQuery(query: String?): String? {
+        if (query.isNullOrBlank()) {
+            return null
+        }
+        val out = StringBuilder(query.length * 4)
+        forEachRun(query) { run, cjk ->
+            if (out.isNotEmpty()) {
+                out.append(' ')
+            }
+            val codePoints = run.codePointCount(0, run.length)
+            if (!cjk || codePoints == 1) {
+                out.append(run).append('*')
+            } else {
+                val phrase = StringBuilder(run.length * 3)
+                appendBigrams(phrase, run, trailingUnigram = false)
+                out.append('"').append(phrase).append('"')
+            }
+        }
+        return if (out.isEmpty()) null else out.toString()
+    }
+
+    private inline fun forEachRun(text: String, action: (run: String, cjk: Boolean) -> Unit) {
+        var start = -1
+        var startCjk = false
+        var i = 0
+        while (i <= text.length) {
+            val codePoint = if (i < text.length) text.codePointAt(i) else -1
+            val wordChar = codePoint >= 0 && Character.isLetterOrDigit(codePoint)
+            val cjk = wordChar && isCjk(codePoint)
+            if (start >= 0 && (!wordChar || cjk != startCjk)) {
+                val run = text.substring(start, i)
+                action(if (startCjk) run else run.lowercase(Locale.ROOT), startCjk)
+                start = -1
+            }
+            if (wordChar && start < 0) {
+                start = i
+                startCjk = cjk
+            }
+            i += if (codePoint >= 0) Character.charCount(codePoint) else 1
+        }
+    }
+
+    private fun appendBigrams(out: StringBuilder, run: String, trailingUnigram: Boolean = true) {
+        var i = 0
+        while (i < run.length) {
+            val first = Character.charCount(run.codePointAt(i))
+            val next = i + first
+            if (next < run.length) {
+                val second = Character.charCount(run.codePointAt(next))
+                appendToken(out, run.substring(i, next + second))
+            } else if (trailingUnigram || i == 0) {
+                appendToken(out, run.substring(i, next))
+            }
+            i = next
+        }
+    }
+
+    private fun appendToken(out: StringBuilder, token: String) {
+        if (out.isNotEmpty()) {
+            out.append(' ')
+        }
+        out.append(token)
+    }
+
+    private fun isCjk(codePoint: Int): Boolean {
+        return when (Character.UnicodeScript.of(codePoint)) {
+            Character.UnicodeScript.HAN,
+            Character.UnicodeScript.HIRAGANA,
+            Character.UnicodeScript.KATAKANA,
+            Character.UnicodeScript.HANGUL -> true
+            else -> false
+        }
+    }
+}
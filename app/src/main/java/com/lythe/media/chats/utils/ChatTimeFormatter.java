@@ -0,0 +1,211 @@
+package com.lythe.media.chats.utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 会话列表时间和聊天记录日期分隔的格式化
+ * 1. 今天、昨天、近一周、今年的起点按当前时区算好缓存，只在跨天（或时区变化后）重算
+ * 2. 渲染结果按分钟（分隔线按天）缓存在以 long 为键的开放寻址表里，命中时不分配对象
+ * 3. 未命中时用线程安全的 java.time 格式化器渲染
+ * 可在任意线程调用
+ */
+public class ChatTimeFormatter {
+    private static final long MINUTE_MS = 60_000L;
+    private static final long DAY_MS = 24 * 60 * MINUTE_MS;
+    private static final int CACHE_CAPACITY = 2048; // 2 的幂，装到 3/4 时清空重来
+    private static final String[] WEEK_DAYS = {"周日", "周一", "周二", "周三", "周四", "周五", "周六"};
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm", Locale.ROOT);
+    private static final DateTimeFormatter MONTH_DAY = DateTimeFormatter.ofPattern("MM/dd", Locale.ROOT);
+    private static final DateTimeFormatter FULL_DATE = DateTimeFormatter.ofPattern("yyyy/MM/dd", Locale.ROOT);
+    private static final DateTimeFormatter SEPARATOR_MONTH_DAY = DateTimeFormatter.ofPattern("M月d日", Locale.ROOT);
+    private static final DateTimeFormatter SEPARATOR_FULL_DATE = DateTimeFormatter.ofPattern("yyyy年M月d日", Locale.ROOT);
+
+    private static volatile ChatTimeFormatter instance;
+
+    private volatile Boundaries boundaries;
+
+    public static ChatTimeFormatter getInstance() {
+        if (instance == null) {
+            synchronized (ChatTimeFormatter.class) {
+                if (instance == null) {
+                    instance = new ChatTimeFormatter();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ChatTimeFormatter() {
+        boundaries = new Boundaries(System.currentTimeMillis());
+    }
+
+    /**
+     * 会话列表时间：今天 HH:mm，昨天，近一周星期几，今年 MM/dd，更早 yyyy/MM/dd
+     */
+    public String formatChatTime(long timestamp) {
+        Boundaries current = current();
+        long bucket = Math.floorDiv(timestamp, MINUTE_MS);
+        String text = current.chatTimes.get(bucket);
+        if (text == null) {
+            text = current.renderChatTime(timestamp);
+            current.chatTimes.put(bucket, text);
+        }
+        return text;
+    }
+
+    /**
+     * 聊天记录日期分隔：今天，昨天，近一周星期几，今年 M月d日，更早 yyyy年M月d日
+     */
+    public String formatDateSeparator(long timestamp) {
+        Boundaries current = current();
+        long day = current.localDay(timestamp);
+        String text = current.separators.get(day);
+        if (text == null) {
+            text = current.renderSeparator(timestamp);
+            current.separators.put(day, text);
+        }
+        return text;
+    }
+
+    /**
+     * 两个时间戳是否在本地时区的同一天，用于决定是否插入日期分隔
+     */
+    public boolean isSameDay(long first, long second) {
+        Boundaries current = current();
+        return current.localDay(first) == current.localDay(second);
+    }
+
+    /**
+     * 系统时区变化（ACTION_TIMEZONE_CHANGED）后调用，丢弃按旧时区算好的边界和缓存
+     */
+    public void invalidate() {
+        boundaries = new Boundaries(System.currentTimeMillis());
+    }
+
+    private Boundaries current() {
+        Boundaries current = boundaries;
+        long now = System.currentTimeMillis();
+        if (now >= current.tomorrowStart || now < current.todayStart) {
+            current = new Boundaries(now);
+            boundaries = current;
+        }
+        return current;
+    }
+
+    /**
+     * long -> String 的线性探测表，读写都不装箱；锁无竞争时开销很小
+     */
+    private static final class RenderCache {
+        private static final long EMPTY = Long.MIN_VALUE;
+        private final long[] keys = new long[CACHE_CAPACITY];
+        private final String[] values = new String[CACHE_CAPACITY];
+        private int size;
+
+        RenderCache() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        synchronized String get(long key) {
+            for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & (CACHE_CAPACITY - 1)) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(long key, String value) {
+            if (size >= CACHE_CAPACITY * 3 / 4) {
+                Arrays.fill(keys, EMPTY);
+                Arrays.fill(values, null);
+                size = 0;
+            }
+            int i = slot(key);
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & (CACHE_CAPACITY - 1);
+            }
+            if (keys[i] == EMPTY) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private static int slot(long key) {
+            // 相邻分钟、相邻天的键打散到整张表
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed >>> 40) & (CACHE_CAPACITY - 1);
+        }
+    }
+
+    /**
+     * 某一天的分界点快照，连同其渲染缓存一起在跨天时整体替换
+     */
+    private static final class Boundaries {
+        final ZoneId zone;
+        final TimeZone timeZone;
+        final long todayStart;
+        final long tomorrowStart;
+        final long yesterdayStart;
+        final long weekStart;
+        final long yearStart;
+        final RenderCache chatTimes = new RenderCache();
+        final RenderCache separators = new RenderCache();
+
+        Boundaries(long now) {
+            timeZone = TimeZone.getDefault();
+            zone = ZoneId.systemDefault();
+            LocalDate today = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+            todayStart = startOf(today);
+            tomorrowStart = startOf(today.plusDays(1));
+            yesterdayStart = startOf(today.minusDays(1));
+            // 近一周：含今天在内的 7 天，避免与今天同为星期几的日期混淆
+            weekStart = startOf(today.minusDays(6));
+            yearStart = startOf(today.with(TemporalAdjusters.firstDayOfYear()));
+        }
+
+        private long startOf(LocalDate date) {
+            return date.atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+
+        long localDay(long timestamp) {
+            return Math.floorDiv(timestamp + timeZone.getOffset(timestamp), DAY_MS);
+        }
+
+        String renderChatTime(long timestamp) {
+            ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(zone);
+            if (timestamp >= todayStart) {
+                return TIME.format(time);
+            } else if (timestamp >= yesterdayStart) {
+                return "昨天";
+            } else if (timestamp >= weekStart) {
+                return WEEK_DAYS[time.getDayOfWeek().getValue() % 7];
+            } else if (timestamp >= yearStart) {
+                return MONTH_DAY.format(time);
+            }
+            return FULL_DATE.format(time);
+        }
+
+        String renderSeparator(long timestamp) {
+            ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(zone);
+            if (timestamp >= todayStart) {
+                return "今天";
+            } else if (timestamp >= yesterdayStart) {
+                return "昨天";
+            } else if (timestamp >= weekStart) {
+                return WEEK_DAYS[time.getDayOfWeek().getValue() % 7];
+            } else if (timestamp >= yearStart) {
+                return SEPARATOR_MONTH_DAY.format(time);
+            }
+            return SEPARATOR_FULL_DATE.format(time);
+        }
+    }
+}
@@ -9,7 +9,7 @@ import android.util.Log;
 
 import com.lythe.media.ImApplication;
 import com.lythe.media.im.MqttClientManager;
-import com.lythe.media.im.messager.compression.MessageCompressor;
+import com.lythe.media.im.messager.dedup.MessageDeduplicator;
 import com.lythe.media.im.messager.logging.Logger;
 import com.lythe.media.im.messager.monitor.PerformanceMonitor;
 import com.lythe.media.im.messager.power.PowerManager;
@@ -95,7 +95,7 @@ public class SendMessagesHelper {
     private NetworkManager networkManager;
     private PowerManager powerManager;
     private MessageQueue messageQueue;
-    private MessageCompressor messageCompressor;
+    private MessageDeduplicator outboundDedup;
     private MqttClientManager mqttClientManager;
 
     public static SendMessagesHelper getInstance() {
@@ -120,7 +120,7 @@ public class SendMessagesHelper {
         this.networkManager = app.getNetworkManager();
         this.powerManager = app.getPowerManager();
         this.messageQueue = app.getMessageQueue();
-        this.messageCompressor = MessageCompressor.getInstance();
+        this.outboundDedup = MessageDeduplicator.getOutbound();
         this.mqttClientManager = MqttClientManager.getInstance(app);
         this.inited = true;
     }
@@ -142,36 +142,9 @@ public class SendMessagesHelper {
                 mqttClientManager.connect();
 //                return ;
             }
-            String dedupPayload = "";
-            switch (message.getContentCase()) {
-                case TEXT_CONTENT:
-                    dedupPayload = message.getTextContent().getText();
-                    break;
-                case IMAGE_CONTENT:
-                    dedupPayload = message.getImageContent().getImageUrl();
-                    break;
-                case VOICE_CONTENT:
-                    dedupPayload = message.getVoiceContent().getVoiceUrl();
-                    break;
-                case VIDEO_CONTENT:
-                    dedupPayload = message.getVideoContent().getVideoUrl();
-                    break;
-                case FILE_CONTENT:
-                    dedupPayload = message.getFileContent().getFileUrl();
-                    break;
-                case STICKER_CONTENT:
-                    dedupPayload = message.getStickerContent().getStickerId();
-                    break;
-                case CONTENT_NOT_SET:
-                default:
-                    if (!message.getContentBytes().isEmpty()) {
-                        // 注意：这里只用于快速去重，真实内容应按 content_type 正确解码
-                        dedupPayload = message.getContentBytes().toStringUtf8();
-                    }
-                    break;
-            }
-
-            if(messageCompressor.isDuplicateMessage(message.getMessageId(), dedupPayload)) {
+            // 按 client_msg_id 去重，防止同一条消息重复入队
+            String dedupId = message.getClientMsgId().isEmpty() ? message.getMessageId() : message.getClientMsgId();
+            if(outboundDedup.isDuplicate(dedupId)) {
                 logger.warn(TAG, "Duplicate message detected, skipping: " + message.getMessageId());
                 return ;
             }
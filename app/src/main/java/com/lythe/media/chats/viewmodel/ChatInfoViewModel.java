@@ -2,87 +2,156 @@ package com.lythe.media.chats.viewmodel;
 
 import android.app.Application;
 import android.util.Log;
-import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.Transformations;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
-import com.lythe.media.chats.data.entity.MessageConverter;
 import com.lythe.media.chats.data.entity.MessageEntity;
 import com.lythe.media.chats.data.repository.MessageRepository;
+import com.lythe.media.im.MessageDispatcher;
 
-import org.jetbrains.annotations.NotNull;
-
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Objects;
 
 public class ChatInfoViewModel extends AndroidViewModel {
     private final static String TAG = "ChatInfoViewModel";
-    private MutableLiveData<List<MessageEntity>> messages = new MutableLiveData<>();
-    private List<MessageEntity> loadedMessages = new CopyOnWriteArrayList<>();
-    private MessageRepository messageRepository;
-//    private int currentPage = 1; // 当前页数  //不能用分页
-    private final int pageSize = 20; // 每页加载的数据量
-    private Long earliestTimestamp = Long.MAX_VALUE;
-    private Boolean hasMoreHistory = true;
-    private Integer currentLoadedMessageIndex = 0;
-    private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>();
-    private final MutableLiveData<String> toastMsg = new MutableLiveData<>();
+    private static final int PAGE_SIZE = 30; // 每页加载的数据量
+    // 内存中最多保留 maxSize 条，超出后丢弃离视口最远的页，翻得再远内存也不增长
+    private static final PagingConfig PAGING_CONFIG = new PagingConfig(
+            PAGE_SIZE,          // pageSize
+            PAGE_SIZE,          // prefetchDistance
+            false,              // enablePlaceholders
+            PAGE_SIZE * 2,      // initialLoadSize
+            PAGE_SIZE * 6);     // maxSize
+    private final MutableLiveData<List<MessageEntity>> messages = new MutableLiveData<>();
+    private final MutableLiveData<PagingRequest> pagingRequest = new MutableLiveData<>();
+    private final LiveData<PagingData<MessageEntity>> messagePages;
+    private final MessageRepository messageRepository;
+    // 只订阅当前打开的会话：停留在会话页时收到的新消息直接记为已读
+    private final MessageDispatcher.MessageSubscriber messageSubscriber = new MessageDispatcher.MessageSubscriber() {
+        @Override
+        public void onMessageReceived(MessageEntity message) {
+            messageRepository.markConversationRead(message.getConversationId());
+        }
+
+        @Override
+        public void onMessagesReceived(List<MessageEntity> messages) {
+            // 订阅只针对一个会话，一批只需清一次未读
+            if (!messages.isEmpty()) {
+                onMessageReceived(messages.get(messages.size() - 1));
+            }
+        }
+
+        @Override
+        public boolean needMainThread() {
+            return false;
+        }
+    };
+    @Nullable
+    private String subscribedConversationId;
 
     public ChatInfoViewModel(@NonNull Application application) {
         super(application);
         messageRepository = MessageRepository.Companion.getInstance(application);
+        // 切换会话或跳转锚点时换一个 Pager；cachedIn 让配置变更后直接复用已加载的页
+        messagePages = PagingLiveData.cachedIn(
+                Transformations.switchMap(pagingRequest, request -> PagingLiveData.getLiveData(
+                        messageRepository.getMessagePager(request.conversationId, request.anchorMsgId, PAGING_CONFIG))),
+                ViewModelKt.getViewModelScope(this));
     }
 
     public void loadAllMessages(String conversationId) {
-        Executors.newSingleThreadExecutor().execute(()-> {
-            List<@NotNull MessageEntity> allMessages = messageRepository.getAllMessages(conversationId);
+        messageRepository.loadAllMessages(conversationId).thenAccept(allMessages -> {
             Log.d(TAG, allMessages.toString());
             messages.postValue(allMessages);
         });
     }
-    public void loadMessagePaged(String conversationId) {
-        if(!hasMoreHistory) {
-            toastMsg.postValue("没有更多历史消息了");
+
+    /**
+     * 打开会话，从最新消息开始分页；重复调用（如重建 Activity）不会重新加载
+     */
+    public void openConversation(String conversationId) {
+        PagingRequest current = pagingRequest.getValue();
+        if (current == null || !current.conversationId.equals(conversationId)) {
+            pagingRequest.setValue(new PagingRequest(conversationId, null));
+        }
+        subscribeConversation(conversationId);
+    }
+
+    private void subscribeConversation(String conversationId) {
+        if (conversationId.equals(subscribedConversationId)) {
             return;
         }
-        isLoading.postValue(true);
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try {
-                List<@NotNull MessageEntity> messagesPages = messageRepository
-                        .getMessagesPages(conversationId, pageSize, earliestTimestamp);
-                if(messagesPages != null && !messagesPages.isEmpty()) {
-                    loadedMessages.addAll(currentLoadedMessageIndex, messagesPages);
-                    currentLoadedMessageIndex += messagesPages.size();
-                    earliestTimestamp = messagesPages.stream()
-                                    .mapToLong(MessageEntity::getTimestamp)
-                                            .min()
-                                                    .orElse(earliestTimestamp);
-                    messages.postValue(new ArrayList<>(loadedMessages));
-                    if(messagesPages.size() < pageSize) {
-                        hasMoreHistory = false;
-                    }
-                } else {
-                    hasMoreHistory = false;
-                    toastMsg.postValue("没有更多历史消息了");
-                }
-            } catch (Exception e) {
-                toastMsg.postValue("加载失败，请重试");
-            } finally {
-                isLoading.postValue(false);
-            }
-        });
+        MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+        if (subscribedConversationId != null) {
+            dispatcher.unsubscribe(subscribedConversationId, messageSubscriber);
+            messageRepository.closeConversation(subscribedConversationId);
+        }
+        subscribedConversationId = conversationId;
+        dispatcher.subscribe(conversationId, messageSubscriber);
+        // 清空未读，并让会话列表在打开期间不再累加该会话的未读
+        messageRepository.openConversation(conversationId);
+    }
+
+    /**
+     * 以某条消息为中心重新加载（未读分界、搜索结果、回复原消息），向两侧继续分页
+     */
+    public void jumpToMessage(String conversationId, String anchorMsgId) {
+        PagingRequest request = new PagingRequest(conversationId, anchorMsgId);
+        if (!request.equals(pagingRequest.getValue())) {
+            pagingRequest.setValue(request);
+        }
+        subscribeConversation(conversationId);
+    }
+
+    public LiveData<PagingData<MessageEntity>> getMessagePages() {
+        return messagePages;
     }
 
     public LiveData<List<MessageEntity>> getMessages() {
         return messages;
     }
-    public LiveData<Boolean> getIsLoading() { return isLoading; }
-    public LiveData<String> getToastMsg() { return toastMsg; }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (subscribedConversationId != null) {
+            MessageDispatcher.getInstance().unsubscribe(subscribedConversationId, messageSubscriber);
+            messageRepository.closeConversation(subscribedConversationId);
+            subscribedConversationId = null;
+        }
+    }
+
+    private static final class PagingRequest {
+        final String conversationId;
+        @Nullable
+        final String anchorMsgId;
+
+        PagingRequest(String conversationId, @Nullable String anchorMsgId) {
+            this.conversationId = conversationId;
+            this.anchorMsgId = anchorMsgId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PagingRequest)) return false;
+            PagingRequest that = (PagingRequest) o;
+            return conversationId.equals(that.conversationId)
+                    && Objects.equals(anchorMsgId, that.anchorMsgId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(conversationId, anchorMsgId);
+        }
+    }
 }
@@ -20,8 +20,6 @@ import com.lythe.media.chats.data.repository.base.BaseRemoteRepository;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class FriendListViewModel extends AndroidViewModel {
     private final static String TAG = "FriendListViewModel";
@@ -31,7 +29,6 @@ public class FriendListViewModel extends AndroidViewModel {
         return friendListItemMutableLiveData;
     }
     private FriendRepository friendRepository;
-    private final ExecutorService processorExecutor = Executors.newSingleThreadExecutor();
     private Handler mainHandler = new Handler(Looper.getMainLooper());
     public interface Callback<T> {
         void onSuccess(T data);
@@ -55,10 +52,8 @@ public class FriendListViewModel extends AndroidViewModel {
         });
     }
     public void initLoad() {
-        processorExecutor.execute(() -> {
-            List<@NotNull FriendModel> localFriendsSync = friendRepository.getLocalFriendsSync();
-            mainHandler.post(() -> friendListItemMutableLiveData.setValue(localFriendsSync));
-        });
+        friendRepository.loadLocalFriends().thenAccept(localFriends ->
+                mainHandler.post(() -> friendListItemMutableLiveData.setValue(localFriends)));
     }
     public void refreshFriends() {
         friendRepository.refreshFriends(new BaseRemoteRepository.Callback<List<FriendModel>>() {
@@ -0,0 +1,494 @@
+package com.lythe.media.im;
+
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.chats.data.search.MessageSearchTokenizer;
+import com.lythe.media.im.messager.compression.ContentCodec;
+import com.lythe.media.im.messager.dedup.MessageDeduplicator;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessage;
+import com.lythe.media.protobuf.ImMessageContentType;
+import com.lythe.media.protobuf.ImMessageStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 入站消息解码器
+ * 直接从 MQTT payload 的字节区间解码出 MessageEntity，不经过 ImMessage 中间对象：
+ * 1. 读取游标复用，解码一条消息不创建流对象
+ * 2. sender_id / receiver_id / conversation_id / topic 走驻留表，命中时不分配新 String
+ * 3. 不需要的字段（extra_data 等）直接跳过；文本类 content_bytes 经 ContentCodec 解压
+ * 4. decodeHeader 只读路由/排序字段，内容子消息整段跳过，完整解码推迟到 MessageHeader.toEntity
+ * 内容摘要规则与 MessageConverter.fromProto 保持一致。
+ * 非线程安全：每个处理线程持有一个实例。
+ */
+public final class InboundMessageDecoder {
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    // ImMessage 字段号
+    private static final int FIELD_MESSAGE_ID = 1;
+    private static final int FIELD_SENDER_ID = 2;
+    private static final int FIELD_RECEIVER_ID = 3;
+    private static final int FIELD_MESSAGE_TYPE = 4;
+    private static final int FIELD_STATUS = 5;
+    private static final int FIELD_SESSION_ID = 6;
+    private static final int FIELD_TIMESTAMP = 7;
+    private static final int FIELD_TEXT_CONTENT = 8;
+    private static final int FIELD_IMAGE_CONTENT = 9;
+    private static final int FIELD_VOICE_CONTENT = 10;
+    private static final int FIELD_CONVERSATION_TYPE = 11;
+    private static final int FIELD_CLIENT_MSG_ID = 15;
+    private static final int FIELD_SERVER_MSG_SEQ = 16;
+    private static final int FIELD_CONVERSATION_ID = 18;
+    private static final int FIELD_CONTENT_TYPE = 19;
+    private static final int FIELD_CONTENT_BYTES = 20;
+    private static final int FIELD_REPLY = 21;
+    private static final int FIELD_IS_EDITED = 23;
+    private static final int FIELD_VIDEO_CONTENT = 24;
+    private static final int FIELD_FILE_CONTENT = 25;
+    private static final int FIELD_STICKER_CONTENT = 26;
+    private static final int FIELD_TOPIC = 27;
+    private static final int FIELD_RETRY_COUNT = 28;
+
+    private final StringInterner interner = new StringInterner(1024);
+
+    // 读取游标
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+    // 整条消息的区间，原样存入 MessageEntity.rawMessage
+    private int messageOffset;
+    private int messageLength;
+
+    // 当前消息的字段
+    private String messageId;
+    private String senderId;
+    private String receiverId;
+    private int messageType;
+    private int status;
+    private String sessionId;
+    private long timestamp;
+    private int conversationType;
+    private long serverMsgSeq;
+    private String conversationId;
+    private boolean isEdited;
+    private String topic;
+    private int retryCount;
+    private boolean hasReply;
+    private String replyPreview;
+    private int contentField;
+    private String contentText;
+    private String contentUrl;
+    private String contentName;
+    private long contentFileSize;
+    private int contentDuration;
+    // content_bytes 只记录区间，需要时再经 ContentCodec 解码
+    private int contentType;
+    private int contentBytesOffset;
+    private int contentBytesLength;
+
+    public MessageEntity decode(byte[] data, int offset, int length) throws IOException {
+        reset(data, offset, length);
+        int tag;
+        while((tag = readTag()) != 0) {
+            switch (tag >>> 3) {
+                case FIELD_MESSAGE_ID: messageId = readString(); break;
+                case FIELD_SENDER_ID: senderId = readInterned(); break;
+                case FIELD_RECEIVER_ID: receiverId = readInterned(); break;
+                case FIELD_MESSAGE_TYPE: messageType = (int) readVarint(); break;
+                case FIELD_STATUS: status = (int) readVarint(); break;
+                case FIELD_SESSION_ID: sessionId = readInterned(); break;
+                case FIELD_TIMESTAMP: timestamp = readVarint(); break;
+                case FIELD_CONVERSATION_TYPE: conversationType = (int) readVarint(); break;
+                case FIELD_SERVER_MSG_SEQ: serverMsgSeq = readVarint(); break;
+                case FIELD_CONVERSATION_ID: conversationId = readInterned(); break;
+                case FIELD_IS_EDITED: isEdited = readVarint() != 0; break;
+                case FIELD_TOPIC: topic = readInterned(); break;
+                case FIELD_RETRY_COUNT: retryCount = (int) readVarint(); break;
+                case FIELD_REPLY: readReply(); break;
+                case FIELD_CONTENT_TYPE: contentType = (int) readVarint(); break;
+                case FIELD_CONTENT_BYTES:
+                    contentBytesLength = readLength();
+                    contentBytesOffset = pos;
+                    pos += contentBytesLength;
+                    break;
+                case FIELD_TEXT_CONTENT:
+                case FIELD_IMAGE_CONTENT:
+                case FIELD_VOICE_CONTENT:
+                case FIELD_VIDEO_CONTENT:
+                case FIELD_FILE_CONTENT:
+                case FIELD_STICKER_CONTENT:
+                    readContent(tag >>> 3);
+                    break;
+                default:
+                    skipField(tag);
+            }
+        }
+        return buildEntity();
+    }
+
+    /**
+     * 只解码消息头：message_id、conversation_id(兼容session_id)、server_msg_seq、timestamp 和内容类型
+     */
+    public MessageHeader decodeHeader(byte[] data, int offset, int length) throws IOException {
+        reset(data, offset, length);
+        // 去重键直接对 client_msg_id 的UTF-8字节求哈希，不创建字符串
+        long dedupKey = 0;
+        boolean hasClientMsgId = false;
+        int tag;
+        while((tag = readTag()) != 0) {
+            int field = tag >>> 3;
+            switch (field) {
+                case FIELD_MESSAGE_ID: messageId = readString(); break;
+                case FIELD_CLIENT_MSG_ID: {
+                    int idLength = readLength();
+                    if(idLength > 0) {
+                        dedupKey = MessageDeduplicator.hash(buffer, pos, idLength);
+                        hasClientMsgId = true;
+                    }
+                    pos += idLength;
+                    break;
+                }
+                case FIELD_SESSION_ID: sessionId = readInterned(); break;
+                case FIELD_TIMESTAMP: timestamp = readVarint(); break;
+                case FIELD_SERVER_MSG_SEQ: serverMsgSeq = readVarint(); break;
+                case FIELD_CONVERSATION_ID: conversationId = readInterned(); break;
+                case FIELD_TEXT_CONTENT:
+                case FIELD_IMAGE_CONTENT:
+                case FIELD_VOICE_CONTENT:
+                case FIELD_VIDEO_CONTENT:
+                case FIELD_FILE_CONTENT:
+                case FIELD_STICKER_CONTENT:
+                    contentField = field;
+                    skipField(tag);
+                    break;
+                default:
+                    skipField(tag);
+            }
+        }
+        ImMessage.ContentCase contentCase = ImMessage.ContentCase.forNumber(contentField);
+        return new MessageHeader(
+                messageId,
+                conversationId.isEmpty() ? sessionId : conversationId,
+                serverMsgSeq,
+                timestamp,
+                contentCase == null ? ImMessage.ContentCase.CONTENT_NOT_SET : contentCase,
+                hasClientMsgId ? dedupKey : MessageDeduplicator.hash(messageId),
+                data, offset, length);
+    }
+
+    private void reset(byte[] data, int offset, int length) {
+        buffer = data;
+        pos = offset;
+        limit = offset + length;
+        messageOffset = offset;
+        messageLength = length;
+        messageId = "";
+        senderId = "";
+        receiverId = "";
+        messageType = 0;
+        status = 0;
+        sessionId = "";
+        timestamp = 0;
+        conversationType = 0;
+        serverMsgSeq = 0;
+        conversationId = "";
+        isEdited = false;
+        topic = "";
+        retryCount = 0;
+        hasReply = false;
+        replyPreview = "";
+        contentType = 0;
+        contentBytesOffset = 0;
+        contentBytesLength = 0;
+        clearContent(0);
+    }
+
+    private void clearContent(int field) {
+        contentField = field;
+        contentText = "";
+        contentUrl = "";
+        contentName = "";
+        contentFileSize = 0;
+        contentDuration = 0;
+    }
+
+    private void readReply() throws IOException {
+        int end = pushLimit();
+        hasReply = true;
+        int tag;
+        while((tag = readTag()) != 0) {
+            if((tag >>> 3) == 3) {
+                replyPreview = readString();
+            } else {
+                skipField(tag);
+            }
+        }
+        popLimit(end);
+    }
+
+    /**
+     * oneof content：后出现的字段覆盖前面的
+     */
+    private void readContent(int field) throws IOException {
+        clearContent(field);
+        int end = pushLimit();
+        int tag;
+        while((tag = readTag()) != 0) {
+            int sub = tag >>> 3;
+            switch (field) {
+                case FIELD_TEXT_CONTENT:
+                    if(sub == 1) { contentText = readString(); continue; }
+                    break;
+                case FIELD_IMAGE_CONTENT:
+                    if(sub == 1) { contentUrl = readString(); continue; }
+                    if(sub == 5) { contentFileSize = readVarint(); continue; }
+                    break;
+                case FIELD_VOICE_CONTENT:
+                    if(sub == 1) { contentUrl = readString(); continue; }
+                    if(sub == 3) { contentDuration = (int) readVarint(); continue; }
+                    if(sub == 4) { contentFileSize = readVarint(); continue; }
+                    break;
+                case FIELD_VIDEO_CONTENT:
+                    if(sub == 1) { contentUrl = readString(); continue; }
+                    if(sub == 5) { contentDuration = (int) readVarint(); continue; }
+                    if(sub == 6) { contentFileSize = readVarint(); continue; }
+                    break;
+                case FIELD_FILE_CONTENT:
+                    if(sub == 1) { contentName = readString(); continue; }
+                    if(sub == 2) { contentUrl = readString(); continue; }
+                    if(sub == 3) { contentFileSize = readVarint(); continue; }
+                    break;
+                case FIELD_STICKER_CONTENT:
+                    if(sub == 1) { contentName = readString(); continue; }
+                    if(sub == 3) { contentUrl = readString(); continue; }
+                    break;
+            }
+            skipField(tag);
+        }
+        popLimit(end);
+    }
+
+    private MessageEntity buildEntity() {
+        String content;
+        String filePath = null;
+        long fileSize = 0;
+        int duration = 0;
+        boolean searchable = false;
+        switch (contentField) {
+            case FIELD_TEXT_CONTENT:
+                content = contentText;
+                searchable = true;
+                break;
+            case FIELD_IMAGE_CONTENT:
+                content = "[image]";
+                filePath = contentUrl;
+                fileSize = contentFileSize;
+                break;
+            case FIELD_VOICE_CONTENT:
+                content = "[voice " + contentDuration + "second]";
+                filePath = contentUrl;
+                fileSize = contentFileSize;
+                duration = contentDuration;
+                break;
+            case FIELD_VIDEO_CONTENT:
+                content = "[video " + contentDuration + "]";
+                filePath = contentUrl;
+                fileSize = contentFileSize;
+                duration = contentDuration;
+                break;
+            case FIELD_FILE_CONTENT:
+                content = hasReply
+                        ? "[Reply " + replyPreview + "\n[file " + contentName + "]"
+                        : "[File " + contentName + "]";
+                filePath = contentUrl;
+                fileSize = contentFileSize;
+                break;
+            case FIELD_STICKER_CONTENT:
+                content = "[sticker " + contentName + "]";
+                filePath = contentUrl;
+                break;
+            default:
+                String text = contentBytesLength > 0 && contentType == ImMessageContentType.CONTENT_TEXT_VALUE
+                        ? decodeTextBytes() : null;
+                // 解压失败的占位文本不进检索索引
+                searchable = text != null;
+                content = searchable ? text : "[UNKNOWN MESSAGE]";
+        }
+        ImConversationType type = ImConversationType.forNumber(conversationType);
+        return new MessageEntity(
+                messageId,
+                conversationId.isEmpty() ? sessionId : conversationId, // 优先用conversationId，兼容旧sessionId
+                type == null ? ImConversationType.UNRECOGNIZED : type,
+                senderId,
+                receiverId,
+                messageType,
+                content,
+                topic,
+                retryCount,
+                timestamp,
+                serverMsgSeq,
+                isEdited,
+                status,
+                filePath,
+                fileSize,
+                duration,
+                status == ImMessageStatus.READ_VALUE,
+                false,
+                searchable ? MessageSearchTokenizer.tokenize(content) : null,
+                Arrays.copyOfRange(buffer, messageOffset, messageOffset + messageLength));
+    }
+
+    /**
+     * @return 解压失败时返回 null
+     */
+    private String decodeTextBytes() {
+        try {
+            byte[] plain = ContentCodec.getInstance().decode(buffer, contentBytesOffset, contentBytesLength);
+            return new String(plain, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ---- wire format ----
+
+    private int readTag() throws IOException {
+        if(pos >= limit) {
+            return 0;
+        }
+        int tag = (int) readVarint();
+        if((tag >>> 3) == 0) {
+            throw new IOException("Invalid tag");
+        }
+        return tag;
+    }
+
+    private long readVarint() throws IOException {
+        long result = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            if(pos >= limit) {
+                throw new IOException("Truncated varint");
+            }
+            byte b = buffer[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if(length < 0 || length > limit - pos) {
+            throw new IOException("Truncated field");
+        }
+        return (int) length;
+    }
+
+    private String readString() throws IOException {
+        int length = readLength();
+        String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private String readInterned() throws IOException {
+        int length = readLength();
+        String value = interner.intern(buffer, pos, length);
+        pos += length;
+        return value;
+    }
+
+    /**
+     * 进入嵌套消息：把读取上限收窄到子消息末尾，返回原上限
+     */
+    private int pushLimit() throws IOException {
+        int length = readLength();
+        int oldLimit = limit;
+        limit = pos + length;
+        return oldLimit;
+    }
+
+    private void popLimit(int oldLimit) {
+        pos = limit;
+        limit = oldLimit;
+    }
+
+    private void skipField(int tag) throws IOException {
+        switch (tag & 0x7) {
+            case WIRETYPE_VARINT:
+                readVarint();
+                break;
+            case WIRETYPE_FIXED64:
+                skipBytes(8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                skipBytes(readLength());
+                break;
+            case WIRETYPE_FIXED32:
+                skipBytes(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type: " + (tag & 0x7));
+        }
+    }
+
+    private void skipBytes(int count) throws IOException {
+        if(count > limit - pos) {
+            throw new IOException("Truncated field");
+        }
+        pos += count;
+    }
+
+    /**
+     * 直接映射的字符串驻留表：按UTF-8字节查找，命中时不分配，冲突时覆盖旧项
+     */
+    static final class StringInterner {
+        private final byte[][] keys;
+        private final String[] values;
+        private final int mask;
+
+        StringInterner(int capacity) {
+            int size = Integer.highestOneBit(Math.max(16, capacity - 1) << 1);
+            keys = new byte[size][];
+            values = new String[size];
+            mask = size - 1;
+        }
+
+        String intern(byte[] data, int offset, int length) {
+            if(length == 0) {
+                return "";
+            }
+            int hash = 1;
+            for(int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            byte[] key = keys[slot];
+            if(key != null && key.length == length && regionEquals(key, data, offset)) {
+                return values[slot];
+            }
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            String value = new String(copy, StandardCharsets.UTF_8);
+            keys[slot] = copy;
+            values[slot] = value;
+            return value;
+        }
+
+        private static boolean regionEquals(byte[] key, byte[] data, int offset) {
+            for(int i = 0; i < key.length; i++) {
+                if(key[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.lythe.media.im;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的 MQTT 持久化实现，替代 MemoryPersistence
+ * 1. 追加写日志：每次 put/remove 追加一条记录，进程被杀后由页缓存保证已写入的数据不丢
+ * 2. 记录带CRC，启动时截断尾部写了一半的记录
+ * 3. 垃圾超过一半时压缩：把存活记录写入新文件后原子替换
+ *
+ * 记录格式：[op:1][keyLen:4][headerLen:4][payloadLen:4][crc:4][key][header][payload]
+ * op 最后写入，0 表示日志结束。
+ */
+public class MappedFilePersistence implements MqttClientPersistence {
+    private static final String TAG = "MappedFilePersistence";
+    private static final String LOG_FILE_NAME = "inflight.log";
+    private static final String COMPACT_FILE_NAME = "inflight.log.compact";
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 1 + 4 + 4 + 4 + 4;
+    private static final int INITIAL_MAP_SIZE = 256 * 1024;
+    private static final int COMPACT_MIN_SIZE = 128 * 1024;
+
+    private final File baseDir;
+    private File clientDir;
+    private RandomAccessFile logFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    // 存活记录占用的字节数，用于判断是否需要压缩
+    private int liveBytes;
+    private final Map<String, StoredPersistable> entries = new HashMap<>();
+
+    public MappedFilePersistence(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+        if (channel != null) {
+            return;
+        }
+        clientDir = new File(baseDir, sanitize(clientId + "-" + serverURI));
+        if (!clientDir.exists() && !clientDir.mkdirs()) {
+            throw new MqttPersistenceException();
+        }
+        // 上次压缩中途被杀：原日志仍完整，直接丢弃半成品
+        File leftover = new File(clientDir, COMPACT_FILE_NAME);
+        if (leftover.exists() && !leftover.delete()) {
+            Log.w(TAG, "Failed to delete leftover compact file");
+        }
+        try {
+            File file = new File(clientDir, LOG_FILE_NAME);
+            logFile = new RandomAccessFile(file, "rw");
+            channel = logFile.getChannel();
+            int size = (int) Math.max(logFile.length(), INITIAL_MAP_SIZE);
+            logFile.setLength(size);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            replay();
+            Log.d(TAG, "Persistence opened, entries=" + entries.size() + ", logSize=" + writePosition);
+        } catch (IOException e) {
+            closeQuietly();
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            buffer.force();
+        } finally {
+            closeQuietly();
+            entries.clear();
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkIsOpen();
+        byte[] header = copy(persistable.getHeaderBytes(), persistable.getHeaderOffset(), persistable.getHeaderLength());
+        byte[] payload = copy(persistable.getPayloadBytes(), persistable.getPayloadOffset(), persistable.getPayloadLength());
+        StoredPersistable stored = new StoredPersistable(header, payload);
+        try {
+            stored.recordSize = appendRecord(OP_PUT, key, header, payload);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+        StoredPersistable previous = entries.put(key, stored);
+        if (previous != null) {
+            liveBytes -= previous.recordSize;
+        }
+        liveBytes += stored.recordSize;
+        maybeCompact();
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        StoredPersistable previous = entries.remove(key);
+        if (previous == null) {
+            return;
+        }
+        liveBytes -= previous.recordSize;
+        try {
+            appendRecord(OP_REMOVE, key, null, null);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public synchronized Enumeration keys() throws MqttPersistenceException {
+        checkIsOpen();
+        return Collections.enumeration(new ArrayList<>(entries.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkIsOpen();
+        entries.clear();
+        liveBytes = 0;
+        // 映射中的文件不能截断，清零已写区域即可
+        for (int i = 0; i < writePosition; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        writePosition = 0;
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * 从日志重建内存索引，遇到损坏记录即视为日志结尾
+     */
+    private void replay() {
+        int position = 0;
+        int capacity = buffer.capacity();
+        boolean torn = false;
+        while (position + RECORD_HEADER_SIZE <= capacity) {
+            byte op = buffer.get(position);
+            if (op == 0) {
+                break;
+            }
+            int keyLength = buffer.getInt(position + 1);
+            int headerLength = buffer.getInt(position + 5);
+            int payloadLength = buffer.getInt(position + 9);
+            int crc = buffer.getInt(position + 13);
+            if ((op != OP_PUT && op != OP_REMOVE) || keyLength <= 0 || headerLength < 0 || payloadLength < 0
+                    || (long) position + RECORD_HEADER_SIZE + keyLength + headerLength + payloadLength > capacity) {
+                torn = true;
+                break;
+            }
+            int dataStart = position + RECORD_HEADER_SIZE;
+            byte[] keyBytes = read(dataStart, keyLength);
+            byte[] header = read(dataStart + keyLength, headerLength);
+            byte[] payload = read(dataStart + keyLength + headerLength, payloadLength);
+            if (crc != checksum(op, keyBytes, header, payload)) {
+                torn = true;
+                break;
+            }
+            int recordSize = RECORD_HEADER_SIZE + keyLength + headerLength + payloadLength;
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            StoredPersistable previous;
+            if (op == OP_PUT) {
+                StoredPersistable stored = new StoredPersistable(header, payloadLength == 0 ? null : payload);
+                stored.recordSize = recordSize;
+                previous = entries.put(key, stored);
+                liveBytes += recordSize;
+            } else {
+                previous = entries.remove(key);
+            }
+            if (previous != null) {
+                liveBytes -= previous.recordSize;
+            }
+            position += recordSize;
+        }
+        writePosition = position;
+        if (torn) {
+            Log.w(TAG, "Truncating torn record at " + position);
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private int appendRecord(byte op, String key, byte[] header, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int headerLength = header == null ? 0 : header.length;
+        int payloadLength = payload == null ? 0 : payload.length;
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length + headerLength + payloadLength;
+        ensureCapacity(writePosition + recordSize + 1);
+
+        int position = writePosition;
+        buffer.putInt(position + 1, keyBytes.length);
+        buffer.putInt(position + 5, headerLength);
+        buffer.putInt(position + 9, payloadLength);
+        buffer.putInt(position + 13, checksum(op, keyBytes, header, payload));
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(keyBytes);
+        if (header != null) {
+            buffer.put(header);
+        }
+        if (payload != null) {
+            buffer.put(payload);
+        }
+        // op最后写入，保证读到非0的op时记录体已完整
+        buffer.put(position, op);
+        writePosition += recordSize;
+        return recordSize;
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        int newSize = Math.max(buffer.capacity() * 2, required);
+        logFile.setLength(newSize);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    private void maybeCompact() {
+        if (writePosition < COMPACT_MIN_SIZE || liveBytes * 2 > writePosition) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int oldSize = writePosition;
+        File compactFile = new File(clientDir, COMPACT_FILE_NAME);
+        RandomAccessFile newFile = null;
+        try {
+            newFile = new RandomAccessFile(compactFile, "rw");
+            int size = Math.max(INITIAL_MAP_SIZE, liveBytes * 2);
+            newFile.setLength(size);
+            FileChannel newChannel = newFile.getChannel();
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            RandomAccessFile oldFile = logFile;
+            logFile = newFile;
+            channel = newChannel;
+            buffer = newBuffer;
+            writePosition = 0;
+            liveBytes = 0;
+            for (Map.Entry<String, StoredPersistable> entry : entries.entrySet()) {
+                StoredPersistable stored = entry.getValue();
+                stored.recordSize = appendRecord(OP_PUT, entry.getKey(), stored.header, stored.payload);
+                liveBytes += stored.recordSize;
+            }
+            buffer.force();
+            if (!compactFile.renameTo(new File(clientDir, LOG_FILE_NAME))) {
+                throw new IOException("rename compact file failed");
+            }
+            try {
+                oldFile.close();
+            } catch (IOException ignore) {}
+            Log.d(TAG, "Compacted " + oldSize + " -> " + writePosition + " bytes in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            // 压缩失败不影响正确性，下次写入时再尝试
+            Log.e(TAG, "Compaction failed", e);
+            if (newFile != null && newFile == logFile) {
+                reopenAfterFailedCompaction();
+            } else if (newFile != null) {
+                try {
+                    newFile.close();
+                } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    private void reopenAfterFailedCompaction() {
+        closeQuietly();
+        new File(clientDir, COMPACT_FILE_NAME).delete();
+        entries.clear();
+        liveBytes = 0;
+        try {
+            logFile = new RandomAccessFile(new File(clientDir, LOG_FILE_NAME), "rw");
+            channel = logFile.getChannel();
+            int size = (int) Math.max(logFile.length(), INITIAL_MAP_SIZE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            replay();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to reopen persistence log", e);
+            closeQuietly();
+        }
+    }
+
+    private byte[] read(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static int checksum(byte op, byte[] key, byte[] header, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(key);
+        if (header != null) {
+            crc.update(header);
+        }
+        if (payload != null) {
+            crc.update(payload);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static byte[] copy(byte[] source, int offset, int length) {
+        if (source == null || length <= 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(source, offset, bytes, 0, length);
+        return bytes;
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void checkIsOpen() throws MqttPersistenceException {
+        if (channel == null) {
+            throw new MqttPersistenceException();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (logFile != null) {
+                logFile.close();
+            }
+        } catch (IOException ignore) {}
+        logFile = null;
+        channel = null;
+        buffer = null;
+    }
+
+    private static class StoredPersistable implements MqttPersistable {
+        final byte[] header;
+        final byte[] payload;
+        int recordSize;
+
+        StoredPersistable(byte[] header, byte[] payload) {
+            this.header = header == null ? new byte[0] : header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload == null ? 0 : payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
@@ -2,16 +2,40 @@ package com.lythe.media.im;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
 
 import com.lythe.media.chats.data.entity.MessageEntity;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 入站消息分发
+ * 订阅按会话ID索引：一条消息只投递给该会话的订阅者和通配订阅者，
+ * 分发开销与在线页面总数无关。订阅者数组写时复制，分发时无锁读取。
+ * 需要主线程的订阅者默认合帧投递：同一帧内到达的消息攒成列表，
+ * 在下一个 Choreographer 帧回调里通过 onMessagesReceived 一次交付。
+ */
 public class MessageDispatcher {
+    private static final MessageSubscriber[] EMPTY = new MessageSubscriber[0];
     private static volatile MessageDispatcher instance;
-    private final List<MessageSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    // conversationId -> 订阅者数组
+    private final ConcurrentHashMap<String, MessageSubscriber[]> conversationSubscribers = new ConcurrentHashMap<>();
+    // 接收所有会话消息的订阅者（如会话列表）
+    private final Object wildcardLock = new Object();
+    private volatile MessageSubscriber[] wildcardSubscribers = EMPTY;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean coalescingEnabled = true;
+    // 待下一帧交付的主线程消息，按订阅者分组
+    private final Object frameLock = new Object();
+    private Map<MessageSubscriber, List<MessageEntity>> pendingFrameDeliveries = new LinkedHashMap<>();
+    private boolean frameScheduled = false;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flushFrameDeliveries();
     private MessageDispatcher() {}
     public static MessageDispatcher getInstance() {
         if(instance == null) {
@@ -24,33 +48,186 @@ public class MessageDispatcher {
         return instance;
     }
 
+    /**
+     * 通配订阅：接收所有会话的消息
+     */
     public void subscribe(MessageSubscriber subscriber) {
-        if(subscriber != null && !subscribers.contains(subscriber)) {
-            subscribers.add(subscriber);
+        if(subscriber == null) {
+            return;
+        }
+        synchronized (wildcardLock) {
+            wildcardSubscribers = append(wildcardSubscribers, subscriber);
+        }
+    }
+    /**
+     * 只接收指定会话的消息
+     */
+    public void subscribe(String conversationId, MessageSubscriber subscriber) {
+        if(conversationId == null || subscriber == null) {
+            return;
         }
+        conversationSubscribers.compute(conversationId, (key, current) ->
+                append(current == null ? EMPTY : current, subscriber));
     }
+    /**
+     * 取消该订阅者的全部订阅（通配及所有会话）
+     */
     public void unsubscribe(MessageSubscriber subscriber) {
-        if(subscriber != null) {
-            subscribers.remove(subscriber);
+        if(subscriber == null) {
+            return;
         }
+        synchronized (wildcardLock) {
+            wildcardSubscribers = remove(wildcardSubscribers, subscriber);
+        }
+        for(String conversationId : conversationSubscribers.keySet()) {
+            unsubscribe(conversationId, subscriber);
+        }
+    }
+    public void unsubscribe(String conversationId, MessageSubscriber subscriber) {
+        if(conversationId == null || subscriber == null) {
+            return;
+        }
+        conversationSubscribers.computeIfPresent(conversationId, (key, current) -> {
+            MessageSubscriber[] next = remove(current, subscriber);
+            return next.length == 0 ? null : next;
+        });
+    }
+    /**
+     * 开启/关闭主线程合帧投递。关闭后每条消息单独 post 到主线程
+     */
+    public void setCoalescingEnabled(boolean enabled) {
+        coalescingEnabled = enabled;
     }
     public void dispatch(MessageEntity message) {
-        if(message == null || subscribers.isEmpty()) {
+        if(message == null) {
             return;
         }
+        deliver(wildcardSubscribers, message);
+        MessageSubscriber[] subscribers = conversationSubscribers.get(message.getConversationId());
+        if(subscribers != null) {
+            deliver(subscribers, message);
+        }
+    }
+    /**
+     * 批量分发：每个订阅者只收到一次 onMessagesReceived，列表内保持原顺序
+     */
+    public void dispatch(List<MessageEntity> messages) {
+        if(messages == null || messages.isEmpty()) {
+            return;
+        }
+        Map<MessageSubscriber, List<MessageEntity>> grouped = new LinkedHashMap<>();
+        MessageSubscriber[] wildcards = wildcardSubscribers;
+        for(MessageEntity message : messages) {
+            for(MessageSubscriber subscriber : wildcards) {
+                group(grouped, subscriber, message);
+            }
+            MessageSubscriber[] subscribers = conversationSubscribers.get(message.getConversationId());
+            if(subscribers != null) {
+                for(MessageSubscriber subscriber : subscribers) {
+                    group(grouped, subscriber, message);
+                }
+            }
+        }
+        for(Map.Entry<MessageSubscriber, List<MessageEntity>> entry : grouped.entrySet()) {
+            MessageSubscriber subscriber = entry.getKey();
+            List<MessageEntity> batch = entry.getValue();
+            if(!subscriber.needMainThread()) {
+                subscriber.onMessagesReceived(batch);
+            } else if(coalescingEnabled) {
+                enqueueForFrame(subscriber, batch);
+            } else {
+                mainHandler.post(() -> subscriber.onMessagesReceived(batch));
+            }
+        }
+    }
+    private void deliver(MessageSubscriber[] subscribers, MessageEntity message) {
         for (MessageSubscriber subscriber : subscribers) {
-            if(subscriber.needMainThread()) {
+            if(!subscriber.needMainThread()) {
+                subscriber.onMessageReceived(message);
+            } else if(coalescingEnabled) {
+                enqueueForFrame(subscriber, Collections.singletonList(message));
+            } else {
                 mainHandler.post(() -> subscriber.onMessageReceived(message));
+            }
+        }
+    }
+    private static void group(Map<MessageSubscriber, List<MessageEntity>> grouped,
+                              MessageSubscriber subscriber, MessageEntity message) {
+        List<MessageEntity> batch = grouped.get(subscriber);
+        if(batch == null) {
+            batch = new ArrayList<>();
+            grouped.put(subscriber, batch);
+        }
+        batch.add(message);
+    }
+
+    private void enqueueForFrame(MessageSubscriber subscriber, List<MessageEntity> messages) {
+        boolean schedule;
+        synchronized (frameLock) {
+            List<MessageEntity> pending = pendingFrameDeliveries.get(subscriber);
+            if(pending == null) {
+                pending = new ArrayList<>();
+                pendingFrameDeliveries.put(subscriber, pending);
+            }
+            pending.addAll(messages);
+            schedule = !frameScheduled;
+            frameScheduled = true;
+        }
+        if(schedule) {
+            // Choreographer 绑定线程，需在主线程获取
+            if(Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(frameCallback);
             } else {
-                subscriber.onMessageReceived(message);
+                mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameCallback));
             }
         }
     }
+    private void flushFrameDeliveries() {
+        Map<MessageSubscriber, List<MessageEntity>> deliveries;
+        synchronized (frameLock) {
+            deliveries = pendingFrameDeliveries;
+            pendingFrameDeliveries = new LinkedHashMap<>();
+            frameScheduled = false;
+        }
+        for(Map.Entry<MessageSubscriber, List<MessageEntity>> entry : deliveries.entrySet()) {
+            entry.getKey().onMessagesReceived(entry.getValue());
+        }
+    }
+
+    private static MessageSubscriber[] append(MessageSubscriber[] current, MessageSubscriber subscriber) {
+        for(MessageSubscriber existing : current) {
+            if(existing == subscriber) {
+                return current;
+            }
+        }
+        MessageSubscriber[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = subscriber;
+        return next;
+    }
+    private static MessageSubscriber[] remove(MessageSubscriber[] current, MessageSubscriber subscriber) {
+        for(int i = 0; i < current.length; i++) {
+            if(current[i] == subscriber) {
+                MessageSubscriber[] next = new MessageSubscriber[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                return next;
+            }
+        }
+        return current;
+    }
 
 
     public interface MessageSubscriber {
         void onMessageReceived(MessageEntity message);
         boolean needMainThread();
+        /**
+         * 批量/合帧投递入口，默认逐条转发给 onMessageReceived
+         */
+        default void onMessagesReceived(List<MessageEntity> messages) {
+            for(MessageEntity message : messages) {
+                onMessageReceived(message);
+            }
+        }
     }
 
 }
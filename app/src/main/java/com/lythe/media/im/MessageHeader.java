@@ -0,0 +1,53 @@
+package com.lythe.media.im;
+
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.protobuf.ImMessage;
+
+import java.io.IOException;
+
+/**
+ * 入站消息头
+ * 只包含路由、排序所需的字段，并引用原始payload区间；
+ * 内容(oneof)不解码，直到真正需要 MessageEntity 时才由 toEntity 完整解码一次。
+ */
+public final class MessageHeader {
+    public final String messageId;
+    public final String conversationId;
+    public final long serverMsgSeq;
+    public final long timestamp;
+    public final ImMessage.ContentCase contentCase;
+    // client_msg_id 的哈希，缺省时取 messageId 的哈希，见 MessageDeduplicator
+    public final long dedupKey;
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private MessageEntity entity;
+
+    MessageHeader(String messageId, String conversationId, long serverMsgSeq, long timestamp,
+                  ImMessage.ContentCase contentCase, long dedupKey, byte[] data, int offset, int length) {
+        this.messageId = messageId;
+        this.conversationId = conversationId;
+        this.serverMsgSeq = serverMsgSeq;
+        this.timestamp = timestamp;
+        this.contentCase = contentCase;
+        this.dedupKey = dedupKey;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * 完整解码，结果缓存；decoder 需属于调用线程
+     */
+    public MessageEntity toEntity(InboundMessageDecoder decoder) throws IOException {
+        if(entity == null) {
+            entity = decoder.decode(data, offset, length);
+        }
+        return entity;
+    }
+
+    public int getPayloadLength() {
+        return length;
+    }
+}
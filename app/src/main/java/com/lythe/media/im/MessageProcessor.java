@@ -8,25 +8,63 @@ import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.google.gson.Gson;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
 import com.lythe.media.chats.data.local.LocalMessageCache;
 import com.lythe.media.chats.data.local.RoomCache;
-import com.lythe.media.chats.data.entity.MessageConverter;
 import com.lythe.media.chats.data.entity.MessageEntity;
-import com.lythe.media.protobuf.ImMessage;
+import com.lythe.media.chats.data.local.dao.MessageDao;
+import com.lythe.media.chats.data.local.database.StorageEngine;
+import com.lythe.media.im.messager.compression.ContentCodec;
+import com.lythe.media.im.messager.dedup.MessageDeduplicator;
+import com.lythe.media.protobuf.MessageQuery;
+import com.lythe.nativelib.NativeCodec;
 
-import java.util.concurrent.ExecutorService;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 入站消息处理
+ * 按 conversation_id 哈希分条(stripe)，每条一个单线程：
+ * 同一会话严格有序，不同会话在多个核上并行解析、入库、分发
+ * 入库前按 serverMsgSeq 重排，发现缺口时只补拉缺失区间
+ * 路由、重排只使用消息头，内容在组提交时才完整解码
+ * 路由前按 client_msg_id 去重，重复消息不会被完整解码；
+ * 去重键在整批入库提交后才记录，解析/入库失败或被重排丢弃的消息重传时仍会被接收
+ */
 public class MessageProcessor {
     private static final String TAG = "MessageProcessor";
+    // 组提交：攒够条数或等待超时后整批入库，一个事务只落盘一次
+    private static final int INGEST_BATCH_SIZE = 100;
+    private static final long INGEST_LINGER_MS = 5;
+    private static final int STRIPE_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int FIELD_BATCH_MESSAGES = 1;     // BatchMessages.messages 与 MessageQueryResponse.messages
+    private static final int MAX_GAP_PULL = 200;
     private static volatile MessageProcessor instance;
-    private final ExecutorService processorExecutor = Executors.newSingleThreadExecutor();
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    // 到达线程上解码消息头，加锁防止多线程调用 processReceivedMessage
+    private final InboundMessageDecoder headerDecoder = new InboundMessageDecoder();
+    private final MessageDeduplicator inboundDedup = MessageDeduplicator.getInbound();
     private final MessageDispatcher dispatcher;
     private final LocalMessageCache localMessageCache;
+    private final StorageEngine storage;
+    private final MessageDao messageDao;
+    private final MqttClientManager mqttClientManager;
     private final Gson gson = new Gson();
     private MessageProcessor(Context context) {
         dispatcher = MessageDispatcher.getInstance();
         localMessageCache = new RoomCache(context);
+        storage = StorageEngine.Companion.getInstance(context);
+        messageDao = storage.getDatabase().messageDao();
+        mqttClientManager = MqttClientManager.getInstance(context);
+        for(int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(i);
+        }
     }
     public static MessageProcessor getInstance(Context context) {
         if(instance == null) {
@@ -39,56 +77,194 @@ public class MessageProcessor {
         return instance;
     }
 
+    /**
+     * 在调用线程上只解码消息头并投递到对应分条，完整解析在分条线程上进行
+     */
     public void processReceivedMessage(String topic, byte[] rawContent) {
-        processorExecutor.submit(() -> {
-            try {
-                if(!validateMessage(topic, rawContent)) {
-                    Log.e(TAG, "无效消息：topic=" + topic
-//                            + "，内容=" + rawContent
-                    );
-                    return ;
-                }
-                MessageEntity message = parseMessage(topic, rawContent);
-                if(message == null) {
-                    Log.e(TAG, "消息解析失败：" + rawContent);
-                    return ;
-                }
-                saveMessageToLocal(message);
-                dispatchMessage(message);
-            } catch (Exception e) {
-                Log.e(TAG, "消息处理异常", e);
-            }
-        });
-    }
-    private void saveMessageToLocal(MessageEntity message) {
+        if(!validateMessage(topic, rawContent)) {
+            Log.e(TAG, "无效消息：topic=" + topic
+//                    + "，内容=" + rawContent
+            );
+            return ;
+        }
         try {
-            //插入数据库
-            localMessageCache.saveMessageToCache(message);
+            if(topic.endsWith(MqttClientManager.BATCH_TOPIC_SUFFIX)
+                    || topic.endsWith(MqttClientManager.SYNC_TOPIC_SUFFIX)) {
+                // 批量信封或补拉响应：逐条按会话路由，子消息不在此处解析
+                routeBatch(rawContent);
+                return ;
+            }
+            route(rawContent, 0, rawContent.length);
         } catch (Exception e) {
-            Log.e(TAG, "消息存储失败", e);
+            Log.e(TAG, "消息处理异常", e);
         }
     }
-    private void dispatchMessage(MessageEntity message) {
-        dispatcher.dispatch(message);
+    private void routeBatch(byte[] rawContent) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(rawContent);
+        int tag;
+        while((tag = input.readTag()) != 0) {
+            if(WireFormat.getTagFieldNumber(tag) == FIELD_BATCH_MESSAGES
+                    && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int length = input.readRawVarint32();
+                route(rawContent, input.getTotalBytesRead(), length);
+                input.skipRawBytes(length);
+            } else {
+                input.skipField(tag);
+            }
+        }
     }
+    private void route(byte[] raw, int offset, int length) throws IOException {
+        MessageHeader header;
+        synchronized (headerDecoder) {
+            header = headerDecoder.decodeHeader(raw, offset, length);
+        }
+        if(inboundDedup.contains(header.dedupKey)) {
+            // 重传或补拉重叠的消息，不进入重排和入库
+            Log.d(TAG, "丢弃重复消息: " + header.messageId);
+            return;
+        }
+        Stripe stripe = stripeFor(header.conversationId);
+        stripe.executor.execute(() -> stripe.reorderBuffer.offer(header));
+    }
+    private Stripe stripeFor(String conversationKey) {
+        return stripes[(conversationKey.hashCode() & 0x7fffffff) % STRIPE_COUNT];
+    }
+
     private boolean validateMessage(String topic, byte[] rawContent) {
         return topic != null && !topic.trim().isEmpty()
                 && rawContent != null ;
     }
     public void release() {
-        processorExecutor.shutdown();
+        for(Stripe stripe : stripes) {
+            stripe.executor.execute(() -> {
+                stripe.reorderBuffer.flushAll();
+                stripe.flushIngest();
+            });
+            stripe.executor.shutdown();
+        }
     }
 
-    private MessageEntity parseMessage(String topic, byte[] rawContent) {
 
-        ImMessage imMessage = MessageConverter.INSTANCE.deserialize(rawContent);
-        MessageEntity messageEntity = MessageConverter.INSTANCE.fromProto(imMessage, false);
+    private long loadLastSeq(String conversationId) {
+        try {
+            Long seq = storage.read("message.maxSeq", () -> messageDao.getMaxServerMsgSeq(conversationId)).join();
+            return seq == null ? 0 : seq;
+        } catch (Exception e) {
+            Log.e(TAG, "读取会话seq失败: " + conversationId, e);
+            return 0;
+        }
+    }
+    /**
+     * 只补拉缺失区间：cursor 为每页前一条的seq，limit 为该页缺失条数
+     * 上报缺口时重排缓冲已越过整个区间，不会再次上报，超过 MAX_GAP_PULL 的缺口在这里一次分页请求完
+     */
+    private void requestGap(String conversationId, long fromSeq, long toSeq) {
+        for(long pageFrom = fromSeq; pageFrom <= toSeq; pageFrom += MAX_GAP_PULL) {
+            MessageQuery.Builder query = MessageQuery.newBuilder()
+                    .setConversationId(conversationId)
+                    .setCursor(String.valueOf(pageFrom - 1))
+                    .setLimit((int) Math.min(toSeq - pageFrom + 1, MAX_GAP_PULL))
+                    .addAcceptCodecs(ContentCodec.CODEC_DEFLATE)
+                    .addAcceptCodecs(ContentCodec.CODEC_DEFLATE_DICT_V1);
+            // 补拉是批量历史，压缩率优先：native 库可用时允许服务端用 Zstd
+            if(NativeCodec.isAvailable()) {
+                query.addAcceptCodecs(ContentCodec.CODEC_ZSTD);
+            }
+            if(!mqttClientManager.requestMessages(query.build())) {
+                // 未连接，后续分页同样发不出
+                Log.w(TAG, "补拉中断: " + conversationId + " " + pageFrom + ".." + toSeq);
+                return;
+            }
+        }
+    }
 
-        Log.d(TAG, "收到聊天消息: "
-                + messageEntity.getMsgId()
-                + ", 发送者: " );
+    /**
+     * 一个分条：单线程保证会话内顺序，重排与组提交状态只在本线程访问
+     */
+    private final class Stripe {
+        final ScheduledExecutorService executor;
+        final SeqReorderBuffer reorderBuffer;
+        // 直接从payload解码为MessageEntity，复用读取状态和字符串驻留表
+        private final InboundMessageDecoder decoder = new InboundMessageDecoder();
+        private final List<MessageHeader> pendingIngest = new ArrayList<>();
+        private ScheduledFuture<?> ingestFlushFuture;
 
+        Stripe(int index) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MessageProcessor-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+            reorderBuffer = new SeqReorderBuffer(executor,
+                    MessageProcessor.this::loadLastSeq,
+                    this::handleMessage,
+                    MessageProcessor.this::requestGap);
+        }
 
-        return messageEntity;
+        private void handleMessage(MessageHeader header) {
+            // 路由时只检查未记录：原消息尚在入库途中时到达的重传，在这里按已提交批次和本批再查一次
+            if(inboundDedup.isRecorded(header.dedupKey) || isPending(header.dedupKey)) {
+                Log.d(TAG, "丢弃重复消息: " + header.messageId);
+                return;
+            }
+            pendingIngest.add(header);
+            if(pendingIngest.size() >= INGEST_BATCH_SIZE) {
+                flushIngest();
+            } else if(ingestFlushFuture == null) {
+                ingestFlushFuture = executor.schedule(this::flushIngest, INGEST_LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        private boolean isPending(long dedupKey) {
+            for(MessageHeader pending : pendingIngest) {
+                if(pending.dedupKey == dedupKey) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        /**
+         * 整批完整解码并入库，提交成功后记录去重键并统一分发；
+         * 解析失败的消息和入库失败的整批都不记录，等待重传或补拉
+         */
+        void flushIngest() {
+            if(ingestFlushFuture != null) {
+                ingestFlushFuture.cancel(false);
+                ingestFlushFuture = null;
+            }
+            if(pendingIngest.isEmpty()) {
+                return;
+            }
+            List<MessageEntity> batch = new ArrayList<>(pendingIngest.size());
+            long[] dedupKeys = new long[pendingIngest.size()];
+            for(MessageHeader header : pendingIngest) {
+                try {
+                    batch.add(header.toEntity(decoder));
+                    dedupKeys[batch.size() - 1] = header.dedupKey;
+                } catch (Exception e) {
+                    Log.e(TAG, "消息解析失败: " + header.messageId, e);
+                }
+            }
+            pendingIngest.clear();
+            if(!saveMessagesToLocal(batch)) {
+                return;
+            }
+            for(int i = 0; i < batch.size(); i++) {
+                inboundDedup.record(dedupKeys[i]);
+            }
+            dispatchMessages(batch);
+        }
+    }
+    private boolean saveMessagesToLocal(List<MessageEntity> messages) {
+        try {
+            //插入数据库
+            localMessageCache.saveMessagesToCache(messages);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "消息存储失败", e);
+            return false;
+        }
+    }
+    private void dispatchMessages(List<MessageEntity> messages) {
+        dispatcher.dispatch(messages);
     }
 }
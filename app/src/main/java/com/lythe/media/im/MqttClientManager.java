@@ -1,27 +1,43 @@
 package com.lythe.media.im;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
 
 import com.lythe.media.chats.data.entity.MessageConverter;
 import com.lythe.media.chats.data.repository.base.BaseRemoteRepository;
+import com.lythe.media.protobuf.BatchMessages;
 import com.lythe.media.protobuf.ImMessage;
+import com.lythe.media.protobuf.MessageQuery;
 
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
-
+import org.eclipse.paho.client.mqttv3.MqttToken;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -35,9 +51,44 @@ public class MqttClientManager {
     private ScheduledExecutorService reconnectExecutor;
     private final AtomicInteger reconnectAttempts = new AtomicInteger(0);
     private static final int MAX_RECONNECT_ATTEMPT = 10;
+    private static final int MAX_INFLIGHT = 100;
     private OnMqttStatusListener onMqttStatusListener;
     // pending callbacks keyed by messageId (userContext)
     private final ConcurrentHashMap<String, Callback> pendingSendCallbacks = new ConcurrentHashMap<>();
+    // 已交给Paho的QoS1/2消息，原始PUBLISH在持久化中，断线后由Paho续发，不能按失败交给队列重发
+    private final Set<String> persistedSends = ConcurrentHashMap.newKeySet();
+    // disconnect时挂起的persistedSends回调，重建客户端从持久化恢复出同一msgId后重新挂上
+    private final ConcurrentHashMap<String, Callback> parkedSendCallbacks = new ConcurrentHashMap<>();
+
+    // 批量发送：BatchMessages 包发布到 topic + BATCH_TOPIC_SUFFIX，接收端据此拆包
+    // 默认关闭，需接收端都已订阅 /batch 主题后由 setBatchingEnabled 打开
+    public static final String BATCH_TOPIC_SUFFIX = "/batch";
+    private static final long BATCH_LINGER_MS = 20;
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final String BATCH_CONTEXT_PREFIX = "batch-";
+    private volatile boolean batchingEnabled = false;
+    private ScheduledExecutorService batchExecutor;
+    // 正在攒批的消息，按topic分组
+    private final Map<String, PendingBatch> pendingBatches = new HashMap<>();
+    // 已发布的批次，deliveryComplete时据此扇出回调
+    private final PublishedBatches publishedBatches = new PublishedBatches(BATCH_CONTEXT_PREFIX);
+
+    // 缺口补拉：MessageQuery 发布到 SYNC_REQUEST_TOPIC，服务端把 MessageQueryResponse 回到 chat/<uid> + SYNC_TOPIC_SUFFIX
+    public static final String SYNC_REQUEST_TOPIC = "sync/request";
+    public static final String SYNC_TOPIC_SUFFIX = "/sync";
+    private static final String SYNC_CONTEXT_PREFIX = "sync-";
+
+    private static final String PREFS_NAME = "mqtt_client";
+    private static final String KEY_CLIENT_ID = "client_id";
+    private static final String PERSISTENCE_DIR = "mqtt";
+    // Paho ClientState 保存已发出、未确认的QoS1/2 PUBLISH时用的键前缀，后接包序号
+    private static final String PERSISTENCE_SENT_PREFIX = "s-";
+    private MappedFilePersistence persistence;
+    private static final int RESUMED_PENDING = 0;
+    private static final int RESUMED_DELIVERED = 1;
+    private static final int RESUMED_FAILED = 2;
+    // 上次进程遗留、由Paho从持久化恢复并在重连后续发的消息：msgId -> 投递状态
+    private final ConcurrentHashMap<String, Integer> resumedDeliveries = new ConcurrentHashMap<>();
 
     private enum ConnectionState {
         DISCONNECTED, CONNECTING, CONNECTED, RECONNECTING
@@ -62,12 +113,13 @@ public class MqttClientManager {
         // 初始化MQTT服务器地址
 //        brokerUrl = "tcp://172.28.230.2:1883";
         brokerUrl = "tcp://192.168.156.180:1883";
-        // 生成唯一客户端ID
-        clientId = "android-client-" + System.currentTimeMillis();
+        // 客户端ID需跨进程稳定，Paho按clientId恢复持久化的inflight消息
+        clientId = loadClientId(context);
 
         //配置连接选项
         connectOptions = new MqttConnectOptions();
-        connectOptions.setCleanSession(true);
+        // 保留会话，重连后由Paho续发持久化中的QoS1/2消息
+        connectOptions.setCleanSession(false);
         // 如果需要认证，添加用户名和密码
         // connectOptions.setUserName("username");
         // connectOptions.setPassword("password".toCharArray());
@@ -75,7 +127,7 @@ public class MqttClientManager {
         connectOptions.setConnectionTimeout(10);
         // 设置心跳间隔
         connectOptions.setKeepAliveInterval(60);
-        connectOptions.setMaxInflight(100);
+        connectOptions.setMaxInflight(MAX_INFLIGHT);
     }
 
     public void connect(String username, String password) {
@@ -131,67 +183,7 @@ public class MqttClientManager {
                     }
                 }
             };
-            if(mqttClient == null) {
-                mqttClient = new MqttAsyncClient(brokerUrl, clientId, new MemoryPersistence());
-                mqttClient.setCallback(new MqttCallback() {
-                    @Override
-                    public void connectionLost(Throwable cause) {
-                        Log.e(TAG, "Connection lost: " + cause.getMessage());
-                        connectionState = ConnectionState.DISCONNECTED;
-                        if(onMqttStatusListener != null) {
-                            onMqttStatusListener.onConnectLost(cause.getMessage());
-                        }
-                        //连接丢失时启动重连
-                        startReconnectTask();
-                    }
-
-                    @Override
-                    public void messageArrived(String topic, MqttMessage message) throws Exception {
-                        Log.d(TAG, "Message arrived - Topic: " + topic + ", Content: " + new String(message.getPayload()));
-                        if(onMqttStatusListener != null) {
-                            onMqttStatusListener.onMessageArrived(topic, message);
-                        }
-
-                    }
-
-                    @Override
-                    public void deliveryComplete(IMqttDeliveryToken token) {
-                        Log.d(TAG, "消息发送完成");
-                        try {
-                            boolean isSuccess = token != null && token.isComplete();
-                            Object userCtxObj = token != null ? token.getUserContext() : null;
-                            // userContext = msgId
-                            String userContext = null;
-                            if (userCtxObj instanceof String) {
-                                userContext = (String) userCtxObj;
-                            } else if (userCtxObj != null) {
-                                userContext = userCtxObj.toString();
-                            }
-                            Log.d(TAG, "Message delivery complete - Success: " + isSuccess + ", Context: " + userContext);
-
-                            if (userContext != null) {
-                                Callback cb = pendingSendCallbacks.remove(userContext);
-                                if (cb != null) {
-                                    try {
-                                        if (isSuccess) cb.onSendSuccess();
-                                        else cb.onSendFailed();
-                                    } catch (Exception ignore) {}
-                                }
-                            }
-
-                            if(onMqttStatusListener != null) {
-                                if(isSuccess) {
-                                    onMqttStatusListener.onMessageSendSuccess(userContext);
-                                } else {
-                                    onMqttStatusListener.onMessageSendFailed(userContext, "发送完成但未确认");
-                                }
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error in deliveryComplete callback", e);
-                        }
-                    }
-                });
-            }
+            ensureClient();
             if(mqttClient.isConnected()) {
                 mqttClient.disconnect();
             }
@@ -205,6 +197,213 @@ public class MqttClientManager {
             startReconnectTask(3000);
         }
     }
+    private synchronized void ensureClient() throws MqttException {
+        if(mqttClient != null) {
+            return;
+        }
+        persistence = new MappedFilePersistence(new File(appContext.getFilesDir(), PERSISTENCE_DIR));
+        // Paho构造时打开持久化恢复ClientState后随即关闭，直到connect才重新打开；
+        // 恢复token需要的原始PUBLISH必须在构造之前取出
+        Map<String, MqttPublish> persisted = readSentPublishes(persistence, clientId, brokerUrl);
+        mqttClient = new MqttAsyncClient(brokerUrl, clientId, persistence);
+        mqttClient.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                Log.e(TAG, "Connection lost: " + cause.getMessage());
+                connectionState = ConnectionState.DISCONNECTED;
+                if(onMqttStatusListener != null) {
+                    onMqttStatusListener.onConnectLost(cause.getMessage());
+                }
+                //连接丢失时启动重连
+                startReconnectTask();
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) throws Exception {
+                // 不把payload解码成字符串打日志：二进制protobuf无可读内容，且每条消息都会多一次分配
+                Log.d(TAG, "Message arrived - Topic: " + topic + ", bytes: " + message.getPayload().length);
+                if(onMqttStatusListener != null) {
+                    onMqttStatusListener.onMessageArrived(topic, message);
+                }
+
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                Log.d(TAG, "消息发送完成");
+                try {
+                    boolean isSuccess = token != null && token.isComplete();
+                    Object userCtxObj = token != null ? token.getUserContext() : null;
+                    // userContext = msgId
+                    String userContext = null;
+                    if (userCtxObj instanceof String) {
+                        userContext = (String) userCtxObj;
+                    } else if (userCtxObj != null) {
+                        userContext = userCtxObj.toString();
+                    }
+                    Log.d(TAG, "Message delivery complete - Success: " + isSuccess + ", Context: " + userContext);
+
+                    if (userContext != null && userContext.startsWith(SYNC_CONTEXT_PREFIX)) {
+                        return;
+                    }
+                    if (userContext != null) {
+                        if (!publishedBatches.complete(userContext, isSuccess, "发送完成但未确认",
+                                MqttClientManager.this::completeSend)) {
+                            completeSend(userContext, isSuccess, "发送完成但未确认");
+                        }
+                    } else if(onMqttStatusListener != null) {
+                        if(isSuccess) {
+                            onMqttStatusListener.onMessageSendSuccess(null);
+                        } else {
+                            onMqttStatusListener.onMessageSendFailed(null, "发送完成但未确认");
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error in deliveryComplete callback", e);
+                }
+            }
+        });
+        restoreResumedDeliveries(persisted);
+    }
+
+    /**
+     * Paho构造时已从持久化恢复了上次未完成的投递，这些token没有userContext，也不带消息内容，
+     * 只能按包序号从持久化取回原始PUBLISH，解析出msgId补上，deliveryComplete时才能找到对应回调。
+     * disconnect时挂起的回调在这里直接挂回；持久化中已不存在的说明投递已结束但结果未知，按失败通知
+     */
+    private void restoreResumedDeliveries(Map<String, MqttPublish> persisted) {
+        IMqttDeliveryToken[] tokens = mqttClient.getPendingDeliveryTokens();
+        if (tokens == null) {
+            tokens = new IMqttDeliveryToken[0];
+        }
+        for (IMqttDeliveryToken token : tokens) {
+            try {
+                MqttPublish publish = persisted.get(tokenKey(token));
+                if (publish == null) {
+                    Log.w(TAG, "No persisted publish for restored token: key=" + tokenKey(token));
+                    continue;
+                }
+                byte[] payload = publish.getMessage().getPayload();
+                if (publish.getTopicName().endsWith(BATCH_TOPIC_SUFFIX)) {
+                    List<String> msgIds = new ArrayList<>();
+                    for (ImMessage imMessage : BatchMessages.parseFrom(payload).getMessagesList()) {
+                        msgIds.add(imMessage.getMessageId());
+                        resumeDelivery(imMessage.getMessageId());
+                    }
+                    token.setUserContext(publishedBatches.register(msgIds));
+                } else {
+                    String msgId = MessageConverter.INSTANCE.deserialize(payload).getMessageId();
+                    resumeDelivery(msgId);
+                    token.setUserContext(msgId);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to restore pending delivery token", e);
+            }
+        }
+        for (String msgId : parkedSendCallbacks.keySet()) {
+            Callback cb = parkedSendCallbacks.remove(msgId);
+            persistedSends.remove(msgId);
+            if (cb != null) {
+                Log.w(TAG, "Parked send not found in persistence: msgId=" + msgId);
+                try { cb.onSendFailed(); } catch (Exception ignore) {}
+            }
+        }
+        Log.i(TAG, "Restored " + tokens.length + " inflight publishes from persistence, "
+                + resumedDeliveries.size() + " awaiting attach");
+    }
+
+    private void resumeDelivery(String msgId) {
+        Callback parked = parkedSendCallbacks.remove(msgId);
+        if (parked != null) {
+            persistedSends.add(msgId);
+            pendingSendCallbacks.put(msgId, parked);
+        } else {
+            resumedDeliveries.put(msgId, RESUMED_PENDING);
+        }
+    }
+
+    /**
+     * 持久化中所有已发出未确认的PUBLISH：包序号 -> 消息
+     * 以与Paho相同的clientId、serverURI打开持久化，Paho构造时的open随之成为空操作；
+     * 返回的是解析出的副本，Paho随后关闭持久化不影响结果
+     */
+    static Map<String, MqttPublish> readSentPublishes(MqttClientPersistence persistence,
+                                                      String clientId, String serverURI) {
+        Map<String, MqttPublish> publishes = new HashMap<>();
+        try {
+            persistence.open(clientId, serverURI);
+            Enumeration<?> keys = persistence.keys();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                if (!key.startsWith(PERSISTENCE_SENT_PREFIX)) {
+                    continue;
+                }
+                try {
+                    MqttWireMessage wireMessage = MqttWireMessage.createWireMessage(persistence.get(key));
+                    if (wireMessage instanceof MqttPublish) {
+                        publishes.put(key.substring(PERSISTENCE_SENT_PREFIX.length()), (MqttPublish) wireMessage);
+                    }
+                } catch (MqttException e) {
+                    Log.e(TAG, "Corrupt persisted publish: key=" + key, e);
+                }
+            }
+        } catch (MqttException e) {
+            Log.e(TAG, "Failed to read MQTT persistence", e);
+        }
+        return publishes;
+    }
+
+    /**
+     * 恢复的token未分配messageId，包序号只记录在内部token的key上
+     */
+    static String tokenKey(IMqttDeliveryToken token) {
+        if (token.getMessageId() != 0) {
+            return Integer.toString(token.getMessageId());
+        }
+        return token instanceof MqttToken ? ((MqttToken) token).internalTok.getKey() : null;
+    }
+
+    /**
+     * 若msgId属于从持久化恢复的inflight消息，则挂上回调并返回true，
+     * 调用方无需再次入队发送，Paho会在重连后续发
+     */
+    public boolean attachResumedDelivery(String msgId, Callback callback) {
+        try {
+            ensureClient();
+        } catch (MqttException e) {
+            Log.e(TAG, "Failed to create MQTT client for resumed deliveries", e);
+            return false;
+        }
+        if (!resumedDeliveries.containsKey(msgId)) {
+            return false;
+        }
+        persistedSends.add(msgId);
+        pendingSendCallbacks.put(msgId, callback);
+        // 回调挂上之前投递可能已经完成
+        Integer state = resumedDeliveries.get(msgId);
+        if (state == null || state != RESUMED_PENDING) {
+            resumedDeliveries.remove(msgId);
+            Callback cb = pendingSendCallbacks.remove(msgId);
+            if (cb != null) {
+                try {
+                    if (state != null && state == RESUMED_DELIVERED) cb.onSendSuccess();
+                    else cb.onSendFailed();
+                } catch (Exception ignore) {}
+            }
+        }
+        return true;
+    }
+
+    private static String loadClientId(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String id = prefs.getString(KEY_CLIENT_ID, null);
+        if (id == null) {
+            id = "android-client-" + UUID.randomUUID();
+            prefs.edit().putString(KEY_CLIENT_ID, id).apply();
+        }
+        return id;
+    }
+
     public void sendMessage(String topic, ImMessage payload, int qos, Callback callback) {
 //        if(!isConnected()) {
 //            Log.w(TAG, "MQTT not connected, cannot send message: msgId=" + payload.getMessageId());
@@ -224,49 +423,237 @@ public class MqttClientManager {
                 return;
             }
 
-            MqttMessage message = new MqttMessage();
-            message.setPayload(MessageConverter.INSTANCE.serialize(payload));
-            message.setQos(qos);
-            message.setRetained(false);
+            if (batchingEnabled && isBatchTopic(topic)) {
+                enqueueBatch(topic, payload, qos, callback);
+                return;
+            }
 
             // register callback BEFORE publishing to avoid race with deliveryComplete
             String msgId = payload.getMessageId();
             pendingSendCallbacks.put(msgId, callback);
+            publish(topic, MessageConverter.INSTANCE.serialize(payload), qos, msgId,
+                    Collections.singletonList(msgId));
 
-            mqttClient.publish(topic, message, msgId, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken asyncActionToken) {
-                    // publish request accepted by client library; final delivery will be signaled in deliveryComplete
-                    Log.d(TAG, "Message publish request accepted: msgId=" + msgId);
+        } catch (Exception e) {
+            Log.e(TAG, "Message send exception: msgId=" + payload.getMessageId(), e);
+            // ensure pending callback removed
+            failSend(payload.getMessageId(), e);
+        }
+    }
+
+    /**
+     * 发送补拉请求。QoS 0 不进持久化，丢失后由下一次缺口检测重新发起
+     * @return 未连接时返回false
+     */
+    public boolean requestMessages(MessageQuery query) {
+        if (mqttClient == null || !mqttClient.isConnected()) {
+            Log.w(TAG, "MQTT not connected, skip sync request: conversation=" + query.getConversationId());
+            return false;
+        }
+        try {
+            MqttMessage message = new MqttMessage(query.toByteArray());
+            message.setQos(0);
+            message.setRetained(false);
+            mqttClient.publish(SYNC_REQUEST_TOPIC, message,
+                    SYNC_CONTEXT_PREFIX + query.getConversationId(), null);
+            Log.d(TAG, "Sync requested: conversation=" + query.getConversationId()
+                    + ", cursor=" + query.getCursor() + ", limit=" + query.getLimit());
+            return true;
+        } catch (MqttException e) {
+            Log.e(TAG, "Sync request failed: conversation=" + query.getConversationId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 开启/关闭批量发送。开启后同一topic的消息会在 BATCH_LINGER_MS 内或攒满 MAX_BATCH_SIZE 条后
+     * 打包成一个 BatchMessages 发布，占用一个inflight窗口和一次deliveryComplete。
+     */
+    public void setBatchingEnabled(boolean enabled) {
+        batchingEnabled = enabled;
+        if (!enabled) {
+            flushAllBatches();
+        }
+    }
+
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    /**
+     * 只有接收端同时订阅了 topic + BATCH_TOPIC_SUFFIX 的聊天主题才能打包，
+     * 与 MqttForegroundService 订阅的 chat/<uid>、group/chat 对应；其余主题照常逐条发布
+     */
+    public static boolean isBatchTopic(String topic) {
+        return topic != null && (topic.startsWith("chat/") || topic.equals("group/chat"))
+                && !topic.endsWith(BATCH_TOPIC_SUFFIX) && !topic.endsWith(SYNC_TOPIC_SUFFIX);
+    }
+
+    private void enqueueBatch(String topic, ImMessage payload, int qos, Callback callback) {
+        pendingSendCallbacks.put(payload.getMessageId(), callback);
+        PendingBatch ready = null;
+        synchronized (pendingBatches) {
+            PendingBatch batch = pendingBatches.get(topic);
+            if (batch == null) {
+                batch = new PendingBatch(topic);
+                pendingBatches.put(topic, batch);
+                batch.lingerTask = getBatchExecutor().schedule(() -> flushBatch(topic),
+                        BATCH_LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+            batch.add(payload, qos);
+            if (batch.messages.size() >= MAX_BATCH_SIZE) {
+                pendingBatches.remove(topic);
+                batch.lingerTask.cancel(false);
+                ready = batch;
+            }
+        }
+        if (ready != null) {
+            publishBatch(ready);
+        }
+    }
+
+    private void flushBatch(String topic) {
+        PendingBatch batch;
+        synchronized (pendingBatches) {
+            batch = pendingBatches.remove(topic);
+        }
+        if (batch != null) {
+            publishBatch(batch);
+        }
+    }
+
+    private void flushAllBatches() {
+        List<PendingBatch> batches;
+        synchronized (pendingBatches) {
+            batches = new ArrayList<>(pendingBatches.values());
+            pendingBatches.clear();
+        }
+        for (PendingBatch batch : batches) {
+            if (batch.lingerTask != null) {
+                batch.lingerTask.cancel(false);
+            }
+            publishBatch(batch);
+        }
+    }
+
+    private void publishBatch(PendingBatch batch) {
+        List<String> msgIds = batch.messageIds();
+        try {
+            if (mqttClient == null || !mqttClient.isConnected()) {
+                Log.w(TAG, "MQTT not connected, drop batch of " + msgIds.size() + " on topic " + batch.topic);
+                for (String msgId : msgIds) {
+                    completeSend(msgId, false, "MQTT not connected");
                 }
+                connect();
+                return;
+            }
+            // 单条消息不套信封，保持与非批量模式相同的线上格式
+            if (batch.messages.size() == 1) {
+                String msgId = msgIds.get(0);
+                publish(batch.topic, MessageConverter.INSTANCE.serialize(batch.messages.get(0)),
+                        batch.qos, msgId, msgIds);
+                return;
+            }
+            byte[] payload = BatchMessages.newBuilder()
+                    .addAllMessages(batch.messages)
+                    .setTotalCount(batch.messages.size())
+                    .build()
+                    .toByteArray();
+            String batchContext = publishedBatches.register(msgIds);
+            Log.d(TAG, "Publishing batch " + batchContext + ": " + msgIds.size() + " messages, topic=" + batch.topic);
+            publish(batch.topic + BATCH_TOPIC_SUFFIX, payload, batch.qos, batchContext, msgIds);
+        } catch (Exception e) {
+            Log.e(TAG, "Batch send exception: topic=" + batch.topic, e);
+            // 倒序回调，使被推迟的消息重新排队后保持原顺序
+            for (int i = msgIds.size() - 1; i >= 0; i--) {
+                failSend(msgIds.get(i), e);
+            }
+        }
+    }
 
-                @Override
-                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    String errorMsg = exception != null ? exception.getMessage() : "unknown";
-                    Log.e(TAG, "Message publish request failed: msgId=" + msgId, exception);
-                    // remove pending callback and notify failure
-                    Callback cb = pendingSendCallbacks.remove(msgId);
-                    if (cb != null) {
-                        try { cb.onSendFailed(); } catch (Exception ignore) {}
-                    }
-                    if (onMqttStatusListener != null) {
-                        onMqttStatusListener.onMessageSendFailed(msgId, errorMsg);
-                    }
+    private void publish(String topic, byte[] payload, int qos, String userContext, List<String> msgIds) throws MqttException {
+        MqttMessage message = new MqttMessage();
+        message.setPayload(payload);
+        message.setQos(qos);
+        message.setRetained(false);
+        if (qos > 0) {
+            persistedSends.addAll(msgIds);
+        }
+
+        mqttClient.publish(topic, message, userContext, new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                // publish request accepted by client library; final delivery will be signaled in deliveryComplete
+                Log.d(TAG, "Message publish request accepted: context=" + userContext);
+            }
+
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                String errorMsg = exception != null ? exception.getMessage() : "unknown";
+                Log.e(TAG, "Message publish request failed: context=" + userContext, exception);
+                // 断线时Paho让未确认的token以失败结束，但PUBLISH仍在持久化中，重连后续发并走deliveryComplete
+                if (persistedSends.containsAll(msgIds)) {
+                    return;
                 }
-            });
+                publishedBatches.discard(userContext);
+                for (String msgId : msgIds) {
+                    completeSend(msgId, false, errorMsg);
+                }
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Message send exception: msgId=" + payload.getMessageId(), e);
-            // ensure pending callback removed
-            Callback cb = pendingSendCallbacks.remove(payload.getMessageId());
+    // Paho的inflight窗口已满属于拥塞而非发送失败，交由调用方延后重发
+    private void failSend(String msgId, Exception e) {
+        if (e instanceof MqttException
+                && ((MqttException) e).getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+            persistedSends.remove(msgId);
+            Callback cb = pendingSendCallbacks.remove(msgId);
             if (cb != null) {
-                try { cb.onSendFailed(); } catch (Exception ignore) {}
+                try { cb.onSendDeferred(); } catch (Exception ignore) {}
             }
-            if (onMqttStatusListener != null) {
-                onMqttStatusListener.onMessageSendFailed(payload.getMessageId(), e.getMessage());
+            return;
+        }
+        completeSend(msgId, false, e.getMessage());
+    }
+
+    // remove pending callback and notify listener
+    private void completeSend(String msgId, boolean success, String errorMsg) {
+        persistedSends.remove(msgId);
+        Callback cb = pendingSendCallbacks.remove(msgId);
+        if (cb == null) {
+            // disconnect挂起回调之后才到达的确认
+            cb = parkedSendCallbacks.remove(msgId);
+        }
+        if (cb == null) {
+            // 恢复的投递尚未有人认领，记下结果等attachResumedDelivery取走
+            resumedDeliveries.replace(msgId, RESUMED_PENDING, success ? RESUMED_DELIVERED : RESUMED_FAILED);
+        } else {
+            resumedDeliveries.remove(msgId);
+            try {
+                if (success) cb.onSendSuccess();
+                else cb.onSendFailed();
+            } catch (Exception ignore) {}
+        }
+        if (onMqttStatusListener != null) {
+            if (success) {
+                onMqttStatusListener.onMessageSendSuccess(msgId);
+            } else {
+                onMqttStatusListener.onMessageSendFailed(msgId, errorMsg);
             }
         }
     }
+
+    private synchronized ScheduledExecutorService getBatchExecutor() {
+        if (batchExecutor == null || batchExecutor.isShutdown()) {
+            batchExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MQTT-Batch-Thread");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return batchExecutor;
+    }
     private void startReconnectTask() {
         startReconnectTask(3000);
     }
@@ -390,10 +777,27 @@ public class MqttClientManager {
         cancelReconnectTask();
         connectionState = ConnectionState.DISCONNECTED;
         reconnectAttempts.set(0);
-        // notify pending send callbacks of failure when disconnecting
+        synchronized (pendingBatches) {
+            for (PendingBatch batch : pendingBatches.values()) {
+                if (batch.lingerTask != null) {
+                    batch.lingerTask.cancel(false);
+                }
+            }
+            pendingBatches.clear();
+        }
+        publishedBatches.clear();
+        // 客户端实例即将关闭，下次ensureClient会从持久化重新恢复
+        resumedDeliveries.clear();
+        // cleanSession=false，已持久化的QoS1/2消息由Paho在重连后续发，回调挂起待恢复时重新挂上；
+        // 其余（攒批中未发布、QoS 0）按失败通知，由队列重发
         for (String msgId : pendingSendCallbacks.keySet()) {
             Callback cb = pendingSendCallbacks.remove(msgId);
-            if (cb != null) {
+            if (cb == null) {
+                continue;
+            }
+            if (persistedSends.contains(msgId)) {
+                parkedSendCallbacks.put(msgId, cb);
+            } else {
                 try { cb.onSendFailed(); } catch (Exception ignore) {}
             }
         }
@@ -416,6 +820,21 @@ public class MqttClientManager {
                 mqttClient != null &&
                 mqttClient.isConnected();
     }
+    /**
+     * Paho中尚未完成的PUBLISH数（delivery token数），一个批次只占一个；
+     * 与 MAX_INFLIGHT 同口径，含已排队未发出和重连后续发的消息
+     */
+    public int getInflightCount() {
+        MqttAsyncClient client = mqttClient;
+        if (client == null) {
+            return 0;
+        }
+        IMqttDeliveryToken[] tokens = client.getPendingDeliveryTokens();
+        return tokens == null ? 0 : tokens.length;
+    }
+    public int getMaxInflight() {
+        return MAX_INFLIGHT;
+    }
     public ConnectionState getConnectionState() {
         return connectionState;
     }
@@ -434,9 +853,19 @@ public class MqttClientManager {
         this.onMqttStatusListener = null; // 清空引用以避免内存泄漏
     }
 
+    /**
+     * 挂起的QoS1/2回调随实例丢弃、不再通知；消息仍在Paho持久化和outbox中，
+     * 下次启动由队列从outbox恢复并经attachResumedDelivery认领
+     */
     public void release() {
         disconnect();
         removeOnMqttStatusListener();
+        synchronized (this) {
+            if (batchExecutor != null) {
+                batchExecutor.shutdownNow();
+                batchExecutor = null;
+            }
+        }
 
         instance = null;
     }
@@ -451,5 +880,34 @@ public class MqttClientManager {
     public interface Callback {
         void onSendSuccess();
         void onSendFailed();
+        // 因inflight窗口已满未能发出，默认按失败处理
+        default void onSendDeferred() {
+            onSendFailed();
+        }
+    }
+
+    private static class PendingBatch {
+        final String topic;
+        final List<ImMessage> messages = new ArrayList<>();
+        int qos = 0;
+        ScheduledFuture<?> lingerTask;
+
+        PendingBatch(String topic) {
+            this.topic = topic;
+        }
+
+        void add(ImMessage message, int messageQos) {
+            messages.add(message);
+            // 批次按批内最高QoS发布
+            qos = Math.max(qos, messageQos);
+        }
+
+        List<String> messageIds() {
+            List<String> ids = new ArrayList<>(messages.size());
+            for (ImMessage message : messages) {
+                ids.add(message.getMessageId());
+            }
+            return ids;
+        }
     }
 }
@@ -0,0 +1,60 @@
+package com.lythe.media.im;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已发布的批次：一个批次只对应一个Paho delivery token，userContext为批次标识，
+ * 投递结果按批内msgId逐条扇出
+ */
+final class PublishedBatches {
+
+    interface Completion {
+        void complete(String msgId, boolean success, String errorMsg);
+    }
+
+    private final String contextPrefix;
+    // batch userContext -> 批内msgId列表
+    private final ConcurrentHashMap<String, List<String>> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    PublishedBatches(String contextPrefix) {
+        this.contextPrefix = contextPrefix;
+    }
+
+    /**
+     * 登记批次，返回作为userContext的批次标识
+     */
+    String register(List<String> msgIds) {
+        String context = contextPrefix + sequence.incrementAndGet();
+        inflight.put(context, msgIds);
+        return context;
+    }
+
+    /**
+     * userContext是已登记的批次时，向批内每条消息扇出结果并返回true；否则返回false，由调用方按单条处理
+     */
+    boolean complete(String userContext, boolean success, String errorMsg, Completion completion) {
+        List<String> msgIds = inflight.remove(userContext);
+        if (msgIds == null) {
+            return false;
+        }
+        for (String msgId : msgIds) {
+            completion.complete(msgId, success, errorMsg);
+        }
+        return true;
+    }
+
+    void discard(String userContext) {
+        inflight.remove(userContext);
+    }
+
+    int size() {
+        return inflight.size();
+    }
+
+    void clear() {
+        inflight.clear();
+    }
+}
@@ -0,0 +1,154 @@
+package com.lythe.media.im;
+
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 serverMsgSeq 重排的会话级缓冲
+ * 1. 期望的下一条直接放行，并带出已缓冲的连续消息
+ * 2. 跳号的消息短暂缓冲，等待乱序到达的前序消息
+ * 3. 超时或缓冲过多仍未补齐时上报缺口 [fromSeq, toSeq]，并按序放行已缓冲的消息
+ * 只持有消息头，缓冲期间不做内容解码；缓冲中重复的seq直接丢弃
+ * 非线程安全：只在所属的单线程 executor 上调用
+ */
+final class SeqReorderBuffer {
+    private static final String TAG = "SeqReorderBuffer";
+    private static final long HOLD_TIMEOUT_MS = 300;
+    private static final int MAX_HELD_PER_CONVERSATION = 200;
+    private static final int MAX_TRACKED_CONVERSATIONS = 256;
+
+    interface SeqSource {
+        // 本地已存储的最大seq，没有返回0
+        long lastSeq(String conversationId);
+    }
+
+    interface Sink {
+        void emit(MessageHeader message);
+    }
+
+    interface GapListener {
+        void onGap(String conversationId, long fromSeq, long toSeq);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final SeqSource seqSource;
+    private final Sink sink;
+    private final GapListener gapListener;
+    // 最近活跃的会话状态，淘汰时跳过仍有缓冲的会话
+    private final Map<String, ConversationState> states = new LinkedHashMap<String, ConversationState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ConversationState> eldest) {
+            return size() > MAX_TRACKED_CONVERSATIONS && eldest.getValue().held.isEmpty();
+        }
+    };
+
+    SeqReorderBuffer(ScheduledExecutorService executor, SeqSource seqSource, Sink sink, GapListener gapListener) {
+        this.executor = executor;
+        this.seqSource = seqSource;
+        this.sink = sink;
+        this.gapListener = gapListener;
+    }
+
+    void offer(MessageHeader message) {
+        long seq = message.serverMsgSeq;
+        if(seq <= 0) {
+            // 没有服务端序号的消息（系统通知等）不参与重排
+            sink.emit(message);
+            return;
+        }
+        String conversationId = message.conversationId;
+        ConversationState state = states.get(conversationId);
+        if(state == null) {
+            state = new ConversationState(conversationId, seqSource.lastSeq(conversationId));
+            states.put(conversationId, state);
+        }
+        if(state.lastSeq == 0) {
+            // 本地没有历史，以第一条为基准
+            state.lastSeq = seq;
+            sink.emit(message);
+            return;
+        }
+        if(seq <= state.lastSeq) {
+            // 重复或补拉回来的旧消息，直接放行由入库去重
+            sink.emit(message);
+            return;
+        }
+        if(seq == state.lastSeq + 1) {
+            state.lastSeq = seq;
+            sink.emit(message);
+            drainContiguous(state);
+            return;
+        }
+        if(state.held.putIfAbsent(seq, message) != null) {
+            // 同一seq已在缓冲中（重传），丢弃且不会被完整解码
+            return;
+        }
+        if(state.held.size() >= MAX_HELD_PER_CONVERSATION) {
+            expire(state);
+        } else if(state.timeout == null) {
+            ConversationState target = state;
+            state.timeout = executor.schedule(() -> expire(target), HOLD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 放行所有缓冲中的消息，关闭前调用
+     */
+    void flushAll() {
+        for(ConversationState state : states.values()) {
+            if(!state.held.isEmpty()) {
+                expire(state);
+            }
+        }
+    }
+
+    private void drainContiguous(ConversationState state) {
+        MessageHeader next;
+        while((next = state.held.remove(state.lastSeq + 1)) != null) {
+            state.lastSeq++;
+            sink.emit(next);
+        }
+        if(state.held.isEmpty()) {
+            cancelTimeout(state);
+        }
+    }
+
+    private void expire(ConversationState state) {
+        cancelTimeout(state);
+        while(!state.held.isEmpty()) {
+            Map.Entry<Long, MessageHeader> entry = state.held.pollFirstEntry();
+            long seq = entry.getKey();
+            if(seq > state.lastSeq + 1) {
+                Log.w(TAG, "会话 " + state.conversationId + " 缺少 seq " + (state.lastSeq + 1) + ".." + (seq - 1));
+                gapListener.onGap(state.conversationId, state.lastSeq + 1, seq - 1);
+            }
+            state.lastSeq = seq;
+            sink.emit(entry.getValue());
+        }
+    }
+
+    private void cancelTimeout(ConversationState state) {
+        if(state.timeout != null) {
+            state.timeout.cancel(false);
+            state.timeout = null;
+        }
+    }
+
+    private static final class ConversationState {
+        final String conversationId;
+        final TreeMap<Long, MessageHeader> held = new TreeMap<>();
+        long lastSeq;
+        ScheduledFuture<?> timeout;
+
+        ConversationState(String conversationId, long lastSeq) {
+            this.conversationId = conversationId;
+            this.lastSeq = lastSeq;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.lythe.media.im.messager;
 
 import com.google.protobuf.ByteString;
+import com.lythe.media.im.messager.compression.MessageCompressor;
 import com.lythe.media.protobuf.ImConversationType;
 import com.lythe.media.protobuf.ImImageContent;
 import com.lythe.media.protobuf.ImMessage;
@@ -44,8 +45,8 @@ public final class MessageBuildHelper {
                 .setTimestamp(System.currentTimeMillis());
 
         if (useBytes) {
-            // 在这里你可以插入你真正的压缩/加密。
-            byte[] payload = raw; // 如果需要，替换为压缩/加密
+            // 带 codec 帧头的压缩字节，接收端由 ContentCodec 解码
+            byte[] payload = MessageCompressor.getInstance().compressBytes(raw);
             b.setContentType(ImMessageContentType.CONTENT_TEXT)
              .setContentBytes(ByteString.copyFrom(payload));
         } else {
@@ -1,5 +1,6 @@
 package com.lythe.media.im.messager;
 
+import com.lythe.media.im.messager.compression.ContentCodec;
 import com.lythe.media.protobuf.ImImageContent;
 import com.lythe.media.protobuf.ImMessage;
 import com.lythe.media.protobuf.ImMessageContentType;
@@ -14,13 +15,14 @@ import java.util.List;
  * Parser helper to unify ImMessage into a simple structure for UI/domain.
  * - Prefer parsing oneof first
  * - If CONTENT_NOT_SET and content_bytes present, decode by content_type
+ * - content_bytes are unwrapped by ContentCodec unless a custom decoder is given
  */
 public final class MessageParseHelper {
 
     private MessageParseHelper() {}
 
     public static ParsedMessage parse(ImMessage msg, ContentDecoder decoder) {
-        if (decoder == null) decoder = ContentDecoder.NOOP;
+        if (decoder == null) decoder = ContentDecoder.DEFAULT;
 
         ParsedMessage p = new ParsedMessage();
         p.messageId = msg.getMessageId();
@@ -98,6 +100,8 @@ public final class MessageParseHelper {
 
     public interface ContentDecoder {
         ContentDecoder NOOP = bytes -> bytes;
+        // Decodes ContentCodec frames; bytes without a codec header pass through unchanged
+        ContentDecoder DEFAULT = bytes -> ContentCodec.getInstance().decodeLenient(bytes);
         byte[] decode(byte[] bytes);
     }
 
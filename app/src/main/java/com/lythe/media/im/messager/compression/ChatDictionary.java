@@ -0,0 +1,31 @@
+package com.lythe.media.im.messager.compression;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * deflate 预置字典
+ * 取自聊天文本中高频出现的短语和标点，越常用的越靠后（deflate 回溯距离更短）。
+ * 字典内容一经发布不可修改：更新字典需新增版本并分配新的 codec。
+ */
+final class ChatDictionary {
+    static final byte[] V1 = (
+            "https://http://www..com.cn/.png.jpg.mp4.pdf"
+            + "{\"type\":\"text\",\"content\":\"\"}"
+            + "Thank you very much. Sounds good, see you tomorrow. "
+            + "I don't know what you mean. Let me check and get back to you. "
+            + "Did you see the message I sent? Where are you now? What time is it? "
+            + "OK okay sure yes no thanks please sorry hello hi lol haha :) "
+            + "图片 语音 视频 文件 表情 链接 位置 转发 撤回 红包 "
+            + "请问一下，麻烦你帮我看看这个问题，有空的时候回复我一下。"
+            + "我现在在路上，马上就到，你们先开始吧。"
+            + "明天上午有时间吗？我们约个时间聊一下。"
+            + "不好意思，刚才在开会，没看到消息。"
+            + "今天晚上一起吃饭吧，你想吃什么？"
+            + "收到，我知道了，没问题，好的，谢谢你，辛苦了。"
+            + "什么时候？在哪里？怎么了？为什么？是不是？可以吗？"
+            + "哈哈哈哈，好的好的，嗯嗯，是的，对的，可以，行，没事，"
+            + "我们你们他们这个那个一下已经现在还是就是但是因为所以如果的了吗呢吧啊，。！？"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private ChatDictionary() {}
+}
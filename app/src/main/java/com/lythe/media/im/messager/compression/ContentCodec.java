@@ -0,0 +1,324 @@
+package com.lythe.media.im.messager.compression;
+
+import android.util.Log;
+
+import com.lythe.nativelib.NativeCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * content_bytes 字节级编解码
+ * 帧格式：[MAGIC][codec][varint 原始长度][数据]
+ * 1. MAGIC 取 0xC1，UTF-8 中不会出现，没有帧头的旧数据按原样返回
+ * 2. Deflater/Inflater 池化复用，raw deflate 不带 zlib 头和校验
+ * 3. 可选预置字典，短文本压缩率明显提升；字典版本由 codec 区分
+ * 4. LZ4 / Zstd 经 nativelib 的 NativeCodec 实现，库不可用时编码退回 deflate
+ * 线程安全。
+ */
+public final class ContentCodec {
+    private static final String TAG = "ContentCodec";
+    private static final byte MAGIC = (byte) 0xC1;
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_RAW_LENGTH = 16 * 1024 * 1024;
+
+    public static final int CODEC_STORED = 0;
+    public static final int CODEC_DEFLATE = 1;
+    public static final int CODEC_DEFLATE_DICT_V1 = 2;
+    public static final int CODEC_LZ4 = 3;
+    public static final int CODEC_ZSTD = 4;
+
+    private static volatile ContentCodec instance;
+    private final ArrayBlockingQueue<DeflateContext> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    // NativeCodec 只接受直接缓冲区，每个线程复用一对
+    private final ThreadLocal<NativeBuffers> nativeBuffers = ThreadLocal.withInitial(NativeBuffers::new);
+
+    private ContentCodec() {}
+
+    public static ContentCodec getInstance() {
+        if (instance == null) {
+            synchronized (ContentCodec.class) {
+                if (instance == null) {
+                    instance = new ContentCodec();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 使用字典压缩，压缩无收益时以 STORED 帧输出
+     */
+    public byte[] encode(byte[] raw) {
+        return encode(raw, true);
+    }
+
+    public byte[] encode(byte[] raw, boolean useDictionary) {
+        return encode(raw, useDictionary ? CODEC_DEFLATE_DICT_V1 : CODEC_DEFLATE);
+    }
+
+    /**
+     * 指定 codec 压缩：CODEC_LZ4、CODEC_ZSTD 只用于对端经 MessageQuery.accept_codecs 声明可解码的补拉响应；
+     * native 库不可用时退回带字典的 deflate
+     */
+    public byte[] encode(byte[] raw, int codec) {
+        if (codec == CODEC_LZ4 || codec == CODEC_ZSTD) {
+            if (NativeCodec.isAvailable()) {
+                try {
+                    return encodeNative(raw, codec);
+                } catch (IOException e) {
+                    Log.e(TAG, "Native encode failed, falling back to deflate", e);
+                }
+            }
+            codec = CODEC_DEFLATE_DICT_V1;
+        }
+        if (codec == CODEC_STORED) {
+            return stored(raw);
+        }
+        DeflateContext context = acquireDeflater();
+        try {
+            Deflater deflater = context.deflater;
+            if (codec == CODEC_DEFLATE_DICT_V1) {
+                deflater.setDictionary(ChatDictionary.V1);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = context.ensureCapacity(maxFramedLength(raw.length));
+            int pos = writeHeader(out, codec, raw.length);
+            int headerLength = pos;
+            while (!deflater.finished()) {
+                if (pos == out.length) {
+                    out = context.ensureCapacity(out.length * 2);
+                }
+                pos += deflater.deflate(out, pos, out.length - pos);
+            }
+            if (pos - headerLength >= raw.length) {
+                return stored(raw);
+            }
+            return Arrays.copyOf(out, pos);
+        } finally {
+            releaseDeflater(context);
+        }
+    }
+
+    /**
+     * 解码一个帧；没有帧头时视为未压缩的旧数据原样返回
+     */
+    public byte[] decode(byte[] data) throws IOException {
+        return decode(data, 0, data.length);
+    }
+
+    public byte[] decode(byte[] data, int offset, int length) throws IOException {
+        if (!isFramed(data, offset, length)) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+        int end = offset + length;
+        int pos = offset + 1;
+        int codec = data[pos++] & 0xFF;
+        int rawLength = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (pos >= end || shift > 28) {
+                throw new IOException("Malformed codec header");
+            }
+            b = data[pos++];
+            rawLength |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        if (rawLength < 0 || rawLength > MAX_RAW_LENGTH) {
+            throw new IOException("Invalid raw length: " + rawLength);
+        }
+        switch (codec) {
+            case CODEC_STORED:
+                if (end - pos != rawLength) {
+                    throw new IOException("Stored length mismatch");
+                }
+                return Arrays.copyOfRange(data, pos, end);
+            case CODEC_DEFLATE:
+            case CODEC_DEFLATE_DICT_V1:
+                return inflate(data, pos, end - pos, rawLength,
+                        codec == CODEC_DEFLATE_DICT_V1 ? ChatDictionary.V1 : null);
+            case CODEC_LZ4:
+            case CODEC_ZSTD:
+                if (!NativeCodec.isAvailable()) {
+                    throw new IOException("Native codec unavailable for codec " + codec);
+                }
+                return decodeNative(data, pos, end - pos, rawLength, codec);
+            default:
+                throw new IOException("Unknown codec: " + codec);
+        }
+    }
+
+    /**
+     * 解码失败时返回原始字节，供不抛异常的调用方使用
+     */
+    public byte[] decodeLenient(byte[] data) {
+        try {
+            return decode(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to decode content bytes", e);
+            return data;
+        }
+    }
+
+    public static boolean isFramed(byte[] data, int offset, int length) {
+        return length >= 3 && data[offset] == MAGIC;
+    }
+
+    private byte[] inflate(byte[] data, int offset, int length, int rawLength, byte[] dictionary) throws IOException {
+        Inflater inflater = acquireInflater();
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[rawLength];
+            int pos = 0;
+            while (pos < rawLength) {
+                int n = inflater.inflate(out, pos, rawLength - pos);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed content");
+                }
+                pos += n;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed content", e);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private byte[] encodeNative(byte[] raw, int codec) throws IOException {
+        NativeBuffers buffers = nativeBuffers.get();
+        int bound = codec == CODEC_LZ4
+                ? NativeCodec.lz4MaxCompressedLength(raw.length)
+                : NativeCodec.zstdMaxCompressedLength(raw.length);
+        ByteBuffer src = buffers.input(raw.length);
+        src.put(raw).flip();
+        ByteBuffer dst = buffers.output(bound);
+        int written = codec == CODEC_LZ4
+                ? NativeCodec.lz4Compress(src, dst)
+                : NativeCodec.zstdCompress(src, dst, NativeCodec.ZSTD_DEFAULT_LEVEL);
+        if (written >= raw.length) {
+            return stored(raw);
+        }
+        byte[] out = new byte[maxFramedLength(0) + written];
+        int pos = writeHeader(out, codec, raw.length);
+        dst.flip();
+        dst.get(out, pos, written);
+        return Arrays.copyOf(out, pos + written);
+    }
+
+    private byte[] decodeNative(byte[] data, int offset, int length, int rawLength, int codec) throws IOException {
+        NativeBuffers buffers = nativeBuffers.get();
+        ByteBuffer src = buffers.input(length);
+        src.put(data, offset, length).flip();
+        ByteBuffer dst = buffers.output(rawLength);
+        int written = codec == CODEC_LZ4
+                ? NativeCodec.lz4Decompress(src, dst)
+                : NativeCodec.zstdDecompress(src, dst);
+        if (written != rawLength) {
+            throw new IOException("Decoded length mismatch: " + written + " != " + rawLength);
+        }
+        byte[] out = new byte[rawLength];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    private static byte[] stored(byte[] raw) {
+        byte[] out = new byte[maxFramedLength(0) + raw.length];
+        int pos = writeHeader(out, CODEC_STORED, raw.length);
+        System.arraycopy(raw, 0, out, pos, raw.length);
+        return Arrays.copyOf(out, pos + raw.length);
+    }
+
+    private static int writeHeader(byte[] out, int codec, int rawLength) {
+        int pos = 0;
+        out[pos++] = MAGIC;
+        out[pos++] = (byte) codec;
+        int value = rawLength;
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    // 帧头最多7字节，deflate 对不可压缩数据的膨胀约为每16KB 5字节
+    private static int maxFramedLength(int rawLength) {
+        return 7 + rawLength + (rawLength >>> 12) + 64;
+    }
+
+    private DeflateContext acquireDeflater() {
+        DeflateContext context = deflaters.poll();
+        return context != null ? context : new DeflateContext();
+    }
+
+    private void releaseDeflater(DeflateContext context) {
+        context.deflater.reset();
+        if (!deflaters.offer(context)) {
+            context.deflater.end();
+        }
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 线程私有的直接缓冲区，按需扩容；返回前已 clear 并设置 limit
+     */
+    private static final class NativeBuffers {
+        private ByteBuffer input = ByteBuffer.allocateDirect(4096);
+        private ByteBuffer output = ByteBuffer.allocateDirect(4096);
+
+        ByteBuffer input(int capacity) {
+            if (input.capacity() < capacity) {
+                input = ByteBuffer.allocateDirect(Math.max(capacity, input.capacity() * 2));
+            }
+            input.clear().limit(capacity);
+            return input;
+        }
+
+        ByteBuffer output(int capacity) {
+            if (output.capacity() < capacity) {
+                output = ByteBuffer.allocateDirect(Math.max(capacity, output.capacity() * 2));
+            }
+            output.clear().limit(capacity);
+            return output;
+        }
+    }
+
+    /**
+     * 池化的压缩器及其输出缓冲
+     */
+    private static final class DeflateContext {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] buffer = new byte[4096];
+
+        byte[] ensureCapacity(int capacity) {
+            if (buffer.length < capacity) {
+                buffer = Arrays.copyOf(buffer, capacity);
+            }
+            return buffer;
+        }
+    }
+}
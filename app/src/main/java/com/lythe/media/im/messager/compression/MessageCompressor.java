@@ -2,38 +2,22 @@ package com.lythe.media.im.messager.compression;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
- * 消息压缩和去重管理器
+ * 消息压缩管理器
  * 功能：
- * 1. 消息内容压缩
- * 2. 消息去重检测
- * 3. 压缩率统计
- * 4. 自动清理过期数据
+ * 1. 消息内容压缩（底层为 ContentCodec：池化 Deflater/Inflater + 预置字典）
+ * 2. 压缩率统计
+ * 去重见 dedup.MessageDeduplicator
  */
 public class MessageCompressor {
     private static final String TAG = "MessageCompressor";
     private static final int COMPRESSION_THRESHOLD = 1024; // 1KB以上才压缩
-    private static final int MAX_DEDUP_CACHE_SIZE = 10000;
-    private static final long DEDUP_CACHE_EXPIRE_TIME = 24 * 60 * 60 * 1000; // 24小时
     
     private static volatile MessageCompressor instance;
-    private final ScheduledExecutorService cleanupExecutor;
-    
-    // 去重缓存：消息ID -> 时间戳
-    private final ConcurrentHashMap<String, Long> dedupCache = new ConcurrentHashMap<>();
+    private final ContentCodec codec = ContentCodec.getInstance();
     
     // 压缩统计
     private volatile long totalOriginalSize = 0;
@@ -41,14 +25,6 @@ public class MessageCompressor {
     private volatile int compressionCount = 0;
     
     private MessageCompressor() {
-        this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "MessageCompressor-Cleanup");
-            t.setDaemon(true);
-            return t;
-        });
-        
-        // 定期清理过期的去重缓存
-        cleanupExecutor.scheduleWithFixedDelay(this::cleanupExpiredCache, 1, 1, TimeUnit.HOURS);
     }
     
     public static MessageCompressor getInstance() {
@@ -118,114 +94,30 @@ public class MessageCompressor {
     }
     
     /**
-     * 检查消息是否重复
+     * 压缩实时发送的 content_bytes：输出带 codec 帧头的字节，不做 Base64
+     * 一律用预置字典 deflate，字典覆盖常用字词，不依赖文本自身的重复；
+     * 实时消息没有接收端的能力协商，LZ4、zstd 只用于带 accept_codecs 的补拉响应
+     * 压缩无收益时以 STORED 帧输出，接收端统一走 ContentCodec.decode
+     * 各种情况都计入统计，STORED 帧按帧头开销计算
      */
-    public boolean isDuplicateMessage(String messageId, String content) {
-        if (messageId == null || content == null) {
-            return false;
-        }
-        
-        // 生成内容哈希
-        String contentHash = generateContentHash(content);
-        String dedupKey = messageId + ":" + contentHash;
-        
-        long currentTime = System.currentTimeMillis();
-        Long lastSeenTime = dedupCache.get(dedupKey);
-        
-        if (lastSeenTime != null && (currentTime - lastSeenTime) < DEDUP_CACHE_EXPIRE_TIME) {
-            Log.d(TAG, "Duplicate message detected: " + messageId);
-            return true;
-        }
-        
-        // 更新缓存
-        dedupCache.put(dedupKey, currentTime);
-        
-        // 如果缓存过大，清理最旧的条目
-        if (dedupCache.size() > MAX_DEDUP_CACHE_SIZE) {
-            cleanupOldestEntries();
-        }
-        
-        return false;
+    public byte[] compressBytes(byte[] raw) {
+        byte[] encoded = codec.encode(raw, ContentCodec.CODEC_DEFLATE_DICT_V1);
+        totalOriginalSize += raw.length;
+        totalCompressedSize += encoded.length;
+        compressionCount++;
+        return encoded;
     }
     
-    /**
-     * 生成内容哈希
-     */
-    private String generateContentHash(String content) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(content.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            Log.e(TAG, "SHA-256 algorithm not available", e);
-            return String.valueOf(content.hashCode());
-        }
+    public byte[] decompressBytes(byte[] encoded) throws IOException {
+        return codec.decode(encoded);
     }
     
-    /**
-     * GZIP压缩
-     */
-    private byte[] compress(byte[] data) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzipOut = new GZIPOutputStream(baos)) {
-            gzipOut.write(data);
-        }
-        return baos.toByteArray();
+    private byte[] compress(byte[] data) {
+        return codec.encode(data);
     }
     
-    /**
-     * GZIP解压
-     */
     private byte[] decompress(byte[] compressedData) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(compressedData);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        
-        try (GZIPInputStream gzipIn = new GZIPInputStream(bais)) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = gzipIn.read(buffer)) != -1) {
-                baos.write(buffer, 0, len);
-            }
-        }
-        
-        return baos.toByteArray();
-    }
-    
-    /**
-     * 清理过期的去重缓存
-     */
-    private void cleanupExpiredCache() {
-        long currentTime = System.currentTimeMillis();
-        int removedCount = 0;
-        
-        dedupCache.entrySet().removeIf(entry -> {
-            long age = currentTime - entry.getValue();
-            return age > DEDUP_CACHE_EXPIRE_TIME;
-        });
-        
-        Log.d(TAG, "Cleaned up expired dedup cache entries: " + removedCount);
-    }
-    
-    /**
-     * 清理最旧的缓存条目
-     */
-    private void cleanupOldestEntries() {
-        int targetSize = MAX_DEDUP_CACHE_SIZE * 3 / 4; // 保留75%
-        
-        dedupCache.entrySet().stream()
-            .sorted((e1, e2) -> Long.compare(e1.getValue(), e2.getValue()))
-            .limit(dedupCache.size() - targetSize)
-            .forEach(entry -> dedupCache.remove(entry.getKey()));
-        
-        Log.d(TAG, "Cleaned up oldest dedup cache entries, current size: " + dedupCache.size());
+        return codec.decode(compressedData);
     }
     
     /**
@@ -239,8 +131,7 @@ public class MessageCompressor {
             totalOriginalSize,
             totalCompressedSize,
             compressionCount,
-            compressionRatio,
-            dedupCache.size()
+            compressionRatio
         );
     }
     
@@ -258,8 +149,6 @@ public class MessageCompressor {
      * 释放资源
      */
     public void release() {
-        cleanupExecutor.shutdown();
-        dedupCache.clear();
         instance = null;
     }
     
@@ -292,15 +181,13 @@ public class MessageCompressor {
         public final long totalCompressedSize;
         public final int compressionCount;
         public final double averageCompressionRatio;
-        public final int dedupCacheSize;
         
         public CompressionStats(long totalOriginalSize, long totalCompressedSize, int compressionCount, 
-                              double averageCompressionRatio, int dedupCacheSize) {
+                              double averageCompressionRatio) {
             this.totalOriginalSize = totalOriginalSize;
             this.totalCompressedSize = totalCompressedSize;
             this.compressionCount = compressionCount;
             this.averageCompressionRatio = averageCompressionRatio;
-            this.dedupCacheSize = dedupCacheSize;
         }
         
         public long getSpaceSaved() {
@@ -0,0 +1,303 @@
+package com.lythe.media.im.messager.dedup;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * 消息去重引擎
+ * 以 client_msg_id 的64位哈希为键：
+ * 1. 轮转布隆过滤器做快速否定判断，绝大多数新消息一次位运算即可放行
+ * 2. 布隆判定"可能重复"时，用有界的 long 哈希环形集合精确确认
+ * 查询和写入均为 O(1)，不排序、不存字符串，内存固定。
+ * 发送和接收各用一个实例，互不影响。
+ */
+public class MessageDeduplicator {
+    private static final String TAG = "MessageDeduplicator";
+    private static final int BUCKET_COUNT = 4;
+    private static final long BUCKET_SPAN_MS = 6 * 60 * 60 * 1000; // 每桶6小时，共覆盖24小时
+    private static final int BITS_PER_BUCKET = 1 << 17;            // 每桶16KB
+    private static final int HASH_COUNT = 5;
+    private static final int EXACT_CAPACITY = 16384;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static volatile MessageDeduplicator outbound;
+    private static volatile MessageDeduplicator inbound;
+
+    private final RotatingBloomFilter bloom;
+    private final LongRingSet recent;
+
+    // 统计
+    private long checkCount = 0;
+    private long duplicateCount = 0;
+    private long bloomFalsePositiveCount = 0;
+
+    public MessageDeduplicator() {
+        this(EXACT_CAPACITY);
+    }
+
+    public MessageDeduplicator(int exactCapacity) {
+        this.bloom = new RotatingBloomFilter(BUCKET_COUNT, BITS_PER_BUCKET, HASH_COUNT, BUCKET_SPAN_MS,
+                System.currentTimeMillis());
+        this.recent = new LongRingSet(exactCapacity);
+    }
+
+    /**
+     * 发送路径：防止同一条消息重复入队
+     */
+    public static MessageDeduplicator getOutbound() {
+        if (outbound == null) {
+            synchronized (MessageDeduplicator.class) {
+                if (outbound == null) {
+                    outbound = new MessageDeduplicator();
+                }
+            }
+        }
+        return outbound;
+    }
+
+    /**
+     * 接收路径：丢弃重传、补拉重叠等重复到达的消息
+     */
+    public static MessageDeduplicator getInbound() {
+        if (inbound == null) {
+            synchronized (MessageDeduplicator.class) {
+                if (inbound == null) {
+                    inbound = new MessageDeduplicator();
+                }
+            }
+        }
+        return inbound;
+    }
+
+    /**
+     * 检查并记录：已见过返回true，否则记录后返回false
+     */
+    public boolean isDuplicate(String clientMsgId) {
+        if (clientMsgId == null || clientMsgId.isEmpty()) {
+            return false;
+        }
+        return isDuplicate(hash(clientMsgId));
+    }
+
+    /**
+     * @param hash 由 hash(String) 或 hash(byte[], int, int) 计算，两者对相同ID结果一致
+     */
+    public synchronized boolean isDuplicate(long hash) {
+        if (contains(hash)) {
+            return true;
+        }
+        record(hash);
+        return false;
+    }
+
+    /**
+     * 只检查不记录，计入统计；入站路径先用它放行，入库提交后再 record
+     */
+    public synchronized boolean contains(long hash) {
+        checkCount++;
+        if (lookup(hash)) {
+            duplicateCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 同 contains，但不计入统计，用于同一条消息在后续环节的复查
+     */
+    public synchronized boolean isRecorded(long hash) {
+        return lookup(hash);
+    }
+
+    /**
+     * 记录一条已确认处理完成的消息
+     */
+    public synchronized void record(long hash) {
+        long now = System.currentTimeMillis();
+        bloom.add(hash, now);
+        recent.add(hash);
+    }
+
+    private boolean lookup(long hash) {
+        if (!bloom.mightContain(hash, System.currentTimeMillis())) {
+            return false;
+        }
+        if (recent.contains(hash)) {
+            return true;
+        }
+        // 布隆误判，或精确集合已淘汰该项：按新消息处理
+        bloomFalsePositiveCount++;
+        return false;
+    }
+
+    public synchronized void clear() {
+        bloom.clear(System.currentTimeMillis());
+        recent.clear();
+        Log.d(TAG, "Dedup state cleared");
+    }
+
+    public synchronized DedupStats getStats() {
+        return new DedupStats(checkCount, duplicateCount, bloomFalsePositiveCount, recent.size(),
+                bloom.sizeInBytes() + recent.sizeInBytes());
+    }
+
+    /**
+     * 64位 FNV-1a，按UTF-8字节计算，不分配中间数组
+     */
+    public static long hash(String value) {
+        long h = FNV_OFFSET;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                h = (h ^ c) * FNV_PRIME;
+            } else if (c < 0x800) {
+                h = (h ^ (0xC0 | (c >>> 6))) * FNV_PRIME;
+                h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                h = (h ^ (0xF0 | (cp >>> 18))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((cp >>> 12) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((cp >>> 6) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | (cp & 0x3F))) * FNV_PRIME;
+            } else {
+                h = (h ^ (0xE0 | (c >>> 12))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((c >>> 6) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            }
+        }
+        return h;
+    }
+
+    public static long hash(byte[] utf8, int offset, int length) {
+        long h = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (utf8[i] & 0xFF)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * 有界的 long 集合：开放寻址 + 插入顺序环形淘汰
+     */
+    private static final class LongRingSet {
+        private static final long EMPTY = 0L;
+        private final long[] ring;
+        private final long[] table;
+        private final int tableMask;
+        private int head = 0;
+        private int size = 0;
+
+        LongRingSet(int capacity) {
+            ring = new long[capacity];
+            int tableSize = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1) << 1;
+            table = new long[tableSize];
+            tableMask = tableSize - 1;
+        }
+
+        boolean contains(long key) {
+            key = normalize(key);
+            int i = slot(key);
+            while (table[i] != EMPTY) {
+                if (table[i] == key) {
+                    return true;
+                }
+                i = (i + 1) & tableMask;
+            }
+            return false;
+        }
+
+        void add(long key) {
+            key = normalize(key);
+            if (contains(key)) {
+                return;
+            }
+            if (size == ring.length) {
+                remove(ring[head]);
+                size--;
+            }
+            ring[head] = key;
+            head = (head + 1) % ring.length;
+            size++;
+            int i = slot(key);
+            while (table[i] != EMPTY) {
+                i = (i + 1) & tableMask;
+            }
+            table[i] = key;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int sizeInBytes() {
+            return (ring.length + table.length) * 8;
+        }
+
+        void clear() {
+            Arrays.fill(ring, EMPTY);
+            Arrays.fill(table, EMPTY);
+            head = 0;
+            size = 0;
+        }
+
+        /**
+         * 线性探测删除：把后续同簇的项前移，保持查找链不断
+         */
+        private void remove(long key) {
+            int i = slot(key);
+            while (table[i] != key) {
+                if (table[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & tableMask;
+            }
+            int hole = i;
+            int j = (i + 1) & tableMask;
+            while (table[j] != EMPTY) {
+                int home = slot(table[j]);
+                // j 的理想位置不在 (hole, j] 区间内时，可移入空洞
+                if (((j - home) & tableMask) >= ((j - hole) & tableMask)) {
+                    table[hole] = table[j];
+                    hole = j;
+                }
+                j = (j + 1) & tableMask;
+            }
+            table[hole] = EMPTY;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & tableMask;
+        }
+
+        // 0 作为空槽标记，真实哈希为0时映射为1
+        private static long normalize(long key) {
+            return key == EMPTY ? 1L : key;
+        }
+    }
+
+    /**
+     * 去重统计
+     */
+    public static class DedupStats {
+        public final long checkCount;
+        public final long duplicateCount;
+        public final long bloomFalsePositiveCount;
+        public final int trackedCount;
+        public final int memoryBytes;
+
+        public DedupStats(long checkCount, long duplicateCount, long bloomFalsePositiveCount,
+                          int trackedCount, int memoryBytes) {
+            this.checkCount = checkCount;
+            this.duplicateCount = duplicateCount;
+            this.bloomFalsePositiveCount = bloomFalsePositiveCount;
+            this.trackedCount = trackedCount;
+            this.memoryBytes = memoryBytes;
+        }
+    }
+}
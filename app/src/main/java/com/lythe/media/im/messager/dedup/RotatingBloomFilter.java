@@ -0,0 +1,99 @@
+package com.lythe.media.im.messager.dedup;
+
+import java.util.Arrays;
+
+/**
+ * 按时间分桶轮转的布隆过滤器
+ * 每个桶覆盖 bucketSpanMs，写入只进当前桶，查询检查所有桶；
+ * 当前桶过期时清空最旧的桶作为新的当前桶，内存固定为 bucketCount * bitsPerBucket 位。
+ * 非线程安全，由 MessageDeduplicator 加锁。
+ */
+final class RotatingBloomFilter {
+    private final long[][] buckets;
+    private final int bitMask;
+    private final int hashCount;
+    private final long bucketSpanMs;
+    private int current = 0;
+    private long currentStartedAt;
+
+    /**
+     * @param bitsPerBucket 每桶位数，向上取2的幂
+     */
+    RotatingBloomFilter(int bucketCount, int bitsPerBucket, int hashCount, long bucketSpanMs, long now) {
+        int bits = Integer.highestOneBit(Math.max(64, bitsPerBucket - 1) << 1);
+        this.buckets = new long[bucketCount][bits >>> 6];
+        this.bitMask = bits - 1;
+        this.hashCount = hashCount;
+        this.bucketSpanMs = bucketSpanMs;
+        this.currentStartedAt = now;
+    }
+
+    boolean mightContain(long hash, long now) {
+        rotate(now);
+        long h2 = mix(hash);
+        for (long[] bucket : buckets) {
+            if (containsIn(bucket, hash, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(long hash, long now) {
+        rotate(now);
+        long h2 = mix(hash);
+        long[] bucket = buckets[current];
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) (hash + i * h2) & bitMask;
+            bucket[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    void clear(long now) {
+        for (long[] bucket : buckets) {
+            Arrays.fill(bucket, 0L);
+        }
+        current = 0;
+        currentStartedAt = now;
+    }
+
+    int sizeInBytes() {
+        return buckets.length * buckets[0].length * 8;
+    }
+
+    private boolean containsIn(long[] bucket, long h1, long h2) {
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) (h1 + i * h2) & bitMask;
+            if ((bucket[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotate(long now) {
+        // 长时间未调用时可能跨过多个桶，最多清空全部桶
+        int steps = 0;
+        while (now - currentStartedAt >= bucketSpanMs && steps < buckets.length) {
+            current = (current + 1) % buckets.length;
+            Arrays.fill(buckets[current], 0L);
+            currentStartedAt += bucketSpanMs;
+            steps++;
+        }
+        if (now - currentStartedAt >= bucketSpanMs) {
+            currentStartedAt = now;
+        }
+    }
+
+    /**
+     * 第二个哈希：64位混淆，保证为奇数以遍历所有位
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h | 1L;
+    }
+}
@@ -2,6 +2,7 @@ package com.lythe.media.im.messager.examples;
 
 import android.content.Context;
 
+import com.lythe.media.chats.data.local.database.StorageEngine;
 import com.lythe.media.im.messager.logging.Logger;
 import com.lythe.media.im.messager.monitor.PerformanceMonitor;
 import com.lythe.media.im.net.NetworkManager;
@@ -10,6 +11,7 @@ import com.lythe.media.im.messager.queue.MessageQueue;
 import com.lythe.media.im.messager.recovery.CrashRecovery;
 import com.lythe.media.im.messager.security.SecureStorage;
 import com.lythe.media.im.messager.compression.MessageCompressor;
+import com.lythe.media.im.messager.dedup.MessageDeduplicator;
 import com.lythe.media.protobuf.ImMessage;
 
 /**
@@ -90,44 +92,14 @@ public class ProductionUsageExample {
                 logger.warn(TAG, "Network not available, message will be queued");
             }
             
-            // 2. 提取用于去重的关键信息（按 oneof 分支或通用承载）
-            String dedupPayload = "";
-            switch (message.getContentCase()) {
-                case TEXT_CONTENT:
-                    dedupPayload = message.getTextContent().getText();
-                    break;
-                case IMAGE_CONTENT:
-                    dedupPayload = message.getImageContent().getImageUrl();
-                    break;
-                case VOICE_CONTENT:
-                    dedupPayload = message.getVoiceContent().getVoiceUrl();
-                    break;
-                case VIDEO_CONTENT:
-                    dedupPayload = message.getVideoContent().getVideoUrl();
-                    break;
-                case FILE_CONTENT:
-                    dedupPayload = message.getFileContent().getFileUrl();
-                    break;
-                case STICKER_CONTENT:
-                    dedupPayload = message.getStickerContent().getStickerId();
-                    break;
-                case CONTENT_NOT_SET:
-                default:
-                    // proto3 对 bytes 字段没有 has*，用是否为空判断
-                    if (!message.getContentBytes().isEmpty()) {
-                        // 注意：这里只用于快速去重，真实内容应按 content_type 正确解码
-                        dedupPayload = message.getContentBytes().toStringUtf8();
-                    }
-                    break;
-            }
-            
-            // 3. 检查消息去重（使用提取的关键信息）
-            if (messageCompressor.isDuplicateMessage(message.getMessageId(), dedupPayload)) {
+            // 2. 按 client_msg_id 去重，缺省时退回 messageId
+            String dedupId = message.getClientMsgId().isEmpty() ? message.getMessageId() : message.getClientMsgId();
+            if (MessageDeduplicator.getOutbound().isDuplicate(dedupId)) {
                 logger.warn(TAG, "Duplicate message detected, skipping: " + message.getMessageId());
                 return;
             }
 
-            // 4. 添加到消息队列
+            // 3. 添加到消息队列
             messageQueue.enqueueMessage(message, topic, 1, isHighPriority);
             
             logger.info(TAG, "Message enqueued successfully: " + message.getMessageId());
@@ -152,7 +124,7 @@ public class ProductionUsageExample {
             
             // 2. 检查去重
             String messageId = extractMessageId(content); // 需要实现
-            if (messageCompressor.isDuplicateMessage(messageId, content)) {
+            if (MessageDeduplicator.getInbound().isDuplicate(messageId)) {
                 logger.warn(TAG, "Duplicate received message, ignoring: " + messageId);
                 return;
             }
@@ -264,11 +236,26 @@ public class ProductionUsageExample {
         // 获取消息队列统计
         MessageQueue.QueueStatus queueStatus = messageQueue.getQueueStatus();
         logger.info(TAG, "Message queue: " + queueStatus.getTotalCount() + " messages pending");
+        logger.info(TAG, "Inflight: " + queueStatus.inflightCount + ", parked: " + queueStatus.parkedCount);
+        logger.info(TAG, "Enqueue-to-publish latency: avg " + queueStatus.avgPublishLatencyMs
+                + "ms, max " + queueStatus.maxPublishLatencyMs + "ms");
         
         // 获取压缩统计
         MessageCompressor.CompressionStats compressionStats = messageCompressor.getCompressionStats();
         logger.info(TAG, "Compression ratio: " + compressionStats.averageCompressionRatio + 
                          ", Space saved: " + compressionStats.getSpaceSavedPercentage() + "%");
+        
+        // 获取去重统计
+        MessageDeduplicator.DedupStats dedupStats = MessageDeduplicator.getInbound().getStats();
+        logger.info(TAG, "Inbound dedup: " + dedupStats.duplicateCount + "/" + dedupStats.checkCount
+                + " duplicates, " + dedupStats.memoryBytes / 1024 + "KB");
+        
+        // 获取数据库读写统计
+        StorageEngine storage = StorageEngine.Companion.getInstance(context);
+        logger.info(TAG, "Storage pending writes: " + storage.getPendingWriteCount());
+        for (StorageEngine.OperationStats operationStats : storage.getStats()) {
+            logger.info(TAG, "Storage " + operationStats);
+        }
     }
     
     /**
@@ -1,59 +1,71 @@
 package com.lythe.media.im.messager.queue;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.lythe.media.chats.data.entity.MessageConverter;
 import com.lythe.media.chats.data.entity.MessageEntity;
-import com.lythe.media.chats.data.local.database.AppDatabase;
+import com.lythe.media.chats.data.entity.OutboxEntity;
+import com.lythe.media.chats.data.local.database.StorageEngine;
 import com.lythe.media.chats.data.local.dao.MessageDao;
+import com.lythe.media.chats.data.local.dao.OutboxDao;
 import com.lythe.media.chats.data.repository.MessageRepository;
 import com.lythe.media.im.MqttClientManager;
 import com.lythe.media.protobuf.ImMessage;
 import com.lythe.media.protobuf.ImMessageStatus;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 消息队列管理器 - 确保消息可靠发送
  * 功能：
- * 1. 消息持久化存储
+ * 1. 消息持久化存储：待发送消息及重试状态写入 outbox 表
  * 2. 自动重试机制
  * 3. 优先级队列
- * 4. 批量处理优化
+ * 4. 事件驱动调度：仅在入队或重试到期时唤醒
  */
 public class MessageQueue {
     private static final String TAG = "MessageQueue";
     private static final int MAX_RETRY_ATTEMPTS = 3;
     private static final long RETRY_DELAY_MS = 2000;
-    private static final int BATCH_SIZE = 10;
-    private static final long BATCH_TIMEOUT_MS = 1000;
+    private static final long RECONNECT_REQUEUE_DELAY_MS = 500;
     
     private static volatile MessageQueue instance;
     private final Context context;
     private final MessageDao messageDao;
+    private final OutboxDao outboxDao;
+    // 写入经 StorageEngine 的单个写线程按提交顺序执行，保证 outbox 插入 -> 更新 -> 删除 的先后顺序
+    private final StorageEngine storage;
     private final ExecutorService queueProcessor;
     private final ScheduledExecutorService retryProcessor;
+    private final PublishFlowController flowController;
     
-    // 高优先级队列（重要消息）
-    private final BlockingQueue<QueuedMessage> highPriorityQueue = new LinkedBlockingQueue<>();
-    // 普通优先级队列
-    private final BlockingQueue<QueuedMessage> normalPriorityQueue = new LinkedBlockingQueue<>();
+    // 待发送消息：高/普通优先级 + 重试到期时间
+    private final SendScheduler<QueuedMessage> scheduler = new SendScheduler<>();
+    private final AtomicLong enqueueSequence = new AtomicLong(0);
     
     private final AtomicBoolean isProcessing = new AtomicBoolean(false);
     private final AtomicInteger processingCount = new AtomicInteger(0);
+
+    // 入队到交给MQTT发布的延迟统计
+    private final AtomicLong publishLatencyCount = new AtomicLong(0);
+    private final AtomicLong publishLatencyTotalMs = new AtomicLong(0);
+    private final AtomicLong publishLatencyMaxMs = new AtomicLong(0);
     private MessageQueue(Context context) {
         this.context = context.getApplicationContext();
-        this.messageDao = AppDatabase.Companion.getInstance(this.context).messageDao();
+        this.storage = StorageEngine.Companion.getInstance(this.context);
+        this.messageDao = storage.getDatabase().messageDao();
+        this.outboxDao = storage.getDatabase().outboxDao();
         this.queueProcessor = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r, "MessageQueue-Processor");
             t.setDaemon(true);
@@ -67,8 +79,10 @@ public class MessageQueue {
                 return t;
             }
         });
-        startProcessing();
+        this.flowController = new PublishFlowController(MqttClientManager.getInstance(this.context), retryProcessor);
+        // 恢复上次未发送完成的消息
         loadPendingMessages();
+        startProcessing();
     }
     
     public static MessageQueue getInstance(Context context) {
@@ -86,7 +100,8 @@ public class MessageQueue {
      * 添加消息到队列
      */
     public void enqueueMessage(ImMessage message, String topic, int qos, boolean isHighPriority) {
-        QueuedMessage queuedMessage = new QueuedMessage(message, topic, qos, System.currentTimeMillis(), isHighPriority);
+        QueuedMessage queuedMessage = new QueuedMessage(message, topic, qos, System.currentTimeMillis(), isHighPriority,
+                enqueueSequence.incrementAndGet());
         
         try {
             // 先保存到数据库
@@ -94,12 +109,9 @@ public class MessageQueue {
             entity.setStatus(ImMessageStatus.SENDING_VALUE);
 //            messageDao.insert(entity);
             MessageRepository.Companion.getInstance(context).insertMessage(entity);
-            // 添加到内存队列
-            if (isHighPriority) {
-                highPriorityQueue.offer(queuedMessage);
-            } else {
-                normalPriorityQueue.offer(queuedMessage);
-            }
+            saveToOutbox(queuedMessage);
+            // 添加到内存队列，唤醒处理线程
+            scheduler.offer(queuedMessage);
             Log.d(TAG, "Message enqueued: " + message.getMessageId() + ", priority: " + (isHighPriority ? "HIGH" : "NORMAL"));
         } catch (Exception e) {
             Log.e(TAG, "Failed to enqueue message: " + message.getMessageId(), e);
@@ -107,14 +119,24 @@ public class MessageQueue {
     }
     
     /**
-     * 启动队列处理
+     * 启动队列处理：阻塞等待调度器交出到期消息
      */
     private void startProcessing() {
         queueProcessor.execute(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    processBatch();
-                    Thread.sleep(100); // 避免CPU占用过高
+                    QueuedMessage queuedMessage = scheduler.take();
+                    isProcessing.set(true);
+                    try {
+                        if (shouldRetry(queuedMessage)) {
+                            processMessage(queuedMessage);
+                        } else {
+                            // 超过重试次数，标记为失败
+                            markMessageAsFailed(queuedMessage);
+                        }
+                    } finally {
+                        isProcessing.set(false);
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -125,44 +147,6 @@ public class MessageQueue {
         });
     }
     
-    /**
-     * 批量处理消息
-     */
-    private void processBatch() {
-        if (isProcessing.get()) {
-            return;
-        }
-        
-        isProcessing.set(true);
-        try {
-            // 优先处理高优先级消息
-            processQueue(highPriorityQueue, true);
-            processQueue(normalPriorityQueue, false);
-        } finally {
-            isProcessing.set(false);
-        }
-    }
-    
-    private void processQueue(BlockingQueue<QueuedMessage> queue, boolean isHighPriority) {
-        int processed = 0;
-        long startTime = System.currentTimeMillis();
-        
-        while (processed < BATCH_SIZE && (System.currentTimeMillis() - startTime) < BATCH_TIMEOUT_MS) {
-            QueuedMessage queuedMessage = queue.poll();
-            if (queuedMessage == null) {
-                break;
-            }
-            
-            if (shouldRetry(queuedMessage)) {
-                processMessage(queuedMessage);
-                processed++;
-            } else {
-                // 超过重试次数，标记为失败
-                markMessageAsFailed(queuedMessage);
-            }
-        }
-    }
-    
     /**
      * 处理单个消息
      */
@@ -185,35 +169,18 @@ public class MessageQueue {
                 }
 
                 // Requeue after short delay without increasing retryCount (connection-related retry)
-                retryProcessor.schedule(() -> {
-                    if (queuedMessage.isHighPriority) {
-                        highPriorityQueue.offer(queuedMessage);
-                    } else {
-                        normalPriorityQueue.offer(queuedMessage);
-                    }
-                }, 500, TimeUnit.MILLISECONDS);
+                queuedMessage.nextAttemptAt = SystemClock.elapsedRealtime() + RECONNECT_REQUEUE_DELAY_MS;
+                scheduler.offer(queuedMessage);
 
                 return; // don't proceed to send now
             }
 
-            // MQTT is connected - proceed to send and let MqttClientManager/deliveryComplete drive final status
-            MqttClientManager.getInstance(context).sendMessage(queuedMessage.topic,
+            recordPublishLatency(queuedMessage);
+            // MQTT is connected - hand over to flow control; it parks the send while the inflight window is full
+            flowController.send(queuedMessage.topic,
                     queuedMessage.message,
                     queuedMessage.qos,
-                    new MqttClientManager.Callback() {
-                        @Override
-                        public void onSendSuccess() {
-                            markMessageAsSent(queuedMessage);
-
-                            Log.d(TAG, "Message sent successfully: " + queuedMessage.message.getMessageId());
-                        }
-
-                        @Override
-                        public void onSendFailed() {
-                            Log.e(TAG, "Failed to send message: " + queuedMessage.message.getMessageId());
-                            scheduleRetry(queuedMessage);
-                        }
-                    });
+                    newSendCallback(queuedMessage));
         } catch (Exception e) {
             Log.e(TAG, "Failed to send message: " + queuedMessage.message.getMessageId(), e);
             scheduleRetry(queuedMessage);
@@ -222,25 +189,55 @@ public class MessageQueue {
         }
     }
     
+    private MqttClientManager.Callback newSendCallback(QueuedMessage queuedMessage) {
+        return new MqttClientManager.Callback() {
+            @Override
+            public void onSendSuccess() {
+                markMessageAsSent(queuedMessage);
+
+                Log.d(TAG, "Message sent successfully: " + queuedMessage.message.getMessageId());
+            }
+
+            @Override
+            public void onSendFailed() {
+                Log.e(TAG, "Failed to send message: " + queuedMessage.message.getMessageId());
+                scheduleRetry(queuedMessage);
+            }
+        };
+    }
+
     /**
      * 安排重试
      */
     private void scheduleRetry(QueuedMessage queuedMessage) {
         queuedMessage.retryCount++;
         queuedMessage.lastRetryTime = System.currentTimeMillis();
-//        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        retryProcessor.schedule(() -> {
-            if (queuedMessage.retryCount <= MAX_RETRY_ATTEMPTS) {
-                // 重新入队
-                if (queuedMessage.isHighPriority) {
-                    highPriorityQueue.offer(queuedMessage);
-                } else {
-                    normalPriorityQueue.offer(queuedMessage);
-                }
-            } else {
-                markMessageAsFailed(queuedMessage);
-            }
-        }, RETRY_DELAY_MS * queuedMessage.retryCount, TimeUnit.MILLISECONDS);
+        if (queuedMessage.retryCount <= MAX_RETRY_ATTEMPTS) {
+            // 到期后由调度器重新交给处理线程
+            long delay = RETRY_DELAY_MS * queuedMessage.retryCount;
+            queuedMessage.nextAttemptAt = SystemClock.elapsedRealtime() + delay;
+            updateOutboxAttempt(queuedMessage, System.currentTimeMillis() + delay);
+            scheduler.offer(queuedMessage);
+        } else {
+            markMessageAsFailed(queuedMessage);
+        }
+    }
+
+    /**
+     * 记录首次交给MQTT发布时距入队的延迟
+     */
+    private void recordPublishLatency(QueuedMessage queuedMessage) {
+        if (queuedMessage.latencyRecorded) {
+            return;
+        }
+        queuedMessage.latencyRecorded = true;
+        long latency = SystemClock.elapsedRealtime() - queuedMessage.enqueueElapsed;
+        publishLatencyCount.incrementAndGet();
+        publishLatencyTotalMs.addAndGet(latency);
+        long currentMax = publishLatencyMaxMs.get();
+        while (latency > currentMax && !publishLatencyMaxMs.compareAndSet(currentMax, latency)) {
+            currentMax = publishLatencyMaxMs.get();
+        }
     }
     
     /**
@@ -254,52 +251,89 @@ public class MessageQueue {
      * 标记消息为已发送
      */
     private void markMessageAsSent(QueuedMessage queuedMessage) {
-        try {
-            MessageEntity entity = MessageConverter.INSTANCE.fromProto(queuedMessage.message, true);
-            entity.setStatus(ImMessageStatus.SENT_VALUE);
-            messageDao.update(entity);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to mark message as sent", e);
-        }
+        String msgId = queuedMessage.message.getMessageId();
+        storage.write("message.updateStatus", () -> messageDao.updateStatus(msgId, ImMessageStatus.SENT_VALUE));
+        removeFromOutbox(queuedMessage);
     }
     
     /**
      * 标记消息为发送失败
      */
     private void markMessageAsFailed(QueuedMessage queuedMessage) {
-        try {
-            MessageEntity entity = MessageConverter.INSTANCE.fromProto(queuedMessage.message, true);
-            entity.setStatus(ImMessageStatus.FAILED_VALUE);
-            messageDao.update(entity);
-            Log.w(TAG, "Message marked as failed after " + queuedMessage.retryCount + " retries: " + queuedMessage.message.getMessageId());
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to mark message as failed", e);
-        }
+        String msgId = queuedMessage.message.getMessageId();
+        storage.write("message.updateStatus", () -> messageDao.updateStatus(msgId, ImMessageStatus.FAILED_VALUE));
+        Log.w(TAG, "Message marked as failed after " + queuedMessage.retryCount + " retries: " + msgId);
+        removeFromOutbox(queuedMessage);
+    }
+
+    private void saveToOutbox(QueuedMessage queuedMessage) {
+        OutboxEntity entry = new OutboxEntity(
+                queuedMessage.message.getMessageId(),
+                queuedMessage.topic,
+                queuedMessage.qos,
+                queuedMessage.isHighPriority,
+                queuedMessage.retryCount,
+                queuedMessage.enqueueTime,
+                queuedMessage.enqueueTime,
+                queuedMessage.message.toByteArray());
+        storage.write("outbox.insert", () -> outboxDao.insert(entry));
+    }
+
+    private void updateOutboxAttempt(QueuedMessage queuedMessage, long nextAttemptAtWall) {
+        String msgId = queuedMessage.message.getMessageId();
+        int attemptCount = queuedMessage.retryCount;
+        storage.write("outbox.updateAttempt", () -> outboxDao.updateAttempt(msgId, attemptCount, nextAttemptAtWall));
+    }
+
+    private void removeFromOutbox(QueuedMessage queuedMessage) {
+        String msgId = queuedMessage.message.getMessageId();
+        storage.write("outbox.delete", () -> outboxDao.delete(msgId));
     }
     
     /**
-     * 从数据库加载待发送消息
+     * 从 outbox 表恢复待发送消息，保留优先级、qos、重试次数和下次发送时间
      */
     private void loadPendingMessages() {
-        queueProcessor.execute(() -> {
-            try {
-                // 加载状态为SENDING的消息
-                 List<MessageEntity> pendingMessages = messageDao.getPendingMessages();
-                 for (MessageEntity entity : pendingMessages) {
-                     ImMessage message = MessageConverter.INSTANCE.toProto(entity);
-                     boolean priority = false;
-                     try {
-                         // 如果实体包含优先级字段，可在此读取；目前默认 false
-                         // priority = entity.isHighPriority();
-                     } catch (Exception ignore) {}
-                     QueuedMessage queuedMessage = new QueuedMessage(message, entity.getTopic(), 1, entity.getTimestamp(), priority);
-                     queuedMessage.retryCount = entity.getRetryCount();
-                     normalPriorityQueue.offer(queuedMessage);
-                 }
-                Log.d(TAG, "Loaded pending messages from database");
-            } catch (Exception e) {
+        // 作为写任务排队，排在之后所有入队写入之前，避免同一消息被重复恢复；
+        // 写任务可能被重跑，块内只读表和删除损坏条目，挂回调、入调度器放到提交之后
+        storage.write("outbox.load", () -> {
+            List<OutboxEntity> entries = outboxDao.getDueBefore(Long.MAX_VALUE);
+            List<QueuedMessage> restored = new ArrayList<>(entries.size());
+            long nowWall = System.currentTimeMillis();
+            long nowElapsed = SystemClock.elapsedRealtime();
+            for (OutboxEntity entry : entries) {
+                ImMessage message;
+                try {
+                    message = ImMessage.parseFrom(entry.getPayload());
+                } catch (Exception e) {
+                    Log.e(TAG, "Dropping corrupt outbox entry: " + entry.getMsgId(), e);
+                    outboxDao.delete(entry.getMsgId());
+                    continue;
+                }
+                QueuedMessage queuedMessage = new QueuedMessage(message, entry.getTopic(), entry.getQos(),
+                        entry.getCreatedAt(), entry.isHighPriority(), enqueueSequence.incrementAndGet());
+                queuedMessage.retryCount = entry.getAttemptCount();
+                queuedMessage.nextAttemptAt = nowElapsed + Math.max(0, entry.getNextAttemptAt() - nowWall);
+                restored.add(queuedMessage);
+            }
+            return restored;
+        }).whenComplete((restored, e) -> {
+            if (e != null) {
                 Log.e(TAG, "Failed to load pending messages", e);
+                return;
+            }
+            MqttClientManager mqttManager = MqttClientManager.getInstance(context);
+            int resumed = 0;
+            for (QueuedMessage queuedMessage : restored) {
+                // 已在MQTT持久化中的inflight消息由Paho重连后续发，只需挂回调
+                if (mqttManager.attachResumedDelivery(queuedMessage.message.getMessageId(),
+                        newSendCallback(queuedMessage))) {
+                    resumed++;
+                    continue;
+                }
+                scheduler.offer(queuedMessage);
             }
+            Log.d(TAG, "Loaded " + restored.size() + " outbox entries, resumed by MQTT: " + resumed);
         });
     }
     
@@ -307,11 +341,16 @@ public class MessageQueue {
      * 获取队列状态
      */
     public QueueStatus getQueueStatus() {
+        long latencyCount = publishLatencyCount.get();
         return new QueueStatus(
-            highPriorityQueue.size(),
-            normalPriorityQueue.size(),
+            scheduler.countByPriority(true),
+            scheduler.countByPriority(false),
             processingCount.get(),
-            isProcessing.get()
+            isProcessing.get(),
+            flowController.getInflightCount(),
+            flowController.getParkedCount(),
+            latencyCount > 0 ? publishLatencyTotalMs.get() / latencyCount : 0,
+            publishLatencyMaxMs.get()
         );
     }
     
@@ -319,8 +358,9 @@ public class MessageQueue {
      * 清空队列
      */
     public void clearQueue() {
-        highPriorityQueue.clear();
-        normalPriorityQueue.clear();
+        scheduler.drainAll();
+        flowController.clear();
+        storage.write("outbox.clear", () -> outboxDao.deleteAll());
         Log.d(TAG, "Message queue cleared");
     }
     
@@ -328,12 +368,10 @@ public class MessageQueue {
      * 关闭队列
      */
     public void shutdown() {
-        queueProcessor.shutdown();
+        // 处理线程阻塞在调度器上，需中断才能退出
+        queueProcessor.shutdownNow();
         retryProcessor.shutdown();
         try {
-            if (!queueProcessor.awaitTermination(5, TimeUnit.SECONDS)) {
-                queueProcessor.shutdownNow();
-            }
             if (!retryProcessor.awaitTermination(5, TimeUnit.SECONDS)) {
                 retryProcessor.shutdownNow();
             }
@@ -347,22 +385,43 @@ public class MessageQueue {
     /**
      * 队列中的消息
      */
-    private static class QueuedMessage {
+    private static class QueuedMessage implements SendScheduler.Schedulable {
         final ImMessage message;
         final String topic;
         final int qos;
         final long enqueueTime;
         final boolean isHighPriority;
+        final long sequence;
+        final long enqueueElapsed = SystemClock.elapsedRealtime();
         
         int retryCount = 0;
         long lastRetryTime = 0;
+        // 下次可发送的时间（elapsedRealtime），0表示立即
+        volatile long nextAttemptAt = 0;
+        boolean latencyRecorded = false;
         
-        QueuedMessage(ImMessage message, String topic, int qos, long enqueueTime, boolean isHighPriority) {
+        QueuedMessage(ImMessage message, String topic, int qos, long enqueueTime, boolean isHighPriority, long sequence) {
             this.message = message;
             this.topic = topic;
             this.qos = qos;
             this.enqueueTime = enqueueTime;
             this.isHighPriority = isHighPriority; // 可以根据消息类型判断
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean isHighPriority() {
+            return isHighPriority;
+        }
+
+        @Override
+        public long getNextAttemptAt() {
+            return nextAttemptAt;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
         }
     }
     
@@ -374,12 +433,21 @@ public class MessageQueue {
         public final int normalPriorityCount;   //当前队列中普通优先级消息的数量。
         public final int processingCount;       //正在处理中消息的数量。
         public final boolean isProcessing;      //指示队列是否正在处理消息的状态。
+        public final int inflightCount;         //已发布、等待投递确认的消息数量。
+        public final int parkedCount;           //因inflight窗口已满而挂起等待的消息数量。
+        public final long avgPublishLatencyMs;  //入队到交给MQTT发布的平均延迟。
+        public final long maxPublishLatencyMs;  //入队到交给MQTT发布的最大延迟。
         
-        public QueueStatus(int highPriorityCount, int normalPriorityCount, int processingCount, boolean isProcessing) {
+        public QueueStatus(int highPriorityCount, int normalPriorityCount, int processingCount, boolean isProcessing,
+                           int inflightCount, int parkedCount, long avgPublishLatencyMs, long maxPublishLatencyMs) {
             this.highPriorityCount = highPriorityCount;
             this.normalPriorityCount = normalPriorityCount;
             this.processingCount = processingCount;
             this.isProcessing = isProcessing;
+            this.inflightCount = inflightCount;
+            this.parkedCount = parkedCount;
+            this.avgPublishLatencyMs = avgPublishLatencyMs;
+            this.maxPublishLatencyMs = maxPublishLatencyMs;
         }
         
         public int getTotalCount() {
@@ -0,0 +1,168 @@
+package com.lythe.media.im.messager.queue;
+
+import android.util.Log;
+
+import com.lythe.media.im.MqttClientManager;
+import com.lythe.media.protobuf.ImMessage;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 发送流控
+ * 在 MessageQueue 与 MqttClientManager 之间维护inflight窗口：
+ * 1. inflight数取自 Paho 未完成的 delivery token 数，与 Paho 的 maxInflight 同口径
+ * 2. 窗口已满或Paho报告inflight超限时，发送请求挂起(parked)，不消耗重试次数
+ * 3. 有消息完成投递后按FIFO放行挂起的请求
+ */
+class PublishFlowController {
+    private static final String TAG = "PublishFlowController";
+    private static final long DEFERRED_DRAIN_DELAY_MS = 100;
+    private static final long DISCONNECTED_DRAIN_DELAY_MS = 500;
+
+    private final Publisher publisher;
+    private final ScheduledExecutorService drainExecutor;
+    private final int windowSize;
+    private final ArrayDeque<ParkedSend> parked = new ArrayDeque<>();
+    private final AtomicBoolean delayedDrainScheduled = new AtomicBoolean(false);
+    // Paho报告inflight超限后暂停放行，直到有消息完成或延迟重试
+    private boolean throttled = false;
+
+    /**
+     * 流控用到的 MqttClientManager 能力，单元测试中替换为假实现
+     */
+    interface Publisher {
+        boolean isConnected();
+        int getInflightCount();
+        void sendMessage(String topic, ImMessage message, int qos, MqttClientManager.Callback callback);
+    }
+
+    PublishFlowController(MqttClientManager mqttManager, ScheduledExecutorService drainExecutor) {
+        this(new Publisher() {
+            @Override
+            public boolean isConnected() {
+                return mqttManager.isConnected();
+            }
+
+            @Override
+            public int getInflightCount() {
+                return mqttManager.getInflightCount();
+            }
+
+            @Override
+            public void sendMessage(String topic, ImMessage message, int qos, MqttClientManager.Callback callback) {
+                mqttManager.sendMessage(topic, message, qos, callback);
+            }
+        }, mqttManager.getMaxInflight(), drainExecutor);
+    }
+
+    PublishFlowController(Publisher publisher, int windowSize, ScheduledExecutorService drainExecutor) {
+        this.publisher = publisher;
+        this.drainExecutor = drainExecutor;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * 窗口有空位则立即发送，否则挂起排队
+     */
+    synchronized void send(String topic, ImMessage message, int qos, MqttClientManager.Callback callback) {
+        parked.offer(new ParkedSend(topic, message, qos, callback));
+        drainLocked();
+    }
+
+    synchronized int getInflightCount() {
+        return publisher.getInflightCount();
+    }
+
+    synchronized int getParkedCount() {
+        return parked.size();
+    }
+
+    synchronized void clear() {
+        parked.clear();
+    }
+
+    private void drain() {
+        synchronized (this) {
+            throttled = false;
+            drainLocked();
+        }
+    }
+
+    private void drainLocked() {
+        if (parked.isEmpty() || throttled) {
+            return;
+        }
+        if (!publisher.isConnected()) {
+            scheduleDelayedDrain(DISCONNECTED_DRAIN_DELAY_MS);
+            return;
+        }
+        // 只在开始时取一次token数，之后每发一条按占用一个窗口估算；
+        // 批量模式下多条共用一个token，偏保守，下一次drain会按实际token数重新计算
+        int inflight = publisher.getInflightCount();
+        while (!throttled && !parked.isEmpty() && inflight < windowSize) {
+            ParkedSend send = parked.poll();
+            publisher.sendMessage(send.topic, send.message, send.qos, new FlowCallback(send));
+            inflight++;
+        }
+        if (!parked.isEmpty()) {
+            Log.d(TAG, "Inflight window full (" + windowSize + "), parked: " + parked.size());
+        }
+    }
+
+    private void scheduleDelayedDrain(long delayMs) {
+        if (!delayedDrainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        drainExecutor.schedule(() -> {
+            delayedDrainScheduled.set(false);
+            drain();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private class FlowCallback implements MqttClientManager.Callback {
+        private final ParkedSend send;
+
+        FlowCallback(ParkedSend send) {
+            this.send = send;
+        }
+
+        @Override
+        public void onSendSuccess() {
+            send.callback.onSendSuccess();
+            drainExecutor.execute(PublishFlowController.this::drain);
+        }
+
+        @Override
+        public void onSendFailed() {
+            send.callback.onSendFailed();
+            drainExecutor.execute(PublishFlowController.this::drain);
+        }
+
+        @Override
+        public void onSendDeferred() {
+            // Paho的inflight已满：放回队首等待，不计入重试
+            synchronized (PublishFlowController.this) {
+                parked.offerFirst(send);
+                throttled = true;
+            }
+            scheduleDelayedDrain(DEFERRED_DRAIN_DELAY_MS);
+        }
+    }
+
+    private static class ParkedSend {
+        final String topic;
+        final ImMessage message;
+        final int qos;
+        final MqttClientManager.Callback callback;
+
+        ParkedSend(String topic, ImMessage message, int qos, MqttClientManager.Callback callback) {
+            this.topic = topic;
+            this.message = message;
+            this.qos = qos;
+            this.callback = callback;
+        }
+    }
+}
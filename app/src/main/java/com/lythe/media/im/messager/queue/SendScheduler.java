@@ -0,0 +1,124 @@
+package com.lythe.media.im.messager.queue;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 发送调度器
+ * 所有待发送消息放在同一把锁保护的结构里：
+ * 1. 未到 nextAttemptAt 的消息按到期时间排序
+ * 2. 已到期的消息按 高优先级 > 普通、同级先进先出 排序
+ * take() 只在有新消息入队或最早的重试到期时被唤醒，空闲时不占用CPU
+ */
+class SendScheduler<T extends SendScheduler.Schedulable> {
+
+    interface Schedulable {
+        boolean isHighPriority();
+        long getNextAttemptAt();    // SystemClock.elapsedRealtime() 时间基准
+        long getSequence();         // 入队序号，同优先级保持先后顺序
+    }
+
+    // 与 getNextAttemptAt 同一时间基准
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final PriorityQueue<T> delayed = new PriorityQueue<>(11,
+            (a, b) -> Long.compare(a.getNextAttemptAt(), b.getNextAttemptAt()));
+    private final PriorityQueue<T> ready = new PriorityQueue<>(11, (a, b) -> {
+        if (a.isHighPriority() != b.isHighPriority()) {
+            return a.isHighPriority() ? -1 : 1;
+        }
+        return Long.compare(a.getSequence(), b.getSequence());
+    });
+
+    SendScheduler() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    SendScheduler(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    void offer(T item) {
+        lock.lock();
+        try {
+            if (item.getNextAttemptAt() <= clock.getAsLong()) {
+                ready.offer(item);
+            } else {
+                delayed.offer(item);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞直到有到期的消息
+     */
+    T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = clock.getAsLong();
+                promoteDue(now);
+                T item = ready.poll();
+                if (item != null) {
+                    return item;
+                }
+                T next = delayed.peek();
+                if (next == null) {
+                    available.await();
+                } else {
+                    available.await(next.getNextAttemptAt() - now, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int countByPriority(boolean highPriority) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (T item : ready) {
+                if (item.isHighPriority() == highPriority) count++;
+            }
+            for (T item : delayed) {
+                if (item.isHighPriority() == highPriority) count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    List<T> drainAll() {
+        lock.lock();
+        try {
+            List<T> items = new ArrayList<>(ready.size() + delayed.size());
+            items.addAll(ready);
+            items.addAll(delayed);
+            ready.clear();
+            delayed.clear();
+            return items;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void promoteDue(long now) {
+        T head;
+        while ((head = delayed.peek()) != null && head.getNextAttemptAt() <= now) {
+            ready.offer(delayed.poll());
+        }
+    }
+}
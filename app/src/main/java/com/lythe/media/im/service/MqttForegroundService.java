@@ -29,6 +29,9 @@ import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /// 前台服务维持长连接
 public class MqttForegroundService extends Service {
@@ -172,14 +175,7 @@ public class MqttForegroundService extends Service {
             Log.w(TAG, "用户未登录，无法订阅主题");
             return ;
         }
-        String uid = currentUser.getUid();
-        String[] topics = {
-          "chat/" + uid,
-          "notify/" + uid,
-          "group/chat",
-          "system/broadcast"
-        };
-        for(String topic : topics) {
+        for(String topic : userTopics(currentUser.getUid())) {
             try {
                 mqttClientManager.subscribe(topic, 1);
                 Log.d(TAG, "已订阅MQTT主题");
@@ -189,19 +185,27 @@ public class MqttForegroundService extends Service {
         }
 
     }
+    /**
+     * 当前用户需要订阅的全部主题。可能收到批量信封的聊天主题（见 MqttClientManager.isBatchTopic）
+     * 都同时订阅对应的 /batch 主题
+     */
+    private static List<String> userTopics(String uid) {
+        List<String> topics = new ArrayList<>();
+        for (String chatTopic : new String[]{"chat/" + uid, "group/chat"}) {
+            topics.add(chatTopic);
+            topics.add(chatTopic + MqttClientManager.BATCH_TOPIC_SUFFIX);
+        }
+        topics.add("chat/" + uid + MqttClientManager.SYNC_TOPIC_SUFFIX);
+        topics.add("notify/" + uid);
+        topics.add("system/broadcast");
+        return topics;
+    }
     private void unsubscribeAllTopic() {
         FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
         if(currentUser == null || mqttClientManager == null) {
             return ;
         }
-        String uid = currentUser.getUid();
-        String[] topics = {
-                "chat/" + uid,
-                "notify/" + uid,
-                "group/chat",
-                "system/broadcast"
-        };
-        for (String topic : topics) {
+        for (String topic : userTopics(currentUser.getUid())) {
             try {
                 mqttClientManager.unsubscribe(topic);
                 Log.d(TAG, "已取消订阅主题: " + topic);
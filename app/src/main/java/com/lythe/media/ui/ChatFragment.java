@@ -21,8 +21,6 @@ import com.lythe.media.databinding.FragmentChatBinding;
 import com.lythe.media.ui.adapter.ChatListAdapter;
 import com.lythe.media.chats.viewmodel.ChatViewModel;
 
-import java.util.ArrayList;
-
 
 public class ChatFragment extends Fragment {
 
@@ -56,7 +54,8 @@ public class ChatFragment extends Fragment {
 
         viewModel_ = new ViewModelProvider(this).get(ChatViewModel.class);
         
-        adapter = new ChatListAdapter(new ArrayList<>());
+        adapter = new ChatListAdapter(viewModel_.getConversationList());
+        viewModel_.getConversationList().addListener(adapter.getUpdateCallback());
 
         recyclerView.setAdapter(adapter);
 
@@ -64,22 +63,39 @@ public class ChatFragment extends Fragment {
             navigateToChatInfo(chatItem);
         });
         TextView noChatsTv = binding_.noChatsTextView;
-        noChatsTv.setVisibility(GONE);
-        viewModel_.getChatList().observe(getViewLifecycleOwner(), chatItems -> {
-            adapter.updateChatList(chatItems);
-
-            if(chatItems == null || chatItems.isEmpty()) {
-                recyclerView.setVisibility(GONE);
-                noChatsTv.setVisibility(VISIBLE);
-            } else {
-                recyclerView.setVisibility(VISIBLE);
-                noChatsTv.setVisibility(GONE);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyState(noChatsTv);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyState(noChatsTv);
             }
         });
+        updateEmptyState(noChatsTv);
         viewModel_.loadChats();
         return binding_.getRoot();
     }
 
+    private void updateEmptyState(TextView noChatsTv) {
+        if(adapter.getItemCount() == 0) {
+            recyclerView.setVisibility(GONE);
+            noChatsTv.setVisibility(VISIBLE);
+        } else {
+            recyclerView.setVisibility(VISIBLE);
+            noChatsTv.setVisibility(GONE);
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // 模型随 ViewModel 存活，视图销毁时解除监听，避免持有旧 adapter
+        viewModel_.getConversationList().removeListener(adapter.getUpdateCallback());
+    }
+
     private void navigateToChatInfo(ConversationEntity chatItem) {
         Intent intent = new Intent(getActivity(), ChatInfoActivity.class);
 //        intent.putExtra("CHATID", chatItem);
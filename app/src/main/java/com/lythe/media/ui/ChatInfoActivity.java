@@ -21,6 +21,7 @@ import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.LoadState;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -41,11 +42,14 @@ import com.lythe.media.im.messager.MessageBuildHelper;
 import com.lythe.media.im.messager.queue.MessageQueue;
 import com.lythe.media.protobuf.ImMessage;
 import com.lythe.media.ui.adapter.ChatInfoMessageAdapter;
+import com.lythe.media.ui.adapter.MessageViewPool;
 
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.jetbrains.annotations.NotNull;
 
+import kotlin.Unit;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -62,6 +66,7 @@ public class ChatInfoActivity extends AppCompatActivity {
     private ChatInfoViewModel viewModel;
     private ConversationEntity conversationEntity;
     private ProgressBar loadingIndicator;
+    private boolean stickToBottom = true;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -70,7 +75,15 @@ public class ChatInfoActivity extends AppCompatActivity {
         binding_ = ActivityChatInfoBinding.inflate(getLayoutInflater());
         loadingIndicator = binding_.loadingIndicator;
         recyclerView = binding_.chatInfoRecyclerView;
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        // 退出会话时条目回收进共享池，下一个会话直接复用
+        layoutManager.setRecycleChildrenOnDetach(true);
+        recyclerView.setLayoutManager(layoutManager);
+        MessageViewPool messageViewPool = MessageViewPool.getInstance(this);
+        // 深色模式、字体大小等变化后页面重建，池里按旧配置加载的条目要丢掉
+        messageViewPool.syncConfiguration(this);
+        recyclerView.setRecycledViewPool(messageViewPool.getRecycledViewPool());
         viewModel = new ViewModelProvider(this).get(ChatInfoViewModel.class);
         setContentView(binding_.getRoot());
         ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.main), (v, insets) -> {
@@ -79,58 +92,46 @@ public class ChatInfoActivity extends AppCompatActivity {
             return insets;
         });
 
-        adapter = new ChatInfoMessageAdapter(new ArrayList<>());
+        adapter = new ChatInfoMessageAdapter(messageViewPool);
         adapter.setOnAvatarClickListener(chatInfoMessageItem -> {
             Toast.makeText(this, chatInfoMessageItem.getContent(), Toast.LENGTH_LONG).show();
             startActivity(new Intent(this, FriendProfileCardActivity.class));
 
         });
         recyclerView.setAdapter(adapter);
+        // 向上翻历史、向下回到最新都由 Paging 按预取距离自动加载，这里只记录是否停在底部
         recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
             public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
                 super.onScrolled(recyclerView, dx, dy);
-                if(!recyclerView.canScrollVertically(-1)) {
-                    refreshMessages();
-                }
+                stickToBottom = !recyclerView.canScrollVertically(1);
             }
         });
-        viewModel.loadMessagePaged(conversationEntity.getConversationId());
-
-        final boolean[] isFirstLoad = {true};
-        viewModel.getIsLoading().observe(this, new Observer<Boolean>() {
+        // 新消息写库后 PagingSource 失效重载，停在底部时跟随到最新一条
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onChanged(Boolean aBoolean) {
-                if(aBoolean) {
-                    loadingIndicator.setVisibility(VISIBLE);
-                } else {
-                    loadingIndicator.setVisibility(GONE);
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (stickToBottom && positionStart + itemCount == adapter.getItemCount()) {
+                    recyclerView.scrollToPosition(adapter.getItemCount() - 1);
                 }
             }
         });
-        viewModel.getToastMsg().observe(this, new Observer<String>() {
-            @Override
-            public void onChanged(String s) {
-                if(s != null) {
-                    Toast.makeText(ChatInfoActivity.this, s, Toast.LENGTH_SHORT).show();
-                }
+        adapter.addLoadStateListener(loadStates -> {
+            boolean loading = loadStates.getRefresh() instanceof LoadState.Loading
+                    || loadStates.getPrepend() instanceof LoadState.Loading;
+            loadingIndicator.setVisibility(loading ? VISIBLE : GONE);
+            if (loadStates.getRefresh() instanceof LoadState.Error) {
+                Toast.makeText(ChatInfoActivity.this, "加载失败，请重试", Toast.LENGTH_SHORT).show();
             }
+            return Unit.INSTANCE;
         });
-        viewModel.getMessages().observe(this, new Observer<List<MessageEntity>>() {
-            @Override
-            public void onChanged(List<MessageEntity> messageEntities) {
-                adapter.updateMessageInfo(messageEntities);
-
-                if (isFirstLoad[0]) {
-//                    recyclerView.post(() -> {
-                        int lastPosition = messageEntities.size() - 1;
-                        recyclerView.scrollToPosition(lastPosition);
-//                    });
-                    // 3. 首次加载完成后，标志位置为false，后续加载不再滚动
-                    isFirstLoad[0] = false;
-                }
-            }
+        // 每次页面更新后在后台为新到的页预排版，滚动到这些条目时绑定不再测量文本
+        adapter.addOnPagesUpdatedListener(() -> {
+            adapter.precomputeLoadedText();
+            return Unit.INSTANCE;
         });
+        viewModel.getMessagePages().observe(this, pagingData -> adapter.submitData(getLifecycle(), pagingData));
+        viewModel.openConversation(conversationEntity.getConversationId());
 
         initChatInputViewEvents();
         initChatTopBarEvents();
@@ -151,11 +152,12 @@ public class ChatInfoActivity extends AppCompatActivity {
                                 conversationEntity.getConversationId(),
                                 text, true, 1024);
 
+                // 消息经 MessageQueue 写入本地库后由分页列表自动显示，这里只需回到底部
+                stickToBottom = true;
                 SendMessagesHelper.getInstance().sendMessage(imMessage, conversationEntity.getConversationId(), 1);
-                MessageEntity messageEntity = MessageConverter.INSTANCE.fromProto(imMessage, true);
-                adapter.addMessageInfo(messageEntity);
-
-                recyclerView.scrollToPosition(adapter.getItemCount() - 1);
+                if (adapter.getItemCount() > 0) {
+                    recyclerView.scrollToPosition(adapter.getItemCount() - 1);
+                }
 
             }
 
@@ -210,15 +212,14 @@ public class ChatInfoActivity extends AppCompatActivity {
 
     }
 
-    public void refreshMessages() {
-        viewModel.loadMessagePaged(conversationEntity.getConversationId());
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
         // 清理ViewBinding
         binding_ = null;
+        if (adapter != null) {
+            adapter.release();
+        }
 
         // 移除监听器
         if (chatInputView != null) {
@@ -2,92 +2,248 @@ package com.lythe.media.ui.adapter;
 
 import static android.view.View.GONE;
 
-import android.view.LayoutInflater;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.paging.ItemSnapshotList;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.imageview.ShapeableImageView;
 import com.lythe.media.R;
 import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.chats.utils.ChatTimeFormatter;
+import com.lythe.media.chats.utils.TimeUtils;
+import com.lythe.media.protobuf.ImMessageStatus;
 
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 聊天记录列表，数据由 ChatInfoViewModel 的 PagingData 提供，按时间正序
+ * 翻页、失效刷新都经 DiffUtil 在后台比对，只通知真正变化的条目；
+ * 只有发送状态变化时带 PAYLOAD_STATUS，绑定时只刷新状态控件，不重设文本
+ * 与前一条不在同一天时在条目顶部显示日期分隔
+ * PagingDataAdapter 不支持 setHasStableIds，条目身份由 DIFF_CALLBACK 按 msgId 判定
+ * 左右气泡是两种 viewType，View 取自应用级的 MessageViewPool，ViewHolder 在各会话间复用
+ */
+public class ChatInfoMessageAdapter extends PagingDataAdapter<MessageEntity, ChatInfoMessageAdapter.MessageViewHolder> {
+    public static final Object PAYLOAD_STATUS = new Object();
+    // 前一条变化（翻页插入、窗口丢页）后只重算日期分隔
+    private static final Object PAYLOAD_SEPARATOR = new Object();
+    public static final DiffUtil.ItemCallback<MessageEntity> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageEntity>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageEntity oldItem, @NonNull MessageEntity newItem) {
+            return oldItem.getMsgId().equals(newItem.getMsgId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageEntity oldItem, @NonNull MessageEntity newItem) {
+            // 只比较影响显示的列，不必逐字节比较 rawMessage
+            return Objects.equals(oldItem.getContent(), newItem.getContent())
+                    && oldItem.getStatus() == newItem.getStatus()
+                    && oldItem.isEdited() == newItem.isEdited()
+                    && oldItem.isRead() == newItem.isRead()
+                    && oldItem.isSelf() == newItem.isSelf()
+                    && Objects.equals(oldItem.getFilePath(), newItem.getFilePath());
+        }
 
-public class ChatInfoMessageAdapter extends RecyclerView.Adapter<ChatInfoMessageAdapter.MessageViewHolder> {
-    public List<MessageEntity> messageList;
+        @Override
+        public Object getChangePayload(@NonNull MessageEntity oldItem, @NonNull MessageEntity newItem) {
+            boolean onlyStatus = Objects.equals(oldItem.getContent(), newItem.getContent())
+                    && oldItem.isEdited() == newItem.isEdited()
+                    && oldItem.isSelf() == newItem.isSelf()
+                    && Objects.equals(oldItem.getFilePath(), newItem.getFilePath());
+            return onlyStatus ? PAYLOAD_STATUS : null;
+        }
+    };
+    private final MessageTextPrecomputer textPrecomputer = new MessageTextPrecomputer();
+    private final MessageViewPool viewPool;
+    // 所有条目共用一个监听，按 ViewHolder 当前位置取消息，回收进共享池时摘掉，池中条目不引用本 adapter
+    private final View.OnClickListener avatarClickListener = v -> {
+        MessageViewHolder holder = (MessageViewHolder) v.getTag();
+        int position = holder.getBindingAdapterPosition();
+        MessageEntity message = position == RecyclerView.NO_POSITION ? null : peek(position);
+        if (message != null && onAvatarClickListener != null) {
+            onAvatarClickListener.onItemClick(message);
+        }
+    };
     private OnAvatarClickListener onAvatarClickListener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 待重算日期分隔的消息
+    private final Set<String> separatorRefresh = new HashSet<>();
+    private final Runnable separatorRefreshTask = this::refreshSeparators;
+
+    public ChatInfoMessageAdapter(MessageViewPool viewPool) {
+        super(DIFF_CALLBACK);
+        this.viewPool = viewPool;
+        // 日期分隔取决于前一条：在某条之前插入或删除后，它的分隔要重算。
+        // 观察者回调时 adapter 还在分发本次变更，不能在这里再 notify，记下消息后到下一轮消息循环统一刷新
+        registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                scheduleSeparatorRefresh(positionStart + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                scheduleSeparatorRefresh(positionStart);
+            }
+        });
+    }
+
+    private void scheduleSeparatorRefresh(int position) {
+        MessageEntity message = position < getItemCount() ? peek(position) : null;
+        if (message == null) {
+            return;
+        }
+        if (separatorRefresh.isEmpty()) {
+            mainHandler.post(separatorRefreshTask);
+        }
+        separatorRefresh.add(message.getMsgId());
+    }
+
+    /**
+     * 按 msgId 找回待刷新条目的当前位置，期间又有插入删除也不会刷错条目
+     */
+    private void refreshSeparators() {
+        ItemSnapshotList<MessageEntity> items = snapshot();
+        for (int i = 0; i < items.size() && !separatorRefresh.isEmpty(); i++) {
+            MessageEntity item = items.get(i);
+            if (item != null && separatorRefresh.remove(item.getMsgId())) {
+                notifyItemChanged(i, PAYLOAD_SEPARATOR);
+            }
+        }
+        separatorRefresh.clear();
+    }
+
+    /**
+     * 分页更新后调用，为当前已加载窗口内还没排版的消息在后台预排版
+     */
+    public void precomputeLoadedText() {
+        textPrecomputer.precompute(snapshot().getItems());
+    }
+
+    public void release() {
+        mainHandler.removeCallbacks(separatorRefreshTask);
+        separatorRefresh.clear();
+        textPrecomputer.release();
+    }
 
-    public ChatInfoMessageAdapter(List<MessageEntity> chatInfoMessageItemList) {
-        this.messageList = chatInfoMessageItemList;
+    @Override
+    public int getItemViewType(int position) {
+        MessageEntity message = peek(position);
+        return message != null && message.isSelf() ? MessageViewPool.VIEW_TYPE_RIGHT : MessageViewPool.VIEW_TYPE_LEFT;
     }
 
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.item_chat_info_message, parent, false);
-        return new MessageViewHolder(view);
+        return new MessageViewHolder(viewPool.obtainView(viewType, parent), viewType);
     }
 
     @Override
-    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        MessageEntity message = messageList.get(position);
-        holder.textView.setText(message.getContent());
-        holder.textViewByMe.setText(message.getContent());
-        boolean isSentByMe = message.isSelf();
-
-        holder.leftMessageLinearLayout.setVisibility(isSentByMe ? GONE : View.VISIBLE);
-        holder.rightMessageLinearLayout.setVisibility(isSentByMe ? View.VISIBLE : GONE);
-        // 设置头像点击事件
-        View.OnClickListener avatarClickListener = v -> {
-            if (onAvatarClickListener != null) {
-                onAvatarClickListener.onItemClick(message);
-            }
-        };
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        holder.avatar.setOnClickListener(null);
+    }
 
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
+        MessageEntity message = getItem(position);
+        if (message == null) {
+            return;
+        }
+        // 命中预排版缓存时不在主线程测量文本；排版参数按气泡此刻的状态取，
+        // 创建之后字号、字体缩放等变化过的条目不会拿到按旧参数排版的文本。
+        // 条目可能来自共享池或预加载，从未经过本 adapter 的 onCreateViewHolder，
+        // 所以在绑定时把参数交给预排版器，参数不变时 setParams 直接返回
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(holder.bubble);
+        textPrecomputer.setParams(params);
+        PrecomputedTextCompat precomputed = textPrecomputer.get(message, params);
+        if (precomputed == null || !setPrecomputedText(holder.bubble, precomputed)) {
+            holder.bubble.setText(message.getContent());
+        }
         holder.avatar.setOnClickListener(avatarClickListener);
-        holder.avatarRight.setOnClickListener(avatarClickListener);
-        holder.progressBar.setVisibility(GONE);
+        bindStatus(holder, message);
+        bindSeparator(holder, position, message);
     }
 
     @Override
-    public int getItemCount() {
-        return messageList.size();
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position, @NonNull List<Object> payloads) {
+        MessageEntity message = getItem(position);
+        boolean partial = message != null && !payloads.isEmpty();
+        for (Object payload : payloads) {
+            partial &= payload == PAYLOAD_STATUS || payload == PAYLOAD_SEPARATOR;
+        }
+        if (!partial) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        if (payloads.contains(PAYLOAD_STATUS)) {
+            bindStatus(holder, message);
+        }
+        if (payloads.contains(PAYLOAD_SEPARATOR)) {
+            bindSeparator(holder, position, message);
+        }
     }
 
-    static class MessageViewHolder extends RecyclerView.ViewHolder {
-        TextView textView, textViewByMe;
-        ShapeableImageView avatar,avatarRight;
-        LinearLayout leftMessageLinearLayout, rightMessageLinearLayout;
-        ProgressBar progressBar;
-        public MessageViewHolder(@NonNull View itemView) {
-            super(itemView);
-            textView = itemView.findViewById(R.id.chat_info_message_text);
-            textViewByMe = itemView.findViewById(R.id.right_chat_info_message_text);
-            avatar = itemView.findViewById(R.id.chat_info_message_avatar);
-            avatarRight = itemView.findViewById(R.id.chat_info_message_avatar_right);
-            leftMessageLinearLayout= itemView.findViewById(R.id.left_chat_info_message);
-            rightMessageLinearLayout= itemView.findViewById(R.id.right_chat_info_message);
-            progressBar = itemView.findViewById(R.id.right_message_loading);
+    /**
+     * 参数不一致时 setPrecomputedText 抛 IllegalArgumentException，返回 false 由调用方退回 setText
+     */
+    private static boolean setPrecomputedText(TextView bubble, PrecomputedTextCompat text) {
+        try {
+            TextViewCompat.setPrecomputedText(bubble, text);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
-    public void updateMessageInfo(List<MessageEntity> messageList) {
-        Collections.reverse(messageList);
-        this.messageList = messageList;
 
-        notifyDataSetChanged();
+    private void bindSeparator(MessageViewHolder holder, int position, MessageEntity message) {
+        // peek 不触发分页加载；前一条未加载时先显示，加载进来后由上面的观察者重算
+        MessageEntity previous = position > 0 ? peek(position - 1) : null;
+        boolean show = previous == null
+                || !ChatTimeFormatter.getInstance().isSameDay(previous.getTimestamp(), message.getTimestamp());
+        holder.timestamp.setVisibility(show ? View.VISIBLE : GONE);
+        if (show) {
+            holder.timestamp.setText(TimeUtils.formatDateSeparator(message.getTimestamp()));
+        }
     }
-    public void addMessageInfo(MessageEntity message) {
-        this.messageList.add(message);
-        notifyItemInserted(messageList.size() - 1);
+
+    private void bindStatus(MessageViewHolder holder, MessageEntity message) {
+        if (holder.progressBar == null) {
+            return;
+        }
+        boolean sending = message.getStatus() == ImMessageStatus.SENDING_VALUE;
+        holder.progressBar.setVisibility(sending ? View.VISIBLE : GONE);
     }
 
+    static class MessageViewHolder extends RecyclerView.ViewHolder {
+        final TextView bubble, timestamp;
+        final ShapeableImageView avatar;
+        @Nullable
+        final ProgressBar progressBar; // 只有自己发送的一侧有
+        public MessageViewHolder(@NonNull View itemView, int viewType) {
+            super(itemView);
+            boolean right = viewType == MessageViewPool.VIEW_TYPE_RIGHT;
+            bubble = itemView.findViewById(right ? R.id.right_chat_info_message_text : R.id.chat_info_message_text);
+            avatar = itemView.findViewById(right ? R.id.chat_info_message_avatar_right : R.id.chat_info_message_avatar);
+            progressBar = right ? itemView.findViewById(R.id.right_message_loading) : null;
+            timestamp = itemView.findViewById(R.id.chat_info_message_timestamp);
+            avatar.setTag(this);
+        }
+    }
     public void setOnAvatarClickListener(OnAvatarClickListener listener) {
         this.onAvatarClickListener = listener;
     }
@@ -1,6 +1,5 @@
 package com.lythe.media.ui.adapter;
 
-import android.annotation.SuppressLint;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,22 +7,38 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.lythe.media.R;
 import com.lythe.media.chats.data.entity.ConversationEntity;
+import com.lythe.media.chats.data.model.ConversationListModel;
 import com.lythe.media.chats.utils.TimeUtils;
 import com.lythe.media.chats.view.UnreadBadgeView;
 
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * 会话列表，直接读 ConversationListModel；模型的插入/移动/变更事件经 getUpdateCallback 转成局部通知
+ * 条目 id 按 conversationId 分配，预览变化（PAYLOAD_PREVIEW）只重设最后消息、时间和未读数
+ */
 public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatViewHolder> {
-    private List<ConversationEntity> chatList;
+    private final ConversationListModel conversationList;
+    private final ListUpdateCallback updateCallback = new AdapterListUpdateCallback(this);
+    // conversationId -> 稳定 id，直接用 hashCode 可能碰撞
+    private final Map<String, Long> stableIds = new HashMap<>();
     private OnItemClickListener onItemClickListener;
 
-    public ChatListAdapter(List<ConversationEntity> chatList) {
-        this.chatList = chatList;
+    public ChatListAdapter(ConversationListModel conversationList) {
+        this.conversationList = conversationList;
+        setHasStableIds(true);
+    }
+
+    public ListUpdateCallback getUpdateCallback() {
+        return updateCallback;
     }
 
     public static class ChatViewHolder extends RecyclerView.ViewHolder {
@@ -47,26 +62,53 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
     @Override
     public ChatViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_chat, parent, false);
-        return new ChatViewHolder(view);
+        ChatViewHolder holder = new ChatViewHolder(view);
+        // 局部绑定不会重设监听，点击时按当前位置取最新条目
+        holder.rootView.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (onItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                onItemClickListener.onItemClick(conversationList.get(position));
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
-        ConversationEntity chatItem = chatList.get(position);
+        ConversationEntity chatItem = conversationList.get(position);
         holder.name.setText(chatItem.getConversationName());
+        bindPreview(holder, chatItem);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ChatViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.contains(ConversationListModel.PAYLOAD_PREVIEW)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        bindPreview(holder, conversationList.get(position));
+    }
+
+    private void bindPreview(ChatViewHolder holder, ConversationEntity chatItem) {
         holder.lastMessage.setText(chatItem.getLastMessage());
         holder.timestamp.setText(TimeUtils.formatChatTime(chatItem.getLastMessageTime()));
         holder.unreadBadgeView.setUnreadCount(chatItem.getUnreadCount());
-        holder.rootView.setOnClickListener(v -> {
-            if (onItemClickListener != null) {
-                onItemClickListener.onItemClick(chatItem);
-            }
-        });
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String conversationId = conversationList.get(position).getConversationId();
+        Long id = stableIds.get(conversationId);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(conversationId, id);
+        }
+        return id;
     }
 
     @Override
     public int getItemCount() {
-        return chatList.size();
+        return conversationList.size();
     }
     public void setOnItemClickListener(OnItemClickListener listener) {
         this.onItemClickListener = listener;
@@ -74,11 +116,4 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
     public interface OnItemClickListener {
         void onItemClick(ConversationEntity chatItem);
     }
-
-    @SuppressLint("NotifyDataSetChanged")
-    public void updateChatList(List<ConversationEntity> chatList) {
-        this.chatList.clear();
-        this.chatList.addAll(chatList);
-        notifyDataSetChanged();
-    }
 }
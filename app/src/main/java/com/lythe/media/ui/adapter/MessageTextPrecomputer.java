@@ -0,0 +1,93 @@
+package com.lythe.media.ui.adapter;
+
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.lythe.media.chats.data.entity.MessageEntity;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 消息气泡文本的预排版
+ * 分页加载完成后在后台线程为新页的消息构建 PrecomputedTextCompat（断行、字形测量），
+ * 按 msgId 缓存；绑定时命中缓存只需 setPrecomputedText，主线程不再测量文本。
+ * 缓存与排版参数绑定，参数变化（字号、字体缩放等）时整体清空。
+ */
+public class MessageTextPrecomputer {
+    private static final int CACHE_SIZE = 256;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MessageText-Precompute");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LruCache<String, PrecomputedTextCompat> cache = new LruCache<>(CACHE_SIZE);
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    @Nullable
+    private volatile PrecomputedTextCompat.Params params;
+
+    /**
+     * 由气泡 TextView 的排版参数决定，每次绑定时设置，与当前参数相同时不做任何事
+     */
+    public void setParams(@NonNull PrecomputedTextCompat.Params params) {
+        if (params.equals(this.params)) {
+            return;
+        }
+        this.params = params;
+        cache.evictAll();
+    }
+
+    /**
+     * 取缓存的预排版文本；内容已变化（编辑）或与 textParams 不一致时返回 null
+     * @param textParams 目标 TextView 绑定时的 TextViewCompat.getTextMetricsParams
+     */
+    @Nullable
+    public PrecomputedTextCompat get(MessageEntity message, PrecomputedTextCompat.Params textParams) {
+        PrecomputedTextCompat text = cache.get(message.getMsgId());
+        if (text == null
+                || !TextUtils.equals(text.toString(), message.getContent())
+                || !text.getParams().equals(textParams)) {
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * 为尚未缓存的消息排队预排版，重复提交的会被跳过
+     */
+    public void precompute(List<MessageEntity> messages) {
+        PrecomputedTextCompat.Params current = params;
+        if (current == null) {
+            return;
+        }
+        for (MessageEntity message : messages) {
+            if (message == null || TextUtils.isEmpty(message.getContent())
+                    || get(message, current) != null || !pending.add(message.getMsgId())) {
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    // 排队期间参数已变则丢弃，等下一轮按新参数计算
+                    if (current.equals(params)) {
+                        cache.put(message.getMsgId(), PrecomputedTextCompat.create(message.getContent(), current));
+                    }
+                } finally {
+                    pending.remove(message.getMsgId());
+                }
+            });
+        }
+    }
+
+    public void release() {
+        executor.shutdownNow();
+        cache.evictAll();
+    }
+}
@@ -0,0 +1,162 @@
+package com.lythe.media.ui.adapter;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.LayoutRes;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.appcompat.view.ContextThemeWrapper;
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.lythe.media.R;
+
+import java.util.ArrayDeque;
+
+/**
+ * 聊天记录条目的应用级视图池，所有 ChatInfoActivity 共用
+ * 1. 一个 RecycledViewPool：退出会话时条目回收到这里，打开下一个会话直接复用 ViewHolder
+ * 2. 启动时用 AsyncLayoutInflater 在后台线程预先加载左右气泡布局，
+ *    onCreateViewHolder 优先取预加载的 View，打开会话的关键路径上不再解析布局
+ * 条目都用 应用 Context + AppTheme 加载，池中的 View 不持有任何 Activity。
+ * 加载用的 Context 按 Activity 的配置（日夜间、字体缩放、语言、密度）创建，
+ * 会话页发现配置变了时丢弃按旧配置加载的 View 和 ViewHolder，见 syncConfiguration。
+ * 只能在主线程访问
+ */
+public class MessageViewPool {
+    private static final String TAG = "MessageViewPool";
+    public static final int VIEW_TYPE_LEFT = R.layout.item_chat_message_left;
+    public static final int VIEW_TYPE_RIGHT = R.layout.item_chat_message_right;
+    // 一屏大约 8~10 条气泡，两侧各留一屏多一点
+    private static final int MAX_RECYCLED_PER_TYPE = 16;
+    private static final int PREWARM_PER_TYPE = 8;
+    // 这些配置变化后，按旧配置加载的气泡颜色、字号、文字方向不再正确
+    private static final int INFLATION_CONFIG_MASK = ActivityInfo.CONFIG_UI_MODE
+            | ActivityInfo.CONFIG_FONT_SCALE
+            | ActivityInfo.CONFIG_LOCALE
+            | ActivityInfo.CONFIG_LAYOUT_DIRECTION
+            | ActivityInfo.CONFIG_DENSITY;
+
+    private static volatile MessageViewPool instance;
+
+    private final Context appContext;
+    private final SparseArray<ArrayDeque<View>> prewarmedViews = new SparseArray<>();
+    // 以下随配置整体替换
+    private Configuration inflatedWith;
+    private Context inflationContext;
+    private RecyclerView.RecycledViewPool recycledViewPool;
+    // 仅用于给预加载的布局生成 RecyclerView.LayoutParams，不会显示
+    private RecyclerView layoutParent;
+    // 每次按新配置重建加一，旧配置下还在进行的预加载结果直接丢弃
+    private int generation;
+    private boolean prewarmRequested;
+
+    public static MessageViewPool getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MessageViewPool.class) {
+                if (instance == null) {
+                    instance = new MessageViewPool(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private MessageViewPool(Context appContext) {
+        this.appContext = appContext;
+        prewarmedViews.put(VIEW_TYPE_LEFT, new ArrayDeque<>());
+        prewarmedViews.put(VIEW_TYPE_RIGHT, new ArrayDeque<>());
+        rebuild(appContext.getResources().getConfiguration());
+    }
+
+    /**
+     * 会话页在 setRecycledViewPool 之前调用，传入 Activity。
+     * 配置与加载池中 View 时不同（切换深色模式、调整字体大小、切换语言等）时，
+     * 丢弃预加载的 View 并换一个新的 RecycledViewPool，之后按 Activity 的配置加载；
+     * 已经预加载过的会按新配置重新预加载
+     */
+    @MainThread
+    public void syncConfiguration(Context context) {
+        Configuration config = context.getResources().getConfiguration();
+        if ((inflatedWith.diff(config) & INFLATION_CONFIG_MASK) == 0) {
+            return;
+        }
+        Log.d(TAG, "Configuration changed, dropping pooled message views");
+        rebuild(config);
+        if (prewarmRequested) {
+            inflateNext(new AsyncLayoutInflater(inflationContext), generation, 0);
+        }
+    }
+
+    private void rebuild(Configuration config) {
+        generation++;
+        inflatedWith = new Configuration(config);
+        inflationContext = new ContextThemeWrapper(appContext.createConfigurationContext(config), R.style.AppTheme);
+        // 换新池而不是 clear：旧页面销毁时回收的 ViewHolder 进入旧池，不会混进来
+        recycledViewPool = new RecyclerView.RecycledViewPool();
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_LEFT, MAX_RECYCLED_PER_TYPE);
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_RIGHT, MAX_RECYCLED_PER_TYPE);
+        layoutParent = new RecyclerView(inflationContext);
+        layoutParent.setLayoutManager(new LinearLayoutManager(inflationContext));
+        prewarmedViews.get(VIEW_TYPE_LEFT).clear();
+        prewarmedViews.get(VIEW_TYPE_RIGHT).clear();
+    }
+
+    /**
+     * 与当前配置对应的池；配置变化后会换成新对象，应在 syncConfiguration 之后获取
+     */
+    public RecyclerView.RecycledViewPool getRecycledViewPool() {
+        return recycledViewPool;
+    }
+
+    /**
+     * 在后台线程预加载左右气泡各 PREWARM_PER_TYPE 个；重复调用无效
+     * AsyncLayoutInflater 的请求队列只有 10 个，逐个串行提交，避免主线程阻塞在入队上
+     */
+    @MainThread
+    public void prewarm() {
+        if (prewarmRequested) {
+            return;
+        }
+        prewarmRequested = true;
+        inflateNext(new AsyncLayoutInflater(inflationContext), generation, 0);
+    }
+
+    private void inflateNext(AsyncLayoutInflater inflater, int startedGeneration, int index) {
+        if (startedGeneration != generation) {
+            return;
+        }
+        if (index >= PREWARM_PER_TYPE * 2) {
+            Log.d(TAG, "Prewarmed " + index + " message views");
+            return;
+        }
+        int layout = index % 2 == 0 ? VIEW_TYPE_LEFT : VIEW_TYPE_RIGHT;
+        inflater.inflate(layout, layoutParent, (view, resid, parent) -> {
+            if (startedGeneration == generation) {
+                prewarmedViews.get(resid).add(view);
+            }
+            inflateNext(inflater, startedGeneration, index + 1);
+        });
+    }
+
+    /**
+     * 取一个预加载的 View，用完后才在当前线程同步加载
+     */
+    @NonNull
+    public View obtainView(@LayoutRes int layout, ViewGroup parent) {
+        ArrayDeque<View> views = prewarmedViews.get(layout);
+        View view = views == null ? null : views.poll();
+        if (view != null) {
+            return view;
+        }
+        return LayoutInflater.from(inflationContext).inflate(layout, parent, false);
+    }
+}
@@ -0,0 +1,257 @@
+package com.lythe.media.chats.data.model;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.lythe.media.chats.data.entity.ConversationEntity;
+import com.lythe.media.chats.data.entity.MessageEntity;
+import com.lythe.media.protobuf.ImConversationType;
+import com.lythe.media.protobuf.ImMessageStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比对任务先排队，由用例决定何时执行；落地直接在当前线程执行，相当于主线程
+ */
+public class ConversationListModelTest {
+    private final List<Runnable> pendingDiffs = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+    private ConversationListModel model;
+
+    @Before
+    public void setUp() {
+        model = new ConversationListModel(pendingDiffs::add, Runnable::run);
+        model.addListener(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("insert " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("remove " + position + " " + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                events.add("move " + fromPosition + " " + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                events.add("change " + position + " " + count
+                        + (payload == ConversationListModel.PAYLOAD_PREVIEW ? " preview" : ""));
+            }
+        });
+    }
+
+    @Test
+    public void submitAllSortsNewestFirstAndKeepsLatestDuplicate() {
+        submitAndLand(conversation("a", 100, 0),
+                conversation("b", 300, 0),
+                conversation("c", 200, 0),
+                conversation("a", 400, 2));
+        assertOrder("a", "b", "c");
+        assertEquals(2, model.get(0).getUnreadCount());
+        assertEquals(0, model.indexOf("a"));
+        assertEquals(-1, model.indexOf("missing"));
+        assertEquals(Arrays.asList("insert 0 3"), events);
+    }
+
+    @Test
+    public void resubmittingSameContentDispatchesNothing() {
+        submitAndLand(conversation("a", 100, 0), conversation("b", 200, 0));
+        events.clear();
+        submitAndLand(conversation("a", 100, 0), conversation("b", 200, 0));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void newMessageMovesConversationToTop() {
+        submitAndLand(conversation("a", 300, 0), conversation("b", 200, 0), conversation("c", 100, 0));
+        events.clear();
+
+        assertTrue(model.applyMessage(message("c", 400, "new")));
+
+        assertOrder("c", "a", "b");
+        assertEquals("new", model.get(0).getLastMessage());
+        assertEquals(1, model.get(0).getUnreadCount());
+        assertEquals(Arrays.asList("move 2 0", "change 0 1 preview"), events);
+    }
+
+    @Test
+    public void olderMessageOnlyCountsUnread() {
+        submitAndLand(conversation("a", 300, 0), conversation("b", 200, 0));
+        events.clear();
+
+        assertTrue(model.applyMessage(message("b", 50, "late")));
+
+        assertOrder("a", "b");
+        assertEquals("last b", model.get(1).getLastMessage());
+        assertEquals(200, model.get(1).getLastMessageTime());
+        assertEquals(1, model.get(1).getUnreadCount());
+        assertEquals(Arrays.asList("change 1 1 preview"), events);
+    }
+
+    @Test
+    public void unknownConversationIsInsertedInOrder() {
+        submitAndLand(conversation("a", 300, 0), conversation("b", 100, 0));
+        events.clear();
+
+        assertFalse(model.applyMessage(message("n", 200, "hi")));
+        model.insert(message("n", 200, "hi"), "New");
+
+        assertOrder("a", "n", "b");
+        assertEquals("New", model.get(1).getConversationName());
+        assertEquals(1, model.get(1).getUnreadCount());
+        assertEquals(Arrays.asList("insert 1 1"), events);
+    }
+
+    @Test
+    public void messagesDuringDiffAreReplayedAfterItLands() {
+        submitAndLand(conversation("a", 300, 0), conversation("b", 200, 0));
+        model.submitAll(Arrays.asList(conversation("a", 300, 0), conversation("b", 200, 0),
+                conversation("c", 100, 0)));
+
+        // 比对进行中：快照里有的会话、新会话都暂存，列表不变
+        assertTrue(model.applyMessage(message("c", 500, "to c")));
+        model.insert(message("n", 400, "to n"), "New");
+        assertFalse(model.applyMessage(message("unknown", 450, "x")));
+        assertOrder("a", "b");
+
+        runPendingDiffs();
+
+        assertOrder("c", "n", "a", "b");
+        assertEquals("to c", model.get(0).getLastMessage());
+        assertEquals(1, model.get(0).getUnreadCount());
+        assertEquals(1, model.get(1).getUnreadCount());
+    }
+
+    @Test
+    public void replaySkipsMessageAlreadyInSnapshot() {
+        submitAndLand(conversation("a", 300, 0));
+        // 快照读库时已经包含了这条消息
+        model.submitAll(Arrays.asList(new ConversationEntity("a", ImConversationType.PRIVATE_CHAT, "A",
+                "hello", 500, 1, false)));
+        assertTrue(model.applyMessage(message("a", 500, "hello")));
+
+        runPendingDiffs();
+
+        assertEquals(1, model.size());
+        assertEquals(1, model.get(0).getUnreadCount());
+    }
+
+    @Test
+    public void onlyLatestSubmitLands() {
+        model.submitAll(Arrays.asList(conversation("old", 100, 0)));
+        model.submitAll(Arrays.asList(conversation("a", 200, 0), conversation("b", 100, 0)));
+
+        runPendingDiffs();
+
+        assertOrder("a", "b");
+        assertFalse(model.contains("old"));
+        assertEquals(Arrays.asList("insert 0 2"), events);
+    }
+
+    @Test
+    public void openConversationIsClearedAndDoesNotCountUnread() {
+        submitAndLand(conversation("a", 300, 2), conversation("b", 200, 0));
+        events.clear();
+
+        model.setOpenConversations(Collections.singleton("b"));
+        assertTrue(events.isEmpty());
+        model.setOpenConversations(Collections.singleton("a"));
+        assertEquals(0, model.get(0).getUnreadCount());
+        assertEquals(Arrays.asList("change 0 1 preview"), events);
+
+        assertTrue(model.applyMessage(message("a", 400, "while open")));
+        assertEquals("while open", model.get(0).getLastMessage());
+        assertEquals(0, model.get(0).getUnreadCount());
+
+        model.setOpenConversations(Collections.emptySet());
+        assertTrue(model.applyMessage(message("a", 500, "after close")));
+        assertEquals(1, model.get(0).getUnreadCount());
+    }
+
+    @Test
+    public void newOpenConversationIsInsertedRead() {
+        submitAndLand(conversation("a", 300, 0));
+        model.setOpenConversations(Collections.singleton("n"));
+
+        model.insert(message("n", 400, "hi"), "New");
+
+        assertOrder("n", "a");
+        assertEquals(0, model.get(0).getUnreadCount());
+    }
+
+    @Test
+    public void conversationOpenedDuringDiffIsClearedAfterLanding() {
+        submitAndLand(conversation("a", 300, 0));
+        // 快照在清空未读之前读出
+        model.submitAll(Arrays.asList(conversation("a", 300, 3)));
+        model.setOpenConversations(Collections.singleton("a"));
+
+        runPendingDiffs();
+
+        assertEquals(0, model.get(0).getUnreadCount());
+    }
+
+    private void submitAndLand(ConversationEntity... entities) {
+        model.submitAll(Arrays.asList(entities));
+        runPendingDiffs();
+    }
+
+    private void runPendingDiffs() {
+        List<Runnable> diffs = new ArrayList<>(pendingDiffs);
+        pendingDiffs.clear();
+        for (Runnable diff : diffs) {
+            diff.run();
+        }
+    }
+
+    private void assertOrder(String... ids) {
+        List<String> actual = new ArrayList<>();
+        for (ConversationEntity entity : model.snapshot()) {
+            actual.add(entity.getConversationId());
+        }
+        assertEquals(Arrays.asList(ids), actual);
+    }
+
+    private static ConversationEntity conversation(String id, long lastMessageTime, int unread) {
+        return new ConversationEntity(id, ImConversationType.PRIVATE_CHAT, id.toUpperCase(),
+                "last " + id, lastMessageTime, unread, false);
+    }
+
+    private static MessageEntity message(String conversationId, long timestamp, String content) {
+        return new MessageEntity(
+                conversationId + "_" + timestamp,
+                conversationId,
+                ImConversationType.PRIVATE_CHAT,
+                "sender",
+                "me",
+                0,
+                content,
+                "",
+                0,
+                timestamp,
+                0,
+                false,
+                ImMessageStatus.DELIVERED_VALUE,
+                null,
+                0,
+                0,
+                false,
+                false,
+                null,
+                null);
+    }
+}
@@ -0,0 +1,76 @@
+package com.lythe.media.chats.data.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSearchTokenizerTest {
+
+    @Test
+    public void cjkIsSplitIntoOverlappingBigramsWithTrailingUnigram() {
+        assertEquals("中国 国人 人", MessageSearchTokenizer.tokenize("中国人"));
+        assertEquals("好", MessageSearchTokenizer.tokenize("好"));
+        assertEquals("こん んに にち ちは は", MessageSearchTokenizer.tokenize("こんにちは"));
+    }
+
+    @Test
+    public void latinWordsAreLowercasedAndSplitOnPunctuation() {
+        assertEquals("hello world", MessageSearchTokenizer.tokenize("Hello, World!"));
+        assertEquals("abc123 x", MessageSearchTokenizer.tokenize("ABC123  x"));
+    }
+
+    @Test
+    public void mixedScriptsStartNewRuns() {
+        assertEquals("meet 明天 天 at 3pm", MessageSearchTokenizer.tokenize("Meet明天 at 3pm"));
+    }
+
+    @Test
+    public void textWithoutWordCharactersIsNotIndexed() {
+        assertNull(MessageSearchTokenizer.tokenize(null));
+        assertNull(MessageSearchTokenizer.tokenize(""));
+        assertNull(MessageSearchTokenizer.tokenize("!?，。 …"));
+    }
+
+    @Test
+    public void cjkQueryBecomesBigramPhrase() {
+        assertEquals("\"中国 国人\"", MessageSearchTokenizer.toMatchQuery("中国人"));
+        assertEquals("\"中国\"", MessageSearchTokenizer.toMatchQuery("中国"));
+    }
+
+    @Test
+    public void singleCharacterAndLatinQueriesUsePrefixMatch() {
+        assertEquals("中*", MessageSearchTokenizer.toMatchQuery("中"));
+        assertEquals("hel*", MessageSearchTokenizer.toMatchQuery("Hel"));
+    }
+
+    @Test
+    public void queryRunsAreJoinedWithAnd() {
+        assertEquals("hello* \"明天\" 3pm*", MessageSearchTokenizer.toMatchQuery("hello 明天, 3PM"));
+    }
+
+    @Test
+    public void queryOperatorsAreStripped() {
+        // FTS 语法字符不会原样进入 MATCH 表达式
+        assertEquals("a* b*", MessageSearchTokenizer.toMatchQuery("a* \"b\""));
+        assertNull(MessageSearchTokenizer.toMatchQuery("\"*\" -"));
+    }
+
+    @Test
+    public void blankQueryIsRejected() {
+        assertNull(MessageSearchTokenizer.toMatchQuery(null));
+        assertNull(MessageSearchTokenizer.toMatchQuery("   "));
+    }
+
+    @Test
+    public void everySubstringOfIndexedTextMatchesItsQueryTokens() {
+        String indexed = " " + MessageSearchTokenizer.tokenize("我们明天去图书馆") + " ";
+        String[] substrings = {"明天", "天去", "图书馆", "们明天去"};
+        for (String substring : substrings) {
+            String query = MessageSearchTokenizer.toMatchQuery(substring);
+            String phrase = query.substring(1, query.length() - 1);
+            assertTrue(substring, indexed.contains(" " + phrase + " "));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.lythe.media.chats.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 边界按调用时的当前日期计算，用例的时间戳都相对今天构造
+ */
+public class ChatTimeFormatterTest {
+    private static final String[] WEEK_DAYS = {"周日", "周一", "周二", "周三", "周四", "周五", "周六"};
+    private static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    private TimeZone originalZone;
+    private ChatTimeFormatter formatter;
+    private LocalDate today;
+
+    @Before
+    public void setUp() {
+        originalZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(ZONE));
+        formatter = ChatTimeFormatter.getInstance();
+        formatter.invalidate();
+        today = LocalDate.now(ZONE);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(originalZone);
+        formatter.invalidate();
+    }
+
+    @Test
+    public void todayShowsTime() {
+        assertEquals("00:00", formatter.formatChatTime(at(today, 0, 0)));
+        assertEquals("00:05", formatter.formatChatTime(at(today, 0, 5)));
+        assertEquals("今天", formatter.formatDateSeparator(at(today, 0, 5)));
+    }
+
+    @Test
+    public void yesterdayShowsLabel() {
+        LocalDate yesterday = today.minusDays(1);
+        assertEquals("昨天", formatter.formatChatTime(at(yesterday, 23, 59)));
+        assertEquals("昨天", formatter.formatDateSeparator(at(yesterday, 0, 0)));
+    }
+
+    @Test
+    public void withinWeekShowsWeekday() {
+        for (int daysAgo = 2; daysAgo <= 6; daysAgo++) {
+            LocalDate day = today.minusDays(daysAgo);
+            String expected = WEEK_DAYS[day.getDayOfWeek().getValue() % 7];
+            assertEquals(expected, formatter.formatChatTime(at(day, 12, 0)));
+            assertEquals(expected, formatter.formatDateSeparator(at(day, 12, 0)));
+        }
+    }
+
+    @Test
+    public void earlierThisYearShowsMonthAndDay() {
+        LocalDate day = today.minusDays(7);
+        assumeTrue(day.getYear() == today.getYear());
+        assertEquals(String.format("%02d/%02d", day.getMonthValue(), day.getDayOfMonth()),
+                formatter.formatChatTime(at(day, 12, 0)));
+        assertEquals(day.getMonthValue() + "月" + day.getDayOfMonth() + "日",
+                formatter.formatDateSeparator(at(day, 12, 0)));
+    }
+
+    @Test
+    public void previousYearsShowFullDate() {
+        LocalDate day = LocalDate.of(today.getYear() - 1, 3, 9);
+        assertEquals(day.getYear() + "/03/09", formatter.formatChatTime(at(day, 8, 30)));
+        assertEquals(day.getYear() + "年3月9日", formatter.formatDateSeparator(at(day, 8, 30)));
+    }
+
+    @Test
+    public void sameMinuteReturnsCachedInstance() {
+        long timestamp = at(today.minusYears(2), 10, 15);
+        assertSame(formatter.formatChatTime(timestamp), formatter.formatChatTime(timestamp + 30_000));
+    }
+
+    @Test
+    public void sameDayFollowsLocalMidnight() {
+        LocalDate day = today.minusDays(3);
+        assertTrue(formatter.isSameDay(at(day, 0, 0), at(day, 23, 59)));
+        assertFalse(formatter.isSameDay(at(day, 23, 59), at(day.plusDays(1), 0, 0)));
+    }
+
+    @Test
+    public void invalidateAppliesNewTimeZone() {
+        LocalDate day = today.minusYears(1);
+        // 上海 00:30 在 UTC 仍是前一天
+        long timestamp = at(day, 0, 30);
+        String inShanghai = formatter.formatDateSeparator(timestamp);
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        formatter.invalidate();
+        LocalDate utcDay = day.minusDays(1);
+        assertEquals(utcDay.getYear() + "年" + utcDay.getMonthValue() + "月" + utcDay.getDayOfMonth() + "日",
+                formatter.formatDateSeparator(timestamp));
+        assertEquals(day.getYear() + "年" + day.getMonthValue() + "月" + day.getDayOfMonth() + "日", inShanghai);
+    }
+
+    private static long at(LocalDate date, int hour, int minute) {
+        return LocalDateTime.of(date, LocalTime.of(hour, minute)).atZone(ZONE).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,280 @@
+package com.lythe.media.im;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedFilePersistenceTest {
+    private static final String CLIENT_ID = "android-client-test";
+    private static final String SERVER_URI = "tcp://localhost:1883";
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("mqtt-persistence").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(baseDir);
+    }
+
+    @Test
+    public void putGetAndKeys() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.put("s-2", record("h2", null));
+
+        assertRecord(persistence.get("s-1"), "h1", "p1");
+        assertRecord(persistence.get("s-2"), "h2", null);
+        assertNull(persistence.get("s-3"));
+        assertTrue(persistence.containsKey("s-1"));
+        assertEquals(keys("s-1", "s-2"), keys(persistence));
+        persistence.close();
+    }
+
+    @Test
+    public void entriesSurviveCloseAndReopen() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.put("s-2", record("h2", "p2"));
+        persistence.put("s-1", record("h1", "p1 again"));
+        persistence.remove("s-2");
+        persistence.close();
+
+        // 同一实例再次打开，与 Paho 构造时关闭、connect 时重新打开的顺序一致
+        persistence.open(CLIENT_ID, SERVER_URI);
+        assertEquals(keys("s-1"), keys(persistence));
+        assertRecord(persistence.get("s-1"), "h1", "p1 again");
+        persistence.close();
+
+        // 新实例（进程重启）
+        MappedFilePersistence restarted = open();
+        assertEquals(keys("s-1"), keys(restarted));
+        assertRecord(restarted.get("s-1"), "h1", "p1 again");
+        restarted.close();
+    }
+
+    @Test
+    public void closedStoreRejectsAccess() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.close();
+        try {
+            persistence.keys();
+            fail("Expected MqttPersistenceException");
+        } catch (MqttPersistenceException expected) {
+            // 预期：关闭后不能读取，恢复投递必须在 Paho 关闭之前取出记录
+        }
+    }
+
+    @Test
+    public void openTwiceKeepsEntries() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.open(CLIENT_ID, SERVER_URI);
+        assertEquals(keys("s-1"), keys(persistence));
+        persistence.close();
+    }
+
+    @Test
+    public void clientsDoNotShareEntries() throws Exception {
+        MappedFilePersistence first = open();
+        first.put("s-1", record("h1", "p1"));
+        first.close();
+
+        MappedFilePersistence other = new MappedFilePersistence(baseDir);
+        other.open("another-client", SERVER_URI);
+        assertTrue(keys(other).isEmpty());
+        other.close();
+    }
+
+    @Test
+    public void clearIsPersisted() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.clear();
+        persistence.put("s-2", record("h2", "p2"));
+        persistence.close();
+
+        MappedFilePersistence restarted = open();
+        assertEquals(keys("s-2"), keys(restarted));
+        restarted.close();
+    }
+
+    @Test
+    public void tornRecordIsTruncated() throws Exception {
+        MappedFilePersistence persistence = open();
+        persistence.put("s-1", record("h1", "p1"));
+        persistence.put("s-2", record("h2", "second payload"));
+        persistence.close();
+
+        // 第二条记录的 payload 最后一个字节被改坏，CRC 不再匹配
+        File log = new File(clientDir(), "inflight.log");
+        int firstRecord = 17 + "s-1".length() + "h1".length() + "p1".length();
+        int lastPayloadByte = firstRecord + 17 + "s-2".length() + "h2".length() + "second payload".length() - 1;
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(lastPayloadByte);
+            file.write('X');
+        }
+
+        MappedFilePersistence restarted = open();
+        assertEquals(keys("s-1"), keys(restarted));
+        // 截断后继续追加，再次打开仍能读到
+        restarted.put("s-3", record("h3", "p3"));
+        restarted.close();
+        MappedFilePersistence again = open();
+        assertEquals(keys("s-1", "s-3"), keys(again));
+        again.close();
+    }
+
+    @Test
+    public void compactionKeepsLiveEntries() throws Exception {
+        MappedFilePersistence persistence = open();
+        String payload = repeat('x', 1024);
+        persistence.put("s-keep", record("keep", "kept"));
+        // 写入并删除足够多的记录，触发压缩
+        for (int i = 0; i < 400; i++) {
+            persistence.put("s-" + i, record("h", payload));
+            persistence.remove("s-" + i);
+        }
+        persistence.put("s-last", record("last", payload));
+        assertEquals(keys("s-keep", "s-last"), keys(persistence));
+        persistence.close();
+
+        long logSize = new File(clientDir(), "inflight.log").length();
+        assertTrue("log size " + logSize, logSize < 400 * 1024);
+        assertFalse(new File(clientDir(), "inflight.log.compact").exists());
+
+        MappedFilePersistence restarted = open();
+        assertEquals(keys("s-keep", "s-last"), keys(restarted));
+        assertRecord(restarted.get("s-keep"), "keep", "kept");
+        assertRecord(restarted.get("s-last"), "last", payload);
+        restarted.close();
+    }
+
+    private MappedFilePersistence open() throws MqttPersistenceException {
+        MappedFilePersistence persistence = new MappedFilePersistence(baseDir);
+        persistence.open(CLIENT_ID, SERVER_URI);
+        return persistence;
+    }
+
+    private File clientDir() {
+        File[] dirs = baseDir.listFiles();
+        assertEquals(1, dirs.length);
+        return dirs[0];
+    }
+
+    private static MqttPersistable record(String header, String payload) {
+        return new BytesPersistable(header.getBytes(StandardCharsets.UTF_8),
+                payload == null ? null : payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRecord(MqttPersistable persistable, String header, String payload)
+            throws MqttPersistenceException {
+        assertEquals(header, new String(persistable.getHeaderBytes(), persistable.getHeaderOffset(),
+                persistable.getHeaderLength(), StandardCharsets.UTF_8));
+        if (payload == null) {
+            assertEquals(0, persistable.getPayloadLength());
+        } else {
+            byte[] actual = new byte[persistable.getPayloadLength()];
+            System.arraycopy(persistable.getPayloadBytes(), persistable.getPayloadOffset(), actual, 0, actual.length);
+            assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), actual);
+        }
+    }
+
+    private static List<String> keys(MappedFilePersistence persistence) throws MqttPersistenceException {
+        List<String> keys = new ArrayList<>();
+        Enumeration<?> enumeration = persistence.keys();
+        while (enumeration.hasMoreElements()) {
+            keys.add((String) enumeration.nextElement());
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static List<String> keys(String... keys) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, keys);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class BytesPersistable implements MqttPersistable {
+        private final byte[] header;
+        private final byte[] payload;
+
+        BytesPersistable(byte[] header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload == null ? 0 : payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
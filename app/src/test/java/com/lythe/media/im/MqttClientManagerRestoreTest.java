@@ -0,0 +1,91 @@
+package com.lythe.media.im;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Paho 构造 MqttAsyncClient 时打开持久化恢复 ClientState，随后关闭，直到 connect 才重新打开；
+ * 恢复 token 所需的原始 PUBLISH 必须在构造之前读出
+ */
+public class MqttClientManagerRestoreTest {
+    private static final String CLIENT_ID = "android-client-test";
+    private static final String SERVER_URI = "tcp://localhost:1883";
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("mqtt-restore").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] dirs = baseDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                dir.delete();
+            }
+        }
+        baseDir.delete();
+    }
+
+    @Test
+    public void sentPublishesSurvivePahoClosingTheStore() throws Exception {
+        byte[] payload = "hello".getBytes(StandardCharsets.UTF_8);
+        MappedFilePersistence previous = new MappedFilePersistence(baseDir);
+        previous.open(CLIENT_ID, SERVER_URI);
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(1);
+        MqttPublish publish = new MqttPublish("im/chat/a", message);
+        publish.setMessageId(7);
+        previous.put("s-7", publish);
+        previous.close();
+
+        MappedFilePersistence persistence = new MappedFilePersistence(baseDir);
+        Map<String, MqttPublish> persisted = MqttClientManager.readSentPublishes(persistence, CLIENT_ID, SERVER_URI);
+        MqttAsyncClient client = new MqttAsyncClient(SERVER_URI, CLIENT_ID, persistence);
+        try {
+            // 构造结束时持久化已被 Paho 关闭
+            try {
+                persistence.keys();
+                fail("Expected MqttPersistenceException");
+            } catch (MqttPersistenceException expected) {
+                // 预期
+            }
+
+            MqttPublish restored = persisted.get("7");
+            assertNotNull(restored);
+            assertEquals("im/chat/a", restored.getTopicName());
+            assertArrayEquals(payload, restored.getMessage().getPayload());
+
+            IMqttDeliveryToken[] tokens = client.getPendingDeliveryTokens();
+            assertEquals(1, tokens.length);
+            assertEquals("7", MqttClientManager.tokenKey(tokens[0]));
+        } finally {
+            client.close();
+        }
+    }
+}
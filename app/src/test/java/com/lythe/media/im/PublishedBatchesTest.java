@@ -0,0 +1,90 @@
+package com.lythe.media.im;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PublishedBatchesTest {
+    private final PublishedBatches batches = new PublishedBatches("batch-");
+    private final List<String> completed = new ArrayList<>();
+
+    @Test
+    public void completionFansOutToEveryMessageInOrder() {
+        String context = batches.register(Arrays.asList("m1", "m2", "m3"));
+
+        assertTrue(batches.complete(context, true, null, this::record));
+
+        assertEquals(Arrays.asList("m1 true", "m2 true", "m3 true"), completed);
+        assertEquals(0, batches.size());
+    }
+
+    @Test
+    public void failureFansOutWithError() {
+        String context = batches.register(Arrays.asList("m1", "m2"));
+
+        assertTrue(batches.complete(context, false, "lost", this::record));
+
+        assertEquals(Arrays.asList("m1 false lost", "m2 false lost"), completed);
+    }
+
+    @Test
+    public void batchCompletesOnlyOnce() {
+        String context = batches.register(Arrays.asList("m1"));
+        batches.complete(context, true, null, this::record);
+
+        assertFalse(batches.complete(context, true, null, this::record));
+        assertEquals(1, completed.size());
+    }
+
+    @Test
+    public void singleMessageContextIsLeftToCaller() {
+        batches.register(Arrays.asList("m1", "m2"));
+
+        assertFalse(batches.complete("m1", true, null, this::record));
+        assertTrue(completed.isEmpty());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void contextsAreUniqueAndPrefixed() {
+        String first = batches.register(Arrays.asList("m1"));
+        String second = batches.register(Arrays.asList("m2"));
+
+        assertNotEquals(first, second);
+        assertTrue(first.startsWith("batch-"));
+        assertTrue(second.startsWith("batch-"));
+    }
+
+    @Test
+    public void discardAndClearDropWithoutNotifying() {
+        String first = batches.register(Arrays.asList("m1"));
+        String second = batches.register(Arrays.asList("m2"));
+
+        batches.discard(first);
+        assertFalse(batches.complete(first, true, null, this::record));
+        batches.clear();
+        assertFalse(batches.complete(second, true, null, this::record));
+        assertTrue(completed.isEmpty());
+    }
+
+    @Test
+    public void onlyChatTopicsAreBatched() {
+        assertTrue(MqttClientManager.isBatchTopic("chat/u1"));
+        assertTrue(MqttClientManager.isBatchTopic("group/chat"));
+        assertFalse(MqttClientManager.isBatchTopic("chat/u1" + MqttClientManager.BATCH_TOPIC_SUFFIX));
+        assertFalse(MqttClientManager.isBatchTopic("chat/u1" + MqttClientManager.SYNC_TOPIC_SUFFIX));
+        assertFalse(MqttClientManager.isBatchTopic(MqttClientManager.SYNC_REQUEST_TOPIC));
+        assertFalse(MqttClientManager.isBatchTopic(null));
+    }
+
+    private void record(String msgId, boolean success, String errorMsg) {
+        completed.add(msgId + " " + success + (errorMsg == null ? "" : " " + errorMsg));
+    }
+}
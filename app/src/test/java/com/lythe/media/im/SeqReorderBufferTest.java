@@ -0,0 +1,137 @@
+package com.lythe.media.im;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SeqReorderBuffer 只能在所属 executor 上调用，这里所有操作都提交到该 executor 并等待完成
+ */
+public class SeqReorderBufferTest {
+    private static final String CONVERSATION = "c1";
+
+    private ScheduledExecutorService executor;
+    private SeqReorderBuffer buffer;
+    private final List<Long> emitted = new ArrayList<>();
+    private final List<long[]> gaps = new ArrayList<>();
+    private long storedSeq;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        buffer = new SeqReorderBuffer(executor,
+                conversationId -> storedSeq,
+                message -> emitted.add(message.serverMsgSeq),
+                (conversationId, fromSeq, toSeq) -> gaps.add(new long[]{fromSeq, toSeq}));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void firstMessageWithoutHistoryBecomesBaseline() throws Exception {
+        storedSeq = 0;
+        offer(5, 6, 7);
+        assertEmitted(5, 6, 7);
+        assertTrue(gaps().isEmpty());
+    }
+
+    @Test
+    public void outOfOrderMessagesAreReleasedInOrder() throws Exception {
+        storedSeq = 10;
+        offer(12, 13);
+        assertEmitted();
+        offer(11);
+        assertEmitted(11, 12, 13);
+        assertTrue(gaps().isEmpty());
+    }
+
+    @Test
+    public void oldAndUnsequencedMessagesPassThrough() throws Exception {
+        storedSeq = 10;
+        offer(5, 0, 10);
+        assertEmitted(5, 0, 10);
+    }
+
+    @Test
+    public void duplicateHeldSeqIsDropped() throws Exception {
+        storedSeq = 10;
+        offer(12, 12, 11);
+        assertEmitted(11, 12);
+    }
+
+    @Test
+    public void timeoutReportsGapAndReleasesHeld() throws Exception {
+        storedSeq = 10;
+        offer(13, 14);
+        Thread.sleep(600);
+        assertEmitted(13, 14);
+        List<long[]> reported = gaps();
+        assertEquals(1, reported.size());
+        assertEquals(11, reported.get(0)[0]);
+        assertEquals(12, reported.get(0)[1]);
+    }
+
+    @Test
+    public void overflowReleasesWithoutWaiting() throws Exception {
+        storedSeq = 1;
+        long[] seqs = new long[200];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = 3 + i;
+        }
+        offer(seqs);
+        assertEquals(200, emitted().size());
+        assertEquals(1, gaps().size());
+        assertEquals(2, gaps().get(0)[0]);
+        assertEquals(2, gaps().get(0)[1]);
+    }
+
+    @Test
+    public void flushAllReleasesHeldMessages() throws Exception {
+        storedSeq = 10;
+        offer(15);
+        executor.submit(buffer::flushAll).get();
+        assertEmitted(15);
+        assertEquals(1, gaps().size());
+        assertEquals(11, gaps().get(0)[0]);
+        assertEquals(14, gaps().get(0)[1]);
+    }
+
+    private void offer(long... seqs) throws Exception {
+        executor.submit(() -> {
+            for (long seq : seqs) {
+                buffer.offer(header(seq));
+            }
+        }).get();
+    }
+
+    private static MessageHeader header(long seq) {
+        return new MessageHeader("m" + seq, CONVERSATION, seq, seq * 1000, null, seq, new byte[0], 0, 0);
+    }
+
+    private List<Long> emitted() throws Exception {
+        return executor.submit(() -> new ArrayList<>(emitted)).get();
+    }
+
+    private List<long[]> gaps() throws Exception {
+        return executor.submit(() -> new ArrayList<>(gaps)).get();
+    }
+
+    private void assertEmitted(long... seqs) throws Exception {
+        List<Long> expected = new ArrayList<>();
+        for (long seq : seqs) {
+            expected.add(seq);
+        }
+        assertEquals(expected, emitted());
+    }
+}
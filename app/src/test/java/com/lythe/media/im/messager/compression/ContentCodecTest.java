@@ -0,0 +1,176 @@
+package com.lythe.media.im.messager.compression;
+
+import com.lythe.nativelib.NativeCodec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * 本地 JVM 上没有 nativelib，LZ4/Zstd 只验证退回 deflate 和解码报错的路径
+ */
+public class ContentCodecTest {
+    private static final byte MAGIC = (byte) 0xC1;
+    private static final byte[] SHORT_TEXT = "好的，今晚八点老地方见，记得带上文件".getBytes(StandardCharsets.UTF_8);
+
+    private final ContentCodec codec = ContentCodec.getInstance();
+
+    @Test
+    public void roundTripWithDictionary() throws IOException {
+        byte[] encoded = codec.encode(SHORT_TEXT, true);
+        assertTrue(ContentCodec.isFramed(encoded, 0, encoded.length));
+        assertArrayEquals(SHORT_TEXT, codec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripWithoutDictionary() throws IOException {
+        byte[] raw = repeat("hello group chat, ", 200);
+        byte[] encoded = codec.encode(raw, false);
+        assertEquals(ContentCodec.CODEC_DEFLATE, encoded[1]);
+        assertTrue(encoded.length < raw.length);
+        assertArrayEquals(raw, codec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripStored() throws IOException {
+        byte[] encoded = codec.encode(SHORT_TEXT, ContentCodec.CODEC_STORED);
+        assertEquals(ContentCodec.CODEC_STORED, encoded[1]);
+        assertArrayEquals(SHORT_TEXT, codec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripEmpty() throws IOException {
+        byte[] encoded = codec.encode(new byte[0]);
+        assertArrayEquals(new byte[0], codec.decode(encoded));
+    }
+
+    @Test
+    public void roundTripLargeContent() throws IOException {
+        // 原始长度的 varint 占多个字节
+        byte[] raw = repeat("消息内容 message body ", 20_000);
+        assertArrayEquals(raw, codec.decode(codec.encode(raw)));
+    }
+
+    @Test
+    public void incompressibleContentIsStored() throws IOException {
+        byte[] raw = new byte[512];
+        new Random(1).nextBytes(raw);
+        byte[] encoded = codec.encode(raw);
+        assertEquals(ContentCodec.CODEC_STORED, encoded[1]);
+        assertArrayEquals(raw, codec.decode(encoded));
+    }
+
+    @Test
+    public void nativeCodecFallsBackToDictionaryDeflate() throws IOException {
+        assumeFalse(NativeCodec.isAvailable());
+        byte[] raw = repeat("lz4 fallback ", 200);
+        for (int requested : new int[]{ContentCodec.CODEC_LZ4, ContentCodec.CODEC_ZSTD}) {
+            byte[] encoded = codec.encode(raw, requested);
+            assertEquals(ContentCodec.CODEC_DEFLATE_DICT_V1, encoded[1]);
+            assertArrayEquals(raw, codec.decode(encoded));
+        }
+    }
+
+    @Test
+    public void unframedDataIsReturnedAsIs() throws IOException {
+        byte[] legacy = "legacy content".getBytes(StandardCharsets.UTF_8);
+        assertFalse(ContentCodec.isFramed(legacy, 0, legacy.length));
+        assertArrayEquals(legacy, codec.decode(legacy));
+    }
+
+    @Test
+    public void decodeHonoursOffsetAndLength() throws IOException {
+        byte[] encoded = codec.encode(SHORT_TEXT);
+        byte[] padded = new byte[encoded.length + 6];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+        assertArrayEquals(SHORT_TEXT, codec.decode(padded, 3, encoded.length));
+    }
+
+    @Test
+    public void truncatedFrameIsRejected() {
+        byte[] encoded = codec.encode(repeat("truncate me ", 100));
+        assertMalformed(Arrays.copyOf(encoded, encoded.length - 4));
+    }
+
+    @Test
+    public void unknownCodecIsRejected() {
+        assertMalformed(new byte[]{MAGIC, 99, 1, 'a'});
+    }
+
+    @Test
+    public void overlongLengthVarintIsRejected() {
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_STORED, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, 0x01});
+    }
+
+    @Test
+    public void unterminatedLengthVarintIsRejected() {
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_STORED, (byte) 0x80});
+    }
+
+    @Test
+    public void oversizedRawLengthIsRejected() {
+        // 32 MB，超过 16 MB 上限
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_DEFLATE, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10});
+    }
+
+    @Test
+    public void storedLengthMismatchIsRejected() {
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_STORED, 5, 'a', 'b'});
+    }
+
+    @Test
+    public void corruptDeflateBodyIsRejected() {
+        // 0xFF 的块类型为保留值 11
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_DEFLATE, 10, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+    }
+
+    @Test
+    public void nativeFrameWithoutNativeLibraryIsRejected() {
+        assumeFalse(NativeCodec.isAvailable());
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_LZ4, 3, 1, 2, 3});
+        assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_ZSTD, 3, 1, 2, 3});
+    }
+
+    @Test
+    public void decodeLenientReturnsInputOnMalformedFrame() {
+        byte[] malformed = {MAGIC, 99, 1, 'a'};
+        assertSame(malformed, codec.decodeLenient(malformed));
+    }
+
+    @Test
+    public void pooledCodersStayUsableAfterFailures() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            assertMalformed(new byte[]{MAGIC, ContentCodec.CODEC_DEFLATE, 10, (byte) 0xFF, (byte) 0xFF});
+            assertArrayEquals(SHORT_TEXT, codec.decode(codec.encode(SHORT_TEXT)));
+        }
+    }
+
+    private void assertMalformed(byte[] data) {
+        try {
+            codec.decode(data);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
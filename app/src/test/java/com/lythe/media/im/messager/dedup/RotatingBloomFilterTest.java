@@ -0,0 +1,75 @@
+package com.lythe.media.im.messager.dedup;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RotatingBloomFilterTest {
+    private static final long SPAN_MS = 1000;
+
+    @Test
+    public void addedHashIsFound() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(3, 1 << 16, 4, SPAN_MS, 0);
+        filter.add(42L, 0);
+        assertTrue(filter.mightContain(42L, 0));
+        assertTrue(filter.mightContain(42L, SPAN_MS - 1));
+    }
+
+    @Test
+    public void falsePositiveRateIsLow() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(3, 1 << 16, 4, SPAN_MS, 0);
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(random.nextLong(), 0);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain(random.nextLong(), 0)) {
+                falsePositives++;
+            }
+        }
+        // 65536 位、4 个哈希、1000 个元素，理论误判率约 1e-5
+        assertTrue("false positives: " + falsePositives, falsePositives < 10);
+    }
+
+    @Test
+    public void hashSurvivesUntilItsBucketIsReused() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(3, 1 << 12, 4, SPAN_MS, 0);
+        filter.add(42L, 0);
+        // 轮转到第 3 个桶，写入时的桶仍在
+        assertTrue(filter.mightContain(42L, 2 * SPAN_MS + SPAN_MS / 2));
+        // 再轮转一次，最旧的桶被清空复用
+        assertFalse(filter.mightContain(42L, 3 * SPAN_MS));
+    }
+
+    @Test
+    public void longIdleClearsAllBuckets() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(3, 1 << 12, 4, SPAN_MS, 0);
+        filter.add(1L, 0);
+        filter.add(2L, SPAN_MS);
+        assertFalse(filter.mightContain(1L, 1_000 * SPAN_MS));
+        assertFalse(filter.mightContain(2L, 1_000 * SPAN_MS));
+
+        filter.add(3L, 1_000 * SPAN_MS);
+        assertTrue(filter.mightContain(3L, 1_000 * SPAN_MS + SPAN_MS / 2));
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(3, 1 << 12, 4, SPAN_MS, 0);
+        filter.add(42L, 0);
+        filter.clear(10);
+        assertFalse(filter.mightContain(42L, 10));
+    }
+
+    @Test
+    public void bitsPerBucketRoundsUpToPowerOfTwo() {
+        // 1000 位向上取到 1024 位 = 128 字节
+        assertEquals(2 * 128, new RotatingBloomFilter(2, 1000, 3, SPAN_MS, 0).sizeInBytes());
+        assertEquals(2 * 128, new RotatingBloomFilter(2, 1024, 3, SPAN_MS, 0).sizeInBytes());
+    }
+}
@@ -0,0 +1,186 @@
+package com.lythe.media.im.messager.queue;
+
+import com.lythe.media.im.MqttClientManager;
+import com.lythe.media.protobuf.ImMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PublishFlowControllerTest {
+    private static final int WINDOW = 2;
+
+    private ScheduledExecutorService drainExecutor;
+    private FakePublisher publisher;
+    private PublishFlowController controller;
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        drainExecutor = Executors.newSingleThreadScheduledExecutor();
+        publisher = new FakePublisher();
+        controller = new PublishFlowController(publisher, WINDOW, drainExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        drainExecutor.shutdownNow();
+    }
+
+    @Test
+    public void sendsUpToWindowAndParksTheRest() {
+        send("m1", "m2", "m3");
+
+        assertEquals(Arrays.asList("m1", "m2"), publisher.sentIds());
+        assertEquals(1, controller.getParkedCount());
+        assertEquals(2, controller.getInflightCount());
+    }
+
+    @Test
+    public void completionReleasesParkedInFifoOrder() throws Exception {
+        send("m1", "m2", "m3", "m4");
+
+        publisher.complete(0, true);
+        awaitDrain();
+        assertEquals(Arrays.asList("m1", "m2", "m3"), publisher.sentIds());
+
+        publisher.complete(1, false);
+        awaitDrain();
+        assertEquals(Arrays.asList("m1", "m2", "m3", "m4"), publisher.sentIds());
+        assertEquals(0, controller.getParkedCount());
+        assertEquals(Arrays.asList("m1 success", "m2 failed"), results);
+    }
+
+    @Test
+    public void windowFollowsPahoTokenCount() {
+        // 重连续发的消息同样占用窗口
+        publisher.inflight = 1;
+        send("m1", "m2");
+
+        assertEquals(Arrays.asList("m1"), publisher.sentIds());
+        assertEquals(1, controller.getParkedCount());
+    }
+
+    @Test
+    public void deferredSendGoesBackToHeadWithoutFailing() throws Exception {
+        send("m1");
+        publisher.defer(0);
+        assertEquals(1, controller.getParkedCount());
+
+        send("m2");
+        // Paho报告超限后暂停放行，直到延迟重试
+        assertEquals(1, publisher.sent.size());
+
+        Thread.sleep(300);
+        awaitDrain();
+        assertEquals(Arrays.asList("m1", "m1", "m2"), publisher.sentIds());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void disconnectedSendsWaitForConnection() throws Exception {
+        publisher.connected = false;
+        send("m1");
+        assertTrue(publisher.sent.isEmpty());
+
+        publisher.connected = true;
+        Thread.sleep(700);
+        awaitDrain();
+        assertEquals(Arrays.asList("m1"), publisher.sentIds());
+    }
+
+    @Test
+    public void clearDropsParkedSends() {
+        send("m1", "m2", "m3");
+        controller.clear();
+
+        assertEquals(0, controller.getParkedCount());
+    }
+
+    private void send(String... ids) {
+        for (String id : ids) {
+            controller.send("chat/u1", ImMessage.newBuilder().setMessageId(id).build(), 1,
+                    new MqttClientManager.Callback() {
+                        @Override
+                        public void onSendSuccess() {
+                            results.add(id + " success");
+                        }
+
+                        @Override
+                        public void onSendFailed() {
+                            results.add(id + " failed");
+                        }
+                    });
+        }
+    }
+
+    private void awaitDrain() throws Exception {
+        drainExecutor.submit(() -> { }).get();
+    }
+
+    /**
+     * inflight数与Paho一样按已发出未完成的消息计
+     */
+    private static class FakePublisher implements PublishFlowController.Publisher {
+        final List<Sent> sent = new ArrayList<>();
+        volatile boolean connected = true;
+        volatile int inflight;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public int getInflightCount() {
+            return inflight;
+        }
+
+        @Override
+        public void sendMessage(String topic, ImMessage message, int qos, MqttClientManager.Callback callback) {
+            sent.add(new Sent(message.getMessageId(), callback));
+            inflight++;
+        }
+
+        void complete(int index, boolean success) {
+            inflight--;
+            if (success) {
+                sent.get(index).callback.onSendSuccess();
+            } else {
+                sent.get(index).callback.onSendFailed();
+            }
+        }
+
+        void defer(int index) {
+            inflight--;
+            sent.get(index).callback.onSendDeferred();
+        }
+
+        List<String> sentIds() {
+            List<String> ids = new ArrayList<>();
+            for (Sent s : sent) {
+                ids.add(s.msgId);
+            }
+            return ids;
+        }
+    }
+
+    private static class Sent {
+        final String msgId;
+        final MqttClientManager.Callback callback;
+
+        Sent(String msgId, MqttClientManager.Callback callback) {
+            this.msgId = msgId;
+            this.callback = callback;
+        }
+    }
+}
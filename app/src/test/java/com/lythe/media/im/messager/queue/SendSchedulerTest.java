@@ -0,0 +1,141 @@
+package com.lythe.media.im.messager.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 时钟由用例推进；take() 在后台线程上阻塞，按超时等待结果
+ */
+public class SendSchedulerTest {
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final SendScheduler<Item> scheduler = new SendScheduler<>(now::get);
+    private ExecutorService taker;
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        taker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        taker.shutdownNow();
+    }
+
+    @Test
+    public void highPriorityFirstThenFifo() throws Exception {
+        scheduler.offer(item("n1", false, 0));
+        scheduler.offer(item("h1", true, 0));
+        scheduler.offer(item("n2", false, 0));
+        scheduler.offer(item("h2", true, 0));
+
+        assertEquals(Arrays.asList("h1", "h2", "n1", "n2"), takeIds(4));
+    }
+
+    @Test
+    public void retryIsHeldUntilDue() throws Exception {
+        scheduler.offer(item("retry", true, 100));
+        scheduler.offer(item("ready", false, 0));
+
+        assertEquals("ready", scheduler.take().id);
+        Future<Item> pending = taker.submit(scheduler::take);
+        Thread.sleep(50);
+        assertFalse(pending.isDone());
+
+        now.addAndGet(100);
+        assertEquals("retry", pending.get(1, TimeUnit.SECONDS).id);
+    }
+
+    @Test
+    public void dueRetryKeepsItsPriority() throws Exception {
+        scheduler.offer(item("retry", true, 10));
+        scheduler.offer(item("ready", false, 0));
+        now.addAndGet(10);
+
+        assertEquals(Arrays.asList("retry", "ready"), takeIds(2));
+    }
+
+    @Test
+    public void takeWakesOnOffer() throws Exception {
+        Future<Item> pending = taker.submit(scheduler::take);
+        Thread.sleep(50);
+        assertFalse(pending.isDone());
+
+        scheduler.offer(item("m1", false, 0));
+        assertEquals("m1", pending.get(1, TimeUnit.SECONDS).id);
+    }
+
+    @Test
+    public void countsAndDrainCoverReadyAndDelayed() {
+        scheduler.offer(item("h1", true, 0));
+        scheduler.offer(item("h2", true, 500));
+        scheduler.offer(item("n1", false, 500));
+
+        assertEquals(2, scheduler.countByPriority(true));
+        assertEquals(1, scheduler.countByPriority(false));
+
+        List<String> drained = new ArrayList<>();
+        for (Item item : scheduler.drainAll()) {
+            drained.add(item.id);
+        }
+        assertEquals(3, drained.size());
+        assertTrue(drained.containsAll(Arrays.asList("h1", "h2", "n1")));
+        assertEquals(0, scheduler.countByPriority(true));
+        assertEquals(0, scheduler.countByPriority(false));
+    }
+
+    private List<String> takeIds(int count) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(taker.submit(scheduler::take).get(1, TimeUnit.SECONDS).id);
+        }
+        return ids;
+    }
+
+    private Item item(String id, boolean highPriority, long delayMs) {
+        return new Item(id, highPriority, now.get() + delayMs, sequence++);
+    }
+
+    private static class Item implements SendScheduler.Schedulable {
+        final String id;
+        final boolean highPriority;
+        final long nextAttemptAt;
+        final long sequence;
+
+        Item(String id, boolean highPriority, long nextAttemptAt, long sequence) {
+            this.id = id;
+            this.highPriority = highPriority;
+            this.nextAttemptAt = nextAttemptAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean isHighPriority() {
+            return highPriority;
+        }
+
+        @Override
+        public long getNextAttemptAt() {
+            return nextAttemptAt;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+#include <jni.h>
+#include <android/log.h>
+
+#include "lz4.h"
+#include "zstd.h"
+
+#define LOG_TAG "NativeCodec"
+#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+
+// 错误码，与 NativeCodec.java 保持一致
+static const jint ERR_NOT_DIRECT = -1;
+static const jint ERR_OUT_OF_RANGE = -2;
+static const jint ERR_CODEC = -3;
+
+namespace {
+
+// 每个线程复用一组 zstd 上下文，避免每次调用重新分配
+struct ZstdContexts {
+    ZSTD_CCtx *cctx = nullptr;
+    ZSTD_DCtx *dctx = nullptr;
+
+    ~ZstdContexts() {
+        ZSTD_freeCCtx(cctx);
+        ZSTD_freeDCtx(dctx);
+    }
+};
+
+thread_local ZstdContexts zstdContexts;
+
+// 取直接缓冲区的 [pos, pos + len) 区间，不拷贝
+char *region(JNIEnv *env, jobject buffer, jint pos, jint len, jint *error) {
+    auto *base = static_cast<char *>(env->GetDirectBufferAddress(buffer));
+    if (base == nullptr) {
+        *error = ERR_NOT_DIRECT;
+        return nullptr;
+    }
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if (pos < 0 || len < 0 || static_cast<jlong>(pos) + len > capacity) {
+        *error = ERR_OUT_OF_RANGE;
+        return nullptr;
+    }
+    return base + pos;
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nLz4CompressBound(JNIEnv *, jclass, jint length) {
+    return LZ4_compressBound(length);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nZstdCompressBound(JNIEnv *, jclass, jint length) {
+    size_t bound = ZSTD_compressBound(static_cast<size_t>(length));
+    return bound > 0x7fffffff ? ERR_OUT_OF_RANGE : static_cast<jint>(bound);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nLz4Compress(JNIEnv *env, jclass,
+                                                  jobject src, jint srcPos, jint srcLen,
+                                                  jobject dst, jint dstPos, jint dstCap) {
+    jint error = 0;
+    char *in = region(env, src, srcPos, srcLen, &error);
+    char *out = in == nullptr ? nullptr : region(env, dst, dstPos, dstCap, &error);
+    if (out == nullptr) {
+        return error;
+    }
+    int written = LZ4_compress_default(in, out, srcLen, dstCap);
+    return written > 0 ? written : ERR_CODEC;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nLz4Decompress(JNIEnv *env, jclass,
+                                                    jobject src, jint srcPos, jint srcLen,
+                                                    jobject dst, jint dstPos, jint dstCap) {
+    jint error = 0;
+    char *in = region(env, src, srcPos, srcLen, &error);
+    char *out = in == nullptr ? nullptr : region(env, dst, dstPos, dstCap, &error);
+    if (out == nullptr) {
+        return error;
+    }
+    // safe 版本会校验输入，损坏数据不会越界写
+    int written = LZ4_decompress_safe(in, out, srcLen, dstCap);
+    return written >= 0 ? written : ERR_CODEC;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nZstdCompress(JNIEnv *env, jclass,
+                                                   jobject src, jint srcPos, jint srcLen,
+                                                   jobject dst, jint dstPos, jint dstCap,
+                                                   jint level) {
+    jint error = 0;
+    char *in = region(env, src, srcPos, srcLen, &error);
+    char *out = in == nullptr ? nullptr : region(env, dst, dstPos, dstCap, &error);
+    if (out == nullptr) {
+        return error;
+    }
+    if (zstdContexts.cctx == nullptr) {
+        zstdContexts.cctx = ZSTD_createCCtx();
+    }
+    size_t written = ZSTD_compressCCtx(zstdContexts.cctx, out, dstCap, in, srcLen, level);
+    if (ZSTD_isError(written)) {
+        LOGE("zstd compress failed: %s", ZSTD_getErrorName(written));
+        return ERR_CODEC;
+    }
+    return static_cast<jint>(written);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_lythe_nativelib_NativeCodec_nZstdDecompress(JNIEnv *env, jclass,
+                                                     jobject src, jint srcPos, jint srcLen,
+                                                     jobject dst, jint dstPos, jint dstCap) {
+    jint error = 0;
+    char *in = region(env, src, srcPos, srcLen, &error);
+    char *out = in == nullptr ? nullptr : region(env, dst, dstPos, dstCap, &error);
+    if (out == nullptr) {
+        return error;
+    }
+    if (zstdContexts.dctx == nullptr) {
+        zstdContexts.dctx = ZSTD_createDCtx();
+    }
+    size_t written = ZSTD_decompressDCtx(zstdContexts.dctx, out, dstCap, in, srcLen);
+    if (ZSTD_isError(written)) {
+        LOGE("zstd decompress failed: %s", ZSTD_getErrorName(written));
+        return ERR_CODEC;
+    }
+    return static_cast<jint>(written);
+}
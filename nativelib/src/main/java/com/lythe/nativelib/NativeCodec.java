@@ -0,0 +1,97 @@
+package com.lythe.nativelib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4 / Zstd 压缩的 JNI 封装
+ * 只接受直接缓冲区(ByteBuffer.allocateDirect)，native 侧直接读写缓冲区内存，跨 JNI 不拷贝。
+ * 所有方法读取 src 的 [position, limit)，从 dst.position() 开始写，成功后推进两者的 position。
+ * LZ4 用于实时消息（速度优先），Zstd 用于同步和备份（压缩率优先）。
+ */
+public final class NativeCodec {
+    public static final int ZSTD_DEFAULT_LEVEL = 3;
+
+    // 与 codec.cpp 中的错误码一致
+    private static final int ERR_NOT_DIRECT = -1;
+    private static final int ERR_OUT_OF_RANGE = -2;
+
+    private static final boolean AVAILABLE;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("nativelib");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        AVAILABLE = loaded;
+    }
+
+    private NativeCodec() {}
+
+    /**
+     * native 库是否加载成功；不可用时调用方应退回 java.util.zip
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    public static int lz4MaxCompressedLength(int length) {
+        return nLz4CompressBound(length);
+    }
+
+    public static int zstdMaxCompressedLength(int length) {
+        return nZstdCompressBound(length);
+    }
+
+    public static int lz4Compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return advance(src, dst, nLz4Compress(src, src.position(), src.remaining(),
+                dst, dst.position(), dst.remaining()));
+    }
+
+    /**
+     * dst 剩余空间需不小于原始长度（LZ4 块格式不记录原始长度）
+     */
+    public static int lz4Decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return advance(src, dst, nLz4Decompress(src, src.position(), src.remaining(),
+                dst, dst.position(), dst.remaining()));
+    }
+
+    public static int zstdCompress(ByteBuffer src, ByteBuffer dst, int level) throws IOException {
+        return advance(src, dst, nZstdCompress(src, src.position(), src.remaining(),
+                dst, dst.position(), dst.remaining(), level));
+    }
+
+    public static int zstdDecompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return advance(src, dst, nZstdDecompress(src, src.position(), src.remaining(),
+                dst, dst.position(), dst.remaining()));
+    }
+
+    private static int advance(ByteBuffer src, ByteBuffer dst, int result) throws IOException {
+        if (result == ERR_NOT_DIRECT) {
+            throw new IllegalArgumentException("NativeCodec requires direct ByteBuffers");
+        }
+        if (result == ERR_OUT_OF_RANGE) {
+            throw new IllegalArgumentException("Buffer range out of bounds");
+        }
+        if (result < 0) {
+            throw new IOException("Native codec failed: " + result);
+        }
+        src.position(src.limit());
+        dst.position(dst.position() + result);
+        return result;
+    }
+
+    private static native int nLz4CompressBound(int length);
+    private static native int nZstdCompressBound(int length);
+    private static native int nLz4Compress(ByteBuffer src, int srcPos, int srcLen,
+                                           ByteBuffer dst, int dstPos, int dstCap);
+    private static native int nLz4Decompress(ByteBuffer src, int srcPos, int srcLen,
+                                             ByteBuffer dst, int dstPos, int dstCap);
+    private static native int nZstdCompress(ByteBuffer src, int srcPos, int srcLen,
+                                            ByteBuffer dst, int dstPos, int dstCap, int level);
+    private static native int nZstdDecompress(ByteBuffer src, int srcPos, int srcLen,
+                                              ByteBuffer dst, int dstPos, int dstCap);
+}